@@ -0,0 +1,253 @@
+package net.davidbergin.logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Writes a synthetic input directory for benchmarking and tuning - XML activities as activity.xsd defines them, and JSON
+ * records in the ActivityWrapper shape. Most files hold a single record, but the number per file follows a Pareto
+ * distribution, so a few files are very much larger than the rest. Multi-record XML files wrap their activities in a root
+ * element, and multi-record JSON files are arrays or newline delimited. A share of files are invalid - XML missing a
+ * required element or cut short, or JSON cut short - and none of their records are output.
+ * <p>
+ * The corpus depends only on the seed and the file count, so runs on the same corpus can be compared. Files are spread
+ * over subdirectories of {@value #FILES_PER_DIRECTORY}, so millions can be written, and the input must be walked
+ * recursively.
+ */
+public class CorpusGenerator {
+
+    static final int FILES_PER_DIRECTORY = 10_000;
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+    private static final String[] DESCRIPTIONS = { "Viewed", "Purchased" };
+
+    private final long seed;
+    private final double xmlShare;
+    private final double invalidShare;
+    private final double skew;
+    private final int maxRecords;
+
+    /**
+     * Creates a generator of half XML and half JSON files, one in fifty invalid, with at most 10,000 records in a file.
+     * @param seed the seed for the random choices.
+     */
+    public CorpusGenerator(final long seed) {
+        this(seed, 0.5, 0.02, 1.2, 10_000);
+    }
+
+    /**
+     * Creates a generator.
+     * @param seed the seed for the random choices.
+     * @param xmlShare the share of files which are XML, from 0 to 1.
+     * @param invalidShare the share of files which are invalid, from 0 to 1.
+     * @param skew the Pareto shape of the number of records in a file - the lower, the more very large files.
+     * @param maxRecords the most records in a file.
+     */
+    public CorpusGenerator(final long seed, final double xmlShare, final double invalidShare, final double skew, final int maxRecords) {
+        this.seed = seed;
+        this.xmlShare = xmlShare;
+        this.invalidShare = invalidShare;
+        this.skew = skew;
+        this.maxRecords = Math.max(1, maxRecords);
+    }
+
+    /**
+     * Writes a corpus. Usage: CorpusGenerator &lt;directory&gt; &lt;files&gt; [seed]
+     * @param args the directory to write to, the number of files and, optionally, the seed.
+     * @throws IOException if a file could not be written.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CorpusGenerator <directory> <files> [seed]");
+            System.exit(2);
+        }
+        final Corpus corpus = new CorpusGenerator(args.length > 2 ? Long.parseLong(args[2]) : 1)
+                .generate(Paths.get(args[0]), Integer.parseInt(args[1]));
+        System.out.println(corpus);
+    }
+
+    /**
+     * Writes the files of a corpus, replacing any of the same name.
+     * @param dir the directory to write to, which is created if needed.
+     * @param files the number of files.
+     * @return what was written.
+     * @throws IOException if a file could not be written.
+     */
+    public Corpus generate(final Path dir, final int files) throws IOException {
+
+        final Random random = new Random(seed);
+        final Corpus corpus = new Corpus();
+
+        Path subdirectory = null;
+        for (int i = 0; i < files; i++) {
+
+            if (i % FILES_PER_DIRECTORY == 0) {
+                subdirectory = Files.createDirectories(dir.resolve(String.format("d%04d", i / FILES_PER_DIRECTORY)));
+            }
+
+            final boolean xml = random.nextDouble() < xmlShare;
+            final boolean invalid = random.nextDouble() < invalidShare;
+            final int records = invalid ? 1 : records(random);
+            final Path file = subdirectory.resolve(String.format("f%07d", i) + (xml ? ".xml" : ".json"));
+
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                if (xml) {
+                    writeXml(writer, records, invalid, random);
+                } else {
+                    writeJson(writer, records, invalid, random);
+                }
+            }
+
+            corpus.files++;
+            corpus.bytes += Files.size(file);
+            if (invalid) {
+                corpus.invalid++;
+            } else {
+                corpus.records += records;
+                corpus.largest = Math.max(corpus.largest, records);
+            }
+
+        }
+
+        return corpus;
+
+    }
+
+    // Pareto distributed from 1, so most files hold one record and a few hold very many.
+    private int records(final Random random) {
+        final double records = Math.pow(1 - random.nextDouble(), -1 / skew);
+        return (int) Math.min(maxRecords, Math.floor(records));
+    }
+
+    private static void writeXml(final Writer writer, final int records, final boolean invalid, final Random random) throws IOException {
+
+        writer.write(XML_DECLARATION);
+
+        if (invalid) {
+            if (random.nextBoolean()) {
+                writer.write("<activity><websiteName>" + website(random) + "</websiteName><activityTypeCode>1</activityTypeCode>"
+                        + "<loggedInTime>2020-01-10</loggedInTime><number_of_views>1</number_of_views></activity>\n");
+            } else {
+                writer.write("<activity><userName>" + user(random) + "</userName><websiteName>" + website(random));
+            }
+            return;
+        }
+
+        if (records > 1) {
+            writer.write("<activities>\n");
+        }
+        for (int i = 0; i < records; i++) {
+            writer.write("<activity><userName>" + user(random) + "</userName><websiteName>" + website(random)
+                    + "</websiteName><activityTypeCode>" + (1 + random.nextInt(DESCRIPTIONS.length)) + "</activityTypeCode><loggedInTime>"
+                    + String.format("2020-%02d-%02d", month(random), day(random)) + "</loggedInTime><number_of_views>" + random.nextInt(1000)
+                    + "</number_of_views></activity>\n");
+        }
+        if (records > 1) {
+            writer.write("</activities>\n");
+        }
+
+    }
+
+    private static void writeJson(final Writer writer, final int records, final boolean invalid, final Random random) throws IOException {
+
+        if (invalid) {
+            writer.write(json(random).substring(0, 40));
+            return;
+        }
+
+        final boolean array = records > 1 && random.nextBoolean();
+        if (array) {
+            writer.write("[\n");
+        }
+        for (int i = 0; i < records; i++) {
+            if (array && i > 0) {
+                writer.write(",\n");
+            }
+            writer.write(json(random));
+            if (!array) {
+                writer.write('\n');
+            }
+        }
+        if (array) {
+            writer.write("\n]\n");
+        }
+
+    }
+
+    // A record with either an activity type description or a code, as both are in use.
+    private static String json(final Random random) {
+        final int code = 1 + random.nextInt(DESCRIPTIONS.length);
+        return "{\"activity\" : {\"userName\" : \"" + user(random) + "\",\"websiteName\" : \"" + website(random) + "\","
+                + (random.nextBoolean() ? "\"activityTypeDescription\" : \"" + DESCRIPTIONS[code - 1] + "\"" : "\"activityTypeCode\" : " + code)
+                + ",\"signedInTime\" : \"" + String.format("%02d/%02d/2020", month(random), day(random)) + "\",\"number_of_views\" : "
+                + random.nextInt(1000) + "}}";
+    }
+
+    private static String user(final Random random) {
+        return "user" + random.nextInt(100_000);
+    }
+
+    private static String website(final Random random) {
+        return "site" + random.nextInt(500) + ".com";
+    }
+
+    private static int month(final Random random) {
+        return 1 + random.nextInt(12);
+    }
+
+    private static int day(final Random random) {
+        return 1 + random.nextInt(28);
+    }
+
+    /**
+     * What a generator wrote.
+     */
+    public static final class Corpus {
+
+        private long files;
+        private long invalid;
+        private long records;
+        private long largest;
+        private long bytes;
+
+        /**
+         * @return the number of files written.
+         */
+        public long files() {
+            return files;
+        }
+
+        /**
+         * @return the number of invalid files written.
+         */
+        public long invalid() {
+            return invalid;
+        }
+
+        /**
+         * @return the number of valid records written, which should each be output once.
+         */
+        public long records() {
+            return records;
+        }
+
+        /**
+         * @return the number of bytes written.
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return files + " files (" + invalid + " invalid) - " + records + " records, at most " + largest + " in a file - " + bytes + " bytes";
+        }
+
+    }
+
+}
@@ -0,0 +1,173 @@
+package net.davidbergin.logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Runs the processor over a generated corpus and checks its throughput and peak resident memory against a stored
+ * baseline. If either has regressed by more than the tolerance, main throws, so the JVM exits with 1 and the build that
+ * ran it fails. Timings only compare on the machine they were measured on, so the baseline records the machine, and a
+ * baseline from any other machine is only reported against, never failed. The output is also checked to hold exactly the corpus's valid records. The best of several runs is taken,
+ * so one slow run does not fail the check, and peak memory is the JVM's high water mark over every run.
+ * <p>
+ * Usage: PerformanceHarness &lt;baseline-file&gt; [result-file], with the system properties perf.files, perf.seed,
+ * perf.runs and perf.tolerance, and perf.update=true to write the measured result as the new baseline. Processor settings
+ * are taken as logger.* system properties.
+ */
+public class PerformanceHarness {
+
+    private static final String THROUGHPUT = "throughput.files.per.second";
+    private static final String PEAK_RSS = "peak.rss.mb";
+    private static final String MACHINE = "machine";
+
+    /**
+     * Runs the check.
+     * @param args the baseline file and, optionally, a file to write the result to.
+     * @throws IOException if the corpus, output or baseline could not be read or written.
+     */
+    public static void main(final String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.err.println("Usage: PerformanceHarness <baseline-file> [result-file]");
+            System.exit(2);
+        }
+        final Path baselineFile = Paths.get(args[0]);
+        final int files = Integer.getInteger("perf.files", 20_000);
+        final int runs = Math.max(1, Integer.getInteger("perf.runs", 3));
+        final double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.2"));
+
+        System.setProperty("logger.input.recursive", "true");
+
+        final Path input = Files.createTempDirectory("logger-corpus");
+        final Path output = Files.createTempFile("logger-output", ".txt");
+        final Properties result = new Properties();
+        result.setProperty(MACHINE, machine());
+
+        try {
+
+            final CorpusGenerator.Corpus corpus = new CorpusGenerator(Long.getLong("perf.seed", 1)).generate(input, files);
+            System.out.println("Generated " + corpus);
+
+            double best = 0;
+            for (int run = 1; run <= runs; run++) {
+                final long start = System.nanoTime();
+                if (new Processor().run(new String[] { input.toString(), output.toString() }) != 0) {
+                    throw failure("Run " + run + " failed");
+                }
+                final double throughput = corpus.files() * 1e9 / (System.nanoTime() - start);
+                final long lines = lines(output);
+                if (lines != corpus.records()) {
+                    throw failure("Run " + run + " output " + lines + " records, expected " + corpus.records());
+                }
+                System.out.println("Run " + run + " - " + Math.round(throughput) + " files per second");
+                best = Math.max(best, throughput);
+            }
+
+            result.setProperty(THROUGHPUT, Long.toString(Math.round(best)));
+            final long peakRss = peakRssMegabytes();
+            if (peakRss >= 0) {
+                result.setProperty(PEAK_RSS, Long.toString(peakRss));
+            }
+
+        } finally {
+            delete(input);
+            Files.deleteIfExists(output);
+        }
+
+        if (args.length > 1) {
+            store(result, Paths.get(args[1]), "Performance check result");
+        }
+        if (Boolean.getBoolean("perf.update")) {
+            store(result, baselineFile, "Performance baseline - " + files + " files, seed " + Long.getLong("perf.seed", 1));
+            System.out.println("Updated baseline " + baselineFile + " - " + result);
+            return;
+        }
+
+        final Properties baseline = new Properties();
+        try (InputStream in = Files.newInputStream(baselineFile)) {
+            baseline.load(in);
+        }
+
+        boolean regressed = false;
+        final long throughput = Long.parseLong(result.getProperty(THROUGHPUT));
+        final long minThroughput = Math.round(Long.parseLong(baseline.getProperty(THROUGHPUT)) * (1 - tolerance));
+        System.out.println("Throughput " + throughput + " files per second - baseline " + baseline.getProperty(THROUGHPUT) + ", minimum " + minThroughput);
+        regressed |= throughput < minThroughput;
+
+        if (result.containsKey(PEAK_RSS) && baseline.containsKey(PEAK_RSS)) {
+            final long peakRss = Long.parseLong(result.getProperty(PEAK_RSS));
+            final long maxPeakRss = Math.round(Long.parseLong(baseline.getProperty(PEAK_RSS)) * (1 + tolerance));
+            System.out.println("Peak RSS " + peakRss + " MB - baseline " + baseline.getProperty(PEAK_RSS) + ", maximum " + maxPeakRss);
+            regressed |= peakRss > maxPeakRss;
+        } else {
+            System.out.println("Peak RSS not compared - only read on Linux");
+        }
+
+        if (regressed && !machine().equals(baseline.getProperty(MACHINE))) {
+            System.out.println("Not failing - the baseline was recorded on " + baseline.getProperty(MACHINE, "another machine")
+                    + ", not " + machine() + ". Record one here with perf.update=true to check against it");
+            return;
+        }
+        if (regressed) {
+            throw failure("Performance regressed past the baseline in " + baselineFile);
+        }
+
+    }
+
+    // Identifies the machine and JVM a baseline was measured on, by what most changes the timings.
+    private static String machine() {
+        return System.getProperty("os.name") + " " + System.getProperty("os.arch") + ", "
+                + Runtime.getRuntime().availableProcessors() + " cores, " + (Runtime.getRuntime().maxMemory() >> 20) + " MB heap, "
+                + "Java " + System.getProperty("java.version");
+    }
+
+    // The JVM's peak resident set size, from /proc, or -1 if not known.
+    private static long peakRssMegabytes() throws IOException {
+        final Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status)) {
+            return -1;
+        }
+        try (Stream<String> lines = Files.lines(status)) {
+            return lines.filter(line -> line.startsWith("VmHWM:"))
+                    .mapToLong(line -> Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024)
+                    .findFirst().orElse(-1);
+        }
+    }
+
+    private static long lines(final Path file) throws IOException {
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            while (reader.readLine() != null) {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static void store(final Properties properties, final Path file, final String comment) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, comment);
+        }
+    }
+
+    private static void delete(final Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // Thrown out of main, so the JVM exits with 1 once the corpus has been deleted.
+    private static IllegalStateException failure(final String message) {
+        return new IllegalStateException(message);
+    }
+
+}
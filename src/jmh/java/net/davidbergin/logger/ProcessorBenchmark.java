@@ -0,0 +1,88 @@
+package net.davidbergin.logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end runs of the processor over a directory from {@link CorpusGenerator} - mostly small XML and JSON files, a
+ * few invalid, and a few very large - on the fixed pool or virtual threads, handing files over as walked or scheduled by
+ * size. The skewed corpus puts most of its records in a handful of huge files, where the order files start in matters
+ * most. The small corpus has a single record in every file, so the cost is all in opening, reading and handing over
+ * files - where a virtual thread per file has the most to gain over the fixed pool. Each parameter combination runs in a fork of its own, so the configuration is set as system properties before it
+ * is loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProcessorBenchmark {
+
+    @Param({ "5000" })
+    public int files;
+
+    @Param({ "pareto", "skewed", "small" })
+    public String corpus;
+
+    @Param({ "false", "true" })
+    public boolean virtual;
+
+    @Param({ "walk", "size" })
+    public String schedule;
+
+    private Path input;
+    private Path output;
+
+    @Setup
+    public void setUp() throws IOException {
+        System.setProperty("logger.input.virtual", Boolean.toString(virtual));
+        System.setProperty("logger.input.schedule", schedule);
+        System.setProperty("logger.input.recursive", "true");
+        input = Files.createTempDirectory("logger-benchmark");
+        output = Files.createTempFile("logger-benchmark", ".txt");
+        corpus().generate(input, files);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(input)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public int process() {
+        return new Processor().run(new String[] { input.toString(), output.toString() });
+    }
+
+    private CorpusGenerator corpus() {
+        switch (corpus) {
+            case "skewed":
+                return new CorpusGenerator(files, 0.5, 0.02, 0.7, 200_000);
+            case "small":
+                return new CorpusGenerator(files, 0.5, 0.02, 1.2, 1);
+            default:
+                return new CorpusGenerator(files);
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package net.davidbergin.logger.format;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of serialising a record, with plain and escaped strings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BasicOutputFormatBenchmark {
+
+    private final BasicOutputFormat plain = new BasicOutputFormat("dmb", "github.com", "Viewing", new Date(1613606400000L));
+    private final BasicOutputFormat escaped = new BasicOutputFormat("d\"m\u00e9<b>", "git\\hub.com", "View\ting", new Date(1613606400000L));
+
+    @Benchmark
+    public String toJSONStringPlain() {
+        return plain.toJSONString();
+    }
+
+    @Benchmark
+    public String toJSONStringEscaped() {
+        return escaped.toJSONString();
+    }
+
+}
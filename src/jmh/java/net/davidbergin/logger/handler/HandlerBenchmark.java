@@ -0,0 +1,79 @@
+package net.davidbergin.logger.handler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per record cost of the handlers, through the String API and the byte API the processor uses, and of looking a handler
+ * up by file name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerBenchmark {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><activity><userName>Williamson</userName><websiteName>xyz.com</websiteName>"
+            + "<activityTypeCode>002</activityTypeCode><loggedInTime>2020-01-13</loggedInTime><number_of_views>10</number_of_views></activity>";
+    private static final String JSON = "{\"activity\" : {\"userName\" : \"Sam\",\"websiteName\" : \"abc.com\",\"activityTypeDescription\" : \"Viewed\","
+            + "\"signedInTime\" : \"01/13/2020\"}}";
+
+    private XMLHandler xmlHandler;
+    private JSONHandler jsonHandler;
+    private ByteBuffer xmlBytes;
+    private ByteBuffer jsonBytes;
+
+    @Setup
+    public void setUp() {
+        xmlHandler = (XMLHandler) HandlerFactory.getInstance("benchmark.xml");
+        jsonHandler = (JSONHandler) HandlerFactory.getInstance("benchmark.json");
+        xmlBytes = ByteBuffer.wrap(XML.getBytes(StandardCharsets.UTF_8));
+        jsonBytes = ByteBuffer.wrap(JSON.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public boolean xmlValidate() throws Exception {
+        return xmlHandler.validate(XML);
+    }
+
+    @Benchmark
+    public String xmlTransform() {
+        return xmlHandler.transform(XML);
+    }
+
+    @Benchmark
+    public int xmlHandleBytes(final Blackhole blackhole) throws InterruptedException {
+        return xmlHandler.handle(xmlBytes.duplicate(), blackhole::consume);
+    }
+
+    @Benchmark
+    public String jsonTransform() {
+        return jsonHandler.transform(JSON);
+    }
+
+    @Benchmark
+    public int jsonHandleBytes(final Blackhole blackhole) throws InterruptedException {
+        return jsonHandler.handle(jsonBytes.duplicate(), blackhole::consume);
+    }
+
+    @Benchmark
+    public Handler handlerFactoryGetInstance() {
+        return HandlerFactory.getInstance("benchmark.xml");
+    }
+
+}
@@ -0,0 +1,43 @@
+package net.davidbergin.logger.mapping;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.davidbergin.logger.format.Activity;
+import net.davidbergin.logger.format.BasicOutputFormat;
+
+/**
+ * Cost of mapping an activity to the output format, with its description given and looked up from its code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BasicOutputMapperBenchmark {
+
+    private final Activity described = new Activity("dmb", "github.com", "Viewing", 0, new Date(1613606400000L), 37);
+    private final Activity coded = new Activity("dmb", "github.com", null, 2, new Date(1613606400000L), 37);
+
+    @Benchmark
+    public BasicOutputFormat mapDescribed() {
+        return BasicOutputMapper.instance().map(described);
+    }
+
+    @Benchmark
+    public BasicOutputFormat mapCoded() {
+        return BasicOutputMapper.instance().map(coded);
+    }
+
+}
@@ -3,38 +3,68 @@
  */
 package net.davidbergin.logger;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
 import net.davidbergin.logger.handler.Handler;
-import net.davidbergin.logger.handler.HandlerFactory;
+import net.davidbergin.logger.input.AdaptivePool;
+import net.davidbergin.logger.input.InputBatcher;
+import net.davidbergin.logger.input.InputHandler;
+import net.davidbergin.logger.input.InputReader;
+import net.davidbergin.logger.input.InputSchedule;
+import net.davidbergin.logger.input.InputSubmitter;
+import net.davidbergin.logger.input.InputWalker;
+import net.davidbergin.logger.input.InputWatcher;
+import net.davidbergin.logger.metrics.ProcessingMetrics;
+import net.davidbergin.logger.output.Checkpoint;
+import net.davidbergin.logger.output.GzipBlocks;
+import net.davidbergin.logger.output.OutputQueue;
+import net.davidbergin.logger.output.OutputShards;
+import net.davidbergin.logger.output.OutputWriter;
+import net.davidbergin.logger.output.PartitionedWriter;
+import net.davidbergin.logger.output.RecordWriter;
+import net.davidbergin.logger.output.ReorderBuffer;
+import net.davidbergin.logger.pipeline.PipelineInput;
 import net.davidbergin.logger.util.Config;
 import net.davidbergin.logger.util.Trace;
 
 /**
  * Main processing class in the application. Instantiating and calling run (with
  * optional arguments) will start processing. Files will be read and processed
- * concurrently, in a size-limited threadpool. The converted output is piped to
- * a concurrent blocking queue. The output writer then reads from this queue and
- * pushes updates to the output file in a thread-safe manner.
+ * concurrently, in a size-limited threadpool they are handed to by an
+ * {@link InputSubmitter}, each by an {@link InputHandler}. The converted output is piped to
+ * a bounded {@link OutputQueue}, which makes input threads wait whenever output
+ * falls behind. The {@link OutputWriter} then drains this queue in batches on its
+ * own thread and writes them to the output file. With {@link OutputShards},
+ * there is a queue and writer per shard, each writing its own file, and with a
+ * {@link PartitionedWriter} output is written to a file per day or hour. When an output order is
+ * configured, a {@link ReorderBuffer} sits in front of the queue so that the
+ * output is the same from one run to the next. In watch mode, processing
+ * carries on as new files arrive, until the JVM is shut down. With a
+ * {@link Checkpoint}, a run which was stopped part way resumes where it left
+ * off, and files already processed are skipped. Input can instead be pipelined by a
+ * {@link PipelineInput}, with reading, parsing and serializing each a stage of its own.
  */
 public class Processor {
 
     private static final String DEFAULT_INPUT_DIRECTORY = ".";
     private static final String DEFAULT_OUTPUT_FILE = "./output.txt";
 
+    private Path outputDirectory;
+    private Pattern outputNames;
+    private Path checkpointFile;
+
     public static void main(String[] args) {
         final int code = new Processor().run(args);
         System.exit(code);
@@ -77,90 +107,553 @@ public class Processor {
      * Process the input directory. All files which can be mapped to a handler are then converted to the output format.
      * This method orchestrates and separates the input and output phases.
      * Input processing is handled by an executor service with a configurable thread pool. Files are processed in parallel.
-     * Processed output is pushed to a concurrent {@link BlockingQueue}.
-     * Output processing pulls from the queue in a single-threaded manner and will wait until all inputs are done before completing.
+     * Alternatively, on Java 21 or later, each file can be read on a virtual thread of its own, with only a bounded number
+     * transforming at once. Or the whole directory can be listed first, and the work handed to the fixed pool largest
+     * first, with small files batched together. Or reading, parsing and serializing can each be a stage with its
+     * own threads, handing work on through bounded queues. The fixed pool can be tuned as it runs by an {@link AdaptivePool},
+     * which grows and shrinks it while that improves throughput, within configured bounds.
+     * Processed output is pushed to a bounded {@link OutputQueue} per output shard.
+     * Output processing pulls from each queue in a single-threaded manner, and is told to finish as soon as all inputs are done.
+     * Compressed output is written a block at a time, with the blocks compressed in parallel on a pool shared by the writers.
+     * In watch mode, inputs are only done once the JVM is shut down - a shutdown hook stops the watch, and waits for the
+     * files already found to be processed and written.
+     * Throughput, stage latencies, output queue depth and errors are kept in {@link ProcessingMetrics} as the run goes,
+     * for the REST and actuator endpoints, and the throughput is logged at the end.
      * 
      * @param inputDir the director of input files
      * @param outputFile the output file name
-     * @throws IOException
+     * @throws IOException if the input could not be listed or the output could not be written
+     * @throws InterruptedException if interrupted while waiting for processing to complete
      */
-    private void process(String inputDir, String outputFile) throws IOException {
+    private void process(String inputDir, String outputFile) throws IOException, InterruptedException {
 
         final long start = System.currentTimeMillis();
+        setOutput(Paths.get(outputFile));
         Trace.warn(Processor.class, "Started processing - millis - " + start);
 
-        final int inputThreads = Config.instance().getInteger("logger.input.threads", 1);
-        Trace.info(Processor.class, "Running with " + inputThreads + " threads");
+        final ReorderBuffer.Order order = Config.instance().getEnum("logger.output.order", ReorderBuffer.Order.class, ReorderBuffer.Order.NONE);
+        final InputSchedule schedule = createInputSchedule(order);
+
+        final boolean pipelined = schedule == null && isPipelined(order);
+        final ExecutorService virtualThreads = schedule == null && !pipelined ? createVirtualThreadExecutor() : null;
+        final ExecutorService executorService;
+        if (virtualThreads != null) {
+            executorService = virtualThreads;
+        } else {
+            final int inputThreads = Config.instance().getInteger("logger.input.threads", 1);
+            Trace.info(Processor.class, () -> "Running with " + inputThreads + " threads");
+            executorService = new ThreadPoolExecutor(inputThreads, inputThreads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        }
 
-        final ExecutorService executorService = Executors.newFixedThreadPool(inputThreads);
-        final BlockingQueue<String> outputQueue = new LinkedBlockingDeque<>();
+        final PartitionedWriter.Period period = createPartitionPeriod();
+        final int shards = period == null ? Config.instance().getInteger("logger.output.shards", 1) : 1;
+        final ExecutorService compressPool = createCompressPool(period);
+        final Checkpoint checkpoint = createCheckpoint(outputFile, order, shards, period, compressPool != null);
+        final OutputShards output = createOutputShards(outputFile, shards, checkpoint, period, compressPool);
+        final ReorderBuffer reorderBuffer = createReorderBuffer(output, order, outputFile);
+
+        final InputWalker walker = createInputWalker(inputDir, reorderBuffer != null);
+        final InputWatcher watcher = createInputWatcher(walker);
+        final CountDownLatch finished = new CountDownLatch(1);
+        if (watcher != null) {
+            stopOnShutdown(watcher, finished);
+        }
+
+        final ProcessingMetrics metrics = ProcessingMetrics.instance();
+        metrics.start(output::depth);
+        output.start();
+        final AdaptivePool adaptivePool = createAdaptivePool(executorService, metrics, output, pipelined);
 
-        handleInput(inputDir, executorService, outputQueue);
-        generateOutput(outputFile, executorService, outputQueue);
+        try {
+            if (schedule != null) {
+                handleScheduled(walker, schedule, executorService, output, checkpoint);
+            } else if (pipelined) {
+                handlePipelined(walker, watcher, output);
+            } else {
+                handleInput(walker, watcher, executorService, virtualThreads != null, output, reorderBuffer, checkpoint);
+            }
+        } finally {
+            if (adaptivePool != null) {
+                adaptivePool.close();
+            }
+            executorService.shutdown();
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (reorderBuffer != null) {
+                reorderBuffer.finish();
+            }
+            try {
+                output.finish();
+            } finally {
+                if (compressPool != null) {
+                    compressPool.shutdown();
+                }
+                if (checkpoint != null) {
+                    checkpoint.close();
+                }
+                metrics.finish();
+                finished.countDown();
+            }
+        }
 
         Trace.warn(Processor.class, "Completed processing - elapsed millis - " + (System.currentTimeMillis() - start));
+        Trace.warn(Processor.class, "Output queue - peak depth " + output.peakDepth() + " - producers blocked " + output.blockedPuts()
+                + " times for " + output.blockedMillis() + " millis");
+        Trace.warn(Processor.class, "Throughput - " + metrics.perSecond(metrics.files()) + " files, " + metrics.perSecond(metrics.records())
+                + " records, " + metrics.perSecond(metrics.bytesRead()) + " bytes per second");
+        if (adaptivePool != null) {
+            Trace.warn(Processor.class, "Adaptive input threads - started at " + adaptivePool.initialThreads() + ", "
+                    + (adaptivePool.isSettled() ? "settled at " : "ended at ") + adaptivePool.threads() + " after "
+                    + adaptivePool.adjustments() + " adjustments");
+        }
+        if (reorderBuffer != null) {
+            Trace.warn(Processor.class, "Reorder buffer - peak files held " + reorderBuffer.peakHeld());
+        }
+        if (checkpoint != null) {
+            Trace.warn(Processor.class, "Checkpoint - skipped " + checkpoint.skipped() + " files already processed");
+        }
+        if (watcher != null) {
+            Trace.warn(Processor.class, "Watched " + watcher.files() + " files - latency mean " + watcher.meanLatencyMillis()
+                    + " millis, max " + watcher.maxLatencyMillis() + " millis");
+        }
 
     }
 
     /**
      * Process input with the executor service with a configurable thread pool. Files are processed in parallel.
-     * Processed output is pushed to a concurrent {@link BlockingQueue}.
+     * The input directory is walked lazily by an {@link InputWalker}, or watched by an {@link InputWatcher}, and each file is
+     * handed to an {@link InputSubmitter} as soon as it is found, with at most logger.input.inflight files submitted but not
+     * yet finished - so the walk never runs far ahead of the work.
+     * With virtual threads, reads are not limited beyond logger.input.inflight, but at most logger.input.transform.threads
+     * files are validated and mapped at once - the limit is not held while reading or putting output - and read buffers
+     * are pooled rather than kept per thread.
+     * With a reorder buffer, the walk is sorted and each file's output is passed to the buffer to be released in that order.
+     * Otherwise - unless watching or checkpointing - small plain files are gathered by an {@link InputBatcher} into batches
+     * with the same handler, up to logger.input.batch.bytes or logger.input.batch.files, and each batch is submitted as a
+     * single task.
      */
-    private void handleInput(final String inputDir, final ExecutorService executorService, final BlockingQueue<String> outputQueue) throws IOException {
+    private void handleInput(final InputWalker walker, final InputWatcher watcher, final ExecutorService executorService,
+            final boolean virtual, final OutputShards output, final ReorderBuffer reorderBuffer, final Checkpoint checkpoint)
+            throws IOException, InterruptedException {
+
+        final int inputThreads = Config.instance().getInteger("logger.input.threads", 1);
+        final int maxInFlight = Config.instance().getInteger("logger.input.inflight", inputThreads * 4);
 
-        final Path path = Paths.get(inputDir);
+        final InputReader reader = new InputReader(Config.instance().getInteger("logger.input.mmap.bytes", 1024 * 1024), virtual ? maxInFlight : 0);
+        final Semaphore transforms = virtual
+                ? new Semaphore(Config.instance().getInteger("logger.input.transform.threads", Runtime.getRuntime().availableProcessors()))
+                : null;
 
-        // Get all files in the directory - ignoring directories
-        List<File> files = Files.list(path)
-            .filter(Files::isRegularFile)
-            .map(Path::toFile)
-            .collect(Collectors.toList());
+        final InputSubmitter submitter = new InputSubmitter(new InputHandler(reader, transforms, checkpoint), executorService, maxInFlight,
+                output, reorderBuffer, createInputBatcher(watcher != null || reorderBuffer != null || checkpoint != null));
+        final long files = walk(walker, watcher, submitter::submit);
+        submitter.finish();
 
-        Trace.info(Processor.class, "Found " + files.size() + " files to process.");
+        Trace.info(Processor.class, () -> "Found " + files + " files to process.");
 
-        for (File file : files) {
+    }
 
-            Callable<String> callableTask = () -> {
-                final String content = Files.readString(file.toPath());
-                final Handler handler = HandlerFactory.getInstance(file.getName());
-                if (handler != null) {
-                    final String result = handler.handle(content);
-                    if (result != null) { //can't put null on queue - and no point anyway
-                        outputQueue.offer(result);
-                    }
-                    return result;
-                }
-                return null;
-            };
+    /**
+     * Lists the whole input directory into the schedule, then submits its tasks to the fixed pool, most expensive first.
+     * The pool's queue is first in first out, so idle threads take the next largest piece of work, and the last to finish
+     * is never a huge file started late. Nothing is split once started, so there is no work to steal - a work stealing
+     * pool would gain nothing. Each task handles its files in turn, pushing their output straight to the output queues - small plain files
+     * with the same handler together as one batch.
+     */
+    private void handleScheduled(final InputWalker walker, final InputSchedule schedule, final ExecutorService executorService,
+            final OutputShards output, final Checkpoint checkpoint) throws IOException, InterruptedException {
+
+        walk(walker, null, schedule::add);
+
+        final InputReader reader = new InputReader(Config.instance().getInteger("logger.input.mmap.bytes", 1024 * 1024));
+        final List<InputSchedule.Task> tasks = schedule.tasks();
+        final int inputThreads = Config.instance().getInteger("logger.input.threads", 1);
+        Trace.warn(Processor.class, "Scheduled " + schedule.files() + " files in " + tasks.size() + " tasks - estimated makespan "
+                + Math.round(schedule.estimatedMakespanRatio(inputThreads) * 100) + "% of walk order");
+
+        new InputSubmitter(new InputHandler(reader, null, checkpoint), executorService, tasks.size(), output, null, null).submitAll(tasks);
+
+    }
 
-            executorService.submit(callableTask);
+    /**
+     * Handles input as a {@link PipelineInput} of read, parse and serialize stages, each with its own threads and a
+     * bounded queue handing work on to it - so disk bound and CPU bound work can each be given as many threads as they
+     * need. Each stage's utilization is logged at the end.
+     * @throws IOException if a stage failed, on an interrupt or an error, and discarded its items.
+     */
+    private void handlePipelined(final InputWalker walker, final InputWatcher watcher, final OutputShards output)
+            throws IOException, InterruptedException {
+
+        final int readThreads = Config.instance().getInteger("logger.input.pipeline.read.threads", 2);
+        final int parseThreads = Config.instance().getInteger("logger.input.pipeline.parse.threads", Runtime.getRuntime().availableProcessors());
+        final int serializeThreads = Config.instance().getInteger("logger.input.pipeline.serialize.threads", 1);
+        final int capacity = Config.instance().getInteger("logger.input.pipeline.queue", 64);
+        Trace.warn(Processor.class, "Pipelining input with " + readThreads + " read, " + parseThreads + " parse and "
+                + serializeThreads + " serialize threads");
+
+        final InputReader reader = new InputReader(Config.instance().getInteger("logger.input.mmap.bytes", 1024 * 1024),
+                capacity + readThreads + parseThreads);
+        final PipelineInput pipeline = new PipelineInput(new InputHandler(reader, null, null), output,
+                readThreads, parseThreads, serializeThreads, capacity);
+        pipeline.start();
 
+        try {
+            final long files = walk(walker, watcher, pipeline::put);
+            Trace.info(Processor.class, () -> "Found " + files + " files to process.");
+        } finally {
+            pipeline.finish();
         }
+        pipeline.report();
+
+    }
 
-        executorService.shutdown();
+    /**
+     * Walks the input directory, or watches it, passing each file found to the consumer - except the output, and the
+     * files written alongside it.
+     * @return the number of files found.
+     */
+    private long walk(final InputWalker walker, final InputWatcher watcher, final InputWalker.FileConsumer consumer)
+            throws IOException, InterruptedException {
+
+        final InputWalker.FileConsumer input = file -> {
+            if (!isOutput(file)) {
+                consumer.accept(file);
+            }
+        };
+        return watcher != null ? watcher.watch(input) : walker.walk(input);
 
     }
 
     /**
-     * Generate output by reading from the outputQueue.
-     * Output is done once this queue is empty and the input processor is also done.
-     * Output is written to the outputFile name provided.
+     * Notes the output file's name, and the names of the files written alongside it - exactly as the writers name them,
+     * so an input file which merely shares the output's stem is still read. Beside output.txt these are output.txt.index
+     * and its temporary file, spills such as output.txt.123.spill, shards such as output-0.txt, and partitions such as
+     * output-2020-01-13.txt, output-2020-01-13-09.1.txt or output-unknown.txt - and the checkpoint manifest, wherever it is.
      */
-    private void generateOutput(final String outputFile, final ExecutorService executorService, final BlockingQueue<String> outputQueue) {
+    private void setOutput(final Path outputFile) {
+        final Path output = outputFile.toAbsolutePath().normalize();
+        outputDirectory = output.getParent();
+        final String name = output.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        final String stem = dot > 0 ? name.substring(0, dot) : name;
+        final String extension = dot > 0 ? name.substring(dot) : "";
+        outputNames = Pattern.compile(Pattern.quote(name) + "(\\.index|\\.index\\.tmp|\\.\\d+\\.spill)?"
+                + "|" + Pattern.quote(stem + "-") + "(\\d+|(\\d{4}-\\d{2}-\\d{2}(-\\d{2})?|unknown)(\\.\\d+)?)" + Pattern.quote(extension));
+        checkpointFile = Paths.get(Config.instance().getString("logger.checkpoint.file", outputFile + ".manifest")).toAbsolutePath().normalize();
+    }
 
-        try (PrintWriter writer = new PrintWriter(new File(outputFile))) {
+    /**
+     * Whether a file is the output, or one written alongside it - a shard, partition, index, spill or manifest - so that
+     * output in the input directory is never read back as input.
+     */
+    private boolean isOutput(final Path file) {
+        final Path path = file.toAbsolutePath().normalize();
+        return path.equals(checkpointFile)
+                || (outputNames.matcher(file.getFileName().toString()).matches() && outputDirectory.equals(path.getParent()));
+    }
 
-            while (!executorService.isTerminated() || outputQueue.size() > 0) {
-                String output = outputQueue.poll(10, TimeUnit.SECONDS);
-                if (output != null) {
-                    writer.println(output);
-                }
+    /**
+     * Creates an executor which runs each task on a virtual thread of its own, for the logger.input.virtual property, or
+     * null when input is handled on a fixed pool. Virtual threads are looked up reflectively, as they need Java 21, and
+     * the fixed pool is used if they are not available.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+
+        if (!Config.instance().getBoolean("logger.input.virtual", false)) {
+            return null;
+        }
+        try {
+            final ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            Trace.warn(Processor.class, "Running with a virtual thread per file");
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Trace.warn(Processor.class, "Virtual threads not available on Java " + System.getProperty("java.version") + " - running with a fixed pool");
+            return null;
+        }
+
+    }
+
+    /**
+     * Creates the batcher for small files for the logger.input.batch.bytes property, or null when each file is submitted
+     * on its own - which it always is when watching, as a batch could wait for files which never arrive, or when the
+     * output is reordered or checkpointed a file at a time.
+     */
+    private static InputBatcher<Handler> createInputBatcher(final boolean unbatched) {
+
+        final int batchBytes = Config.instance().getInteger("logger.input.batch.bytes", 64 * 1024);
+        if (unbatched || batchBytes <= 0) {
+            return null;
+        }
+        return new InputBatcher<>(batchBytes, Config.instance().getInteger("logger.input.batch.files", 64));
+
+    }
+
+    /**
+     * Creates and starts the tuner of the input pool for the logger.input.adaptive property, or null when the pool stays
+     * at logger.input.threads. Only the fixed pool can be resized as it runs - not virtual threads, or the stages of a
+     * pipeline, which are sized each on their own. Throughput
+     * is measured as bytes read, and never more threads are run than there are files in flight.
+     */
+    private static AdaptivePool createAdaptivePool(final ExecutorService executorService, final ProcessingMetrics metrics,
+            final OutputShards output, final boolean pipelined) {
+
+        if (!Config.instance().getBoolean("logger.input.adaptive", false)) {
+            return null;
+        }
+        if (pipelined || !(executorService instanceof ThreadPoolExecutor)) {
+            Trace.warn(Processor.class, "Adaptive input threads only supported with the fixed pool - keeping the configured threads");
+            return null;
+        }
+
+        final int inputThreads = Config.instance().getInteger("logger.input.threads", 1);
+        final int maxInFlight = Config.instance().getInteger("logger.input.inflight", inputThreads * 4);
+        final int minThreads = Config.instance().getInteger("logger.input.adaptive.min.threads", 1);
+        final int maxThreads = Math.min(maxInFlight,
+                Config.instance().getInteger("logger.input.adaptive.max.threads", Math.max(inputThreads, Runtime.getRuntime().availableProcessors() * 4)));
+        final AdaptivePool pool = new AdaptivePool((ThreadPoolExecutor) executorService,
+                minThreads, maxThreads,
+                Config.instance().getInteger("logger.input.adaptive.interval.millis", 1000),
+                Config.instance().getInteger("logger.input.adaptive.tolerance.percent", 5) / 100.0,
+                metrics::bytesRead, output::blockedPuts);
+        Trace.warn(Processor.class, "Adapting input threads from " + pool.initialThreads() + " within " + minThreads + " to " + maxThreads);
+        pool.start();
+
+        return pool;
+
+    }
+
+    /**
+     * Whether input is pipelined, for the logger.input.pipeline property. Ordered output needs files handled in walk
+     * order, and a checkpoint needs each file's output as one block, so neither can be pipelined.
+     */
+    private static boolean isPipelined(final ReorderBuffer.Order order) {
+
+        if (!Config.instance().getBoolean("logger.input.pipeline", false)) {
+            return false;
+        }
+        if (order != ReorderBuffer.Order.NONE || Config.instance().getBoolean("logger.checkpoint", false)) {
+            Trace.warn(Processor.class, "Pipelining not supported with ordered output or a checkpoint - handling files as walked");
+            return false;
+        }
+        if (Config.instance().getBoolean("logger.input.virtual", false)) {
+            Trace.warn(Processor.class, "Pipelined input runs on the threads of each stage - not on virtual threads");
+        }
+        return true;
+
+    }
+
+    /**
+     * Creates the schedule for the logger.input.schedule property, or null when files are handed to the pool as they are
+     * walked. Ordered output needs files handled in walk order, and a watch never ends, so neither can be scheduled.
+     */
+    private static InputSchedule createInputSchedule(final ReorderBuffer.Order order) {
+
+        if (!"size".equalsIgnoreCase(Config.instance().getString("logger.input.schedule", "walk"))) {
+            return null;
+        }
+        if (order != ReorderBuffer.Order.NONE || Config.instance().getBoolean("logger.input.watch", false)) {
+            Trace.warn(Processor.class, "Scheduling by size not supported with ordered output or in watch mode - handling files as walked");
+            return null;
+        }
+        if (Config.instance().getBoolean("logger.input.virtual", false)) {
+            Trace.warn(Processor.class, "Scheduling by size runs on the fixed pool - not on virtual threads");
+        }
+
+        return new InputSchedule(
+                Config.instance().getInteger("logger.input.schedule.xml.weight", 4),
+                Config.instance().getInteger("logger.input.schedule.batch.bytes", 64 * 1024));
+
+    }
+
+    /**
+     * Creates the checkpoint for the logger.checkpoint property, or null when the output is always started again.
+     * Output sorted by time, or spread over shards or partitions, is not written a file at a time, so cannot be checkpointed.
+     * Nor can compressed output, which cannot be cut back to a file's end.
+     */
+    private Checkpoint createCheckpoint(final String outputFile, final ReorderBuffer.Order order, final int shards,
+            final PartitionedWriter.Period period, final boolean compressed) throws IOException {
+
+        if (!Config.instance().getBoolean("logger.checkpoint", false)) {
+            return null;
+        }
+        if (order == ReorderBuffer.Order.TIME || shards > 1 || period != null || compressed) {
+            Trace.warn(Processor.class, "Checkpoint not supported with output in time order, in shards, in partitions or compressed - starting again");
+            return null;
+        }
+
+        final Checkpoint checkpoint = new Checkpoint(
+                Paths.get(Config.instance().getString("logger.checkpoint.file", outputFile + ".manifest")),
+                Paths.get(outputFile),
+                Config.instance().getBoolean("logger.checkpoint.hash", false),
+                Config.instance().getInteger("logger.output.spill.bytes", 1024 * 1024));
+        Trace.warn(Processor.class, "Checkpoint - resuming from output offset " + checkpoint.offset() + " with "
+                + checkpoint.recorded() + " files already processed");
+
+        return checkpoint;
+
+    }
+
+    /**
+     * Creates the walker for the input directory, configured from the logger.input.* properties.
+     */
+    private InputWalker createInputWalker(final String inputDir, final boolean sorted) {
+
+        return new InputWalker(Paths.get(inputDir),
+                Config.instance().getBoolean("logger.input.recursive", false),
+                Config.instance().getInteger("logger.input.maxDepth", Integer.MAX_VALUE),
+                Config.instance().getList("logger.input.include"),
+                Config.instance().getList("logger.input.exclude"),
+                sorted);
+
+    }
+
+    /**
+     * Creates the watcher for the logger.input.watch property, or null when the input directory is only walked once.
+     */
+    private InputWatcher createInputWatcher(final InputWalker walker) throws IOException {
+
+        if (!Config.instance().getBoolean("logger.input.watch", false)) {
+            return null;
+        }
+        final int debounceMillis = Config.instance().getInteger("logger.input.watch.debounce.millis", 500);
+        Trace.warn(Processor.class, "Watching input with debounce millis - " + debounceMillis);
+
+        return new InputWatcher(walker, debounceMillis);
+
+    }
+
+    /**
+     * Adds a shutdown hook which stops the watch, then waits until processing has finished and the output is written.
+     */
+    private static void stopOnShutdown(final InputWatcher watcher, final CountDownLatch finished) {
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                watcher.close();
+                finished.await();
+            } catch (IOException e) {
+                Trace.error(Processor.class, "Failed to stop watching input", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }, "logger-shutdown"));
 
-        } catch (Exception e) {
-            Trace.error(Processor.class, "problem waiting for completion.", e);
+    }
+
+    /**
+     * Creates the reorder buffer for the logger.output.order property, or null when output is written as it is handled.
+     */
+    private ReorderBuffer createReorderBuffer(final OutputShards output, final ReorderBuffer.Order order, final String outputFile) {
+
+        if (order == ReorderBuffer.Order.NONE) {
+            return null;
+        }
+        Trace.info(Processor.class, () -> "Writing output in " + order + " order");
+
+        return new ReorderBuffer(output, order,
+                Config.instance().getInteger("logger.output.order.window", 1024),
+                Config.instance().getInteger("logger.output.order.sort.records", 100000),
+                Paths.get(outputFile),
+                Config.instance().getInteger("logger.output.spill.bytes", 1024 * 1024));
+
+    }
+
+    /**
+     * Creates the output shards, each with its own queue and writer, configured from the logger.output.* properties.
+     * The queue limits are shared out between the shards.
+     */
+    private OutputShards createOutputShards(final String outputFile, final int shards, final Checkpoint checkpoint,
+            final PartitionedWriter.Period period, final ExecutorService compressPool) {
+
+        final OutputShards.ShardKey key = Config.instance().getEnum("logger.output.shard.key", OutputShards.ShardKey.class, OutputShards.ShardKey.USER);
+        final int queueRecords = Config.instance().getInteger("logger.output.queue.records", 10000) / Math.max(1, shards);
+        final int queueBytes = Config.instance().getInteger("logger.output.queue.bytes", 64 * 1024 * 1024) / Math.max(1, shards);
+        if (shards > 1) {
+            Trace.warn(Processor.class, "Writing output in " + shards + " shards by " + key);
         }
 
+        return new OutputShards(Paths.get(outputFile), shards, key,
+                () -> new OutputQueue(queueRecords, queueBytes),
+                (file, queue) -> createOutputWriter(file, queue, checkpoint, period, compressPool));
+
+    }
+
+    /**
+     * Creates the pool to compress output blocks on for the logger.output.compress property, or null when output is
+     * written uncompressed. Partitioned output is not compressed.
+     */
+    private ExecutorService createCompressPool(final PartitionedWriter.Period period) {
+
+        if (!Config.instance().getBoolean("logger.output.compress", false)) {
+            return null;
+        }
+        if (period != null) {
+            Trace.warn(Processor.class, "Compression not supported with partitioned output - writing uncompressed");
+            return null;
+        }
+        final int threads = Config.instance().getInteger("logger.output.compress.threads", Runtime.getRuntime().availableProcessors());
+        Trace.warn(Processor.class, "Compressing output with " + threads + " threads");
+
+        return Executors.newFixedThreadPool(Math.max(1, threads));
+
+    }
+
+    /**
+     * Gets the period for the logger.output.partition property, or null when output is not partitioned by time.
+     * Partitioned output is written by a single writer, so is not also sharded.
+     */
+    private PartitionedWriter.Period createPartitionPeriod() {
+
+        final String partition = Config.instance().getString("logger.output.partition", "none");
+        if ("none".equalsIgnoreCase(partition)) {
+            return null;
+        }
+        final PartitionedWriter.Period period = Config.instance().getEnum("logger.output.partition", PartitionedWriter.Period.class, null);
+        if (Config.instance().getInteger("logger.output.shards", 1) > 1) {
+            Trace.warn(Processor.class, "Sharding not supported with partitioned output - writing a single shard");
+        }
+        Trace.warn(Processor.class, "Writing output partitioned by " + period);
+
+        return period;
+
+    }
+
+    /**
+     * Creates the writer for an output file, configured from the logger.output.* properties - partitioned by time if a
+     * period is given. A checkpoint only records files once the output is forced to disk, so with one, output synced only
+     * on close is synced every interval instead - otherwise a run which stopped part way would have recorded nothing.
+     */
+    private RecordWriter createOutputWriter(final Path outputFile, final OutputQueue outputQueue, final Checkpoint checkpoint,
+            final PartitionedWriter.Period period, final ExecutorService compressPool) {
+
+        final OutputWriter.SyncPolicy configured = Config.instance().getEnum("logger.output.sync", OutputWriter.SyncPolicy.class, OutputWriter.SyncPolicy.CLOSE);
+        final OutputWriter.SyncPolicy syncPolicy = checkpoint != null && configured == OutputWriter.SyncPolicy.CLOSE ? OutputWriter.SyncPolicy.INTERVAL : configured;
+        if (syncPolicy != configured) {
+            Trace.warn(Processor.class, "Checkpoint needs output forced to disk as it is written - syncing every "
+                    + Config.instance().getInteger("logger.output.sync.millis", 1000) + " millis rather than on close");
+        }
+        final int syncMillis = Config.instance().getInteger("logger.output.sync.millis", 1000);
+        final int batchSize = Config.instance().getInteger("logger.output.batch.size", 1024);
+        final int bufferBytes = Config.instance().getInteger("logger.output.buffer.bytes", 256 * 1024);
+        Trace.info(Processor.class, () -> "Writing output with sync policy " + syncPolicy);
+
+        if (period != null) {
+            return new PartitionedWriter(outputFile, outputQueue, period,
+                    Config.instance().getInteger("logger.output.partition.open", 64),
+                    Config.instance().getInteger("logger.output.partition.bytes", 0),
+                    Config.instance().getInteger("logger.output.partition.records", 0),
+                    syncPolicy, syncMillis, batchSize,
+                    Config.instance().getInteger("logger.output.partition.buffer.bytes", 64 * 1024));
+        }
+
+        if (compressPool != null) {
+            final int threads = Config.instance().getInteger("logger.output.compress.threads", Runtime.getRuntime().availableProcessors());
+            return new OutputWriter(outputFile, outputQueue, syncPolicy, syncMillis, batchSize,
+                    Config.instance().getInteger("logger.output.compress.block.bytes", 1024 * 1024), null,
+                    new GzipBlocks(compressPool, Config.instance().getInteger("logger.output.compress.level", 6), threads * 2));
+        }
+
+        return new OutputWriter(outputFile, outputQueue, syncPolicy, syncMillis, batchSize, bufferBytes, checkpoint);
+
     }
 
 }
@@ -5,14 +5,15 @@ package net.davidbergin.logger.format;
 
 import java.util.Date;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 /**
  * Simple POJO which holds the values for the simple JSON output format.
  * Constructing an instance and calling {@link toJSONString} will produce the desired output.
+ * The JSON is written by hand with a {@link JSONBuffer}, and null fields are left out, as Gson would.
  */
 public class BasicOutputFormat {
+
+    private static final ThreadLocal<JSONBuffer> LOCAL_BUFFER = ThreadLocal.withInitial(JSONBuffer::new);
+
     // {"user" : "Sam","website" : "abc.com","activityTypeDescription" :
     // "Viewed","signedInTime" : "2020-01-13 00:00:00"}
     private String user;
@@ -40,8 +41,51 @@ public class BasicOutputFormat {
      * @return a representation of this POJO in JSON.
      */
     public String toJSONString() {
-        Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").create();
-        return gson.toJson(this);
+        final JSONBuffer buffer = LOCAL_BUFFER.get();
+        buffer.reset();
+        writeJSON(buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Writes the expected JSON representation of this POJO to the supplied buffer, as UTF-8.
+     * @param buffer the buffer to append to.
+     */
+    public void writeJSON(final JSONBuffer buffer) {
+
+        boolean first = true;
+        buffer.writeAscii('{');
+
+        if (user != null) {
+            first = writeName(buffer, "user", first);
+            buffer.writeString(user);
+        }
+        if (website != null) {
+            first = writeName(buffer, "website", first);
+            buffer.writeString(website);
+        }
+        if (activityTypeDescription != null) {
+            first = writeName(buffer, "activityTypeDescription", first);
+            buffer.writeString(activityTypeDescription);
+        }
+        if (signedInTime != null) {
+            writeName(buffer, "signedInTime", first);
+            buffer.writeTimestamp(signedInTime);
+        }
+
+        buffer.writeAscii('}');
+
+    }
+
+    // Writes a field name, preceded by a separator if it is not the first field, and returns false for the next field.
+    private static boolean writeName(final JSONBuffer buffer, final String name, final boolean first) {
+        if (!first) {
+            buffer.writeAscii(',');
+        }
+        buffer.writeAscii('"');
+        buffer.writeAscii(name);
+        buffer.writeAscii("\":");
+        return false;
     }
 
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.format;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * A growable UTF-8 byte buffer with just enough JSON support to write the output formats directly, without reflection.
+ * String escaping follows the Gson defaults (including HTML-safe escaping) and timestamps are written as
+ * yyyy-MM-dd HH:mm:ss in the default time zone, so the bytes produced are the same as the previous Gson output.
+ * Instances are not thread safe, and are intended to be reused - see {@link #reset()}.
+ */
+public final class JSONBuffer {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024; // don't keep hold of a huge array because of one huge record
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] ASCII_ESCAPES = new byte[128][];
+    private static final char LINE_SEPARATOR = 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+    private static final byte[] LINE_SEPARATOR_ESCAPE = unicodeEscape(LINE_SEPARATOR);
+    private static final byte[] PARAGRAPH_SEPARATOR_ESCAPE = unicodeEscape(PARAGRAPH_SEPARATOR);
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long GREGORIAN_CUTOVER = -12_219_292_800_000L; // 1582-10-15, before which SimpleDateFormat is Julian
+    private static final TimeZone ZONE = TimeZone.getDefault();
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ASCII_ESCAPES[c] = unicodeEscape(c);
+        }
+        ASCII_ESCAPES['"'] = "\\\"".getBytes(StandardCharsets.US_ASCII);
+        ASCII_ESCAPES['\\'] = "\\\\".getBytes(StandardCharsets.US_ASCII);
+        ASCII_ESCAPES['\t'] = "\\t".getBytes(StandardCharsets.US_ASCII);
+        ASCII_ESCAPES['\b'] = "\\b".getBytes(StandardCharsets.US_ASCII);
+        ASCII_ESCAPES['\n'] = "\\n".getBytes(StandardCharsets.US_ASCII);
+        ASCII_ESCAPES['\r'] = "\\r".getBytes(StandardCharsets.US_ASCII);
+        ASCII_ESCAPES['\f'] = "\\f".getBytes(StandardCharsets.US_ASCII);
+        ASCII_ESCAPES['<'] = unicodeEscape('<');
+        ASCII_ESCAPES['>'] = unicodeEscape('>');
+        ASCII_ESCAPES['&'] = unicodeEscape('&');
+        ASCII_ESCAPES['='] = unicodeEscape('=');
+        ASCII_ESCAPES['\''] = unicodeEscape('\'');
+    }
+
+    private byte[] bytes;
+    private int length;
+
+    public JSONBuffer() {
+        bytes = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Empties the buffer so it can be reused.
+     */
+    public void reset() {
+        length = 0;
+        if (bytes.length > MAX_RETAINED_CAPACITY) {
+            bytes = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * @return the number of bytes written since the last reset.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the bytes written since the last reset, decoded to a String.
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a single ASCII character.
+     * @param c the character.
+     */
+    public void writeAscii(final char c) {
+        ensureCapacity(1);
+        bytes[length++] = (byte) c;
+    }
+
+    /**
+     * Writes an ASCII string as is, without any escaping. Intended for field names and punctuation.
+     * @param ascii the string.
+     */
+    public void writeAscii(final String ascii) {
+        final int size = ascii.length();
+        ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            bytes[length++] = (byte) ascii.charAt(i);
+        }
+    }
+
+    /**
+     * Writes a string as a quoted and escaped JSON string value.
+     * @param value the value.
+     */
+    public void writeString(final String value) {
+
+        final int size = value.length();
+        ensureCapacity(size + 2);
+        bytes[length++] = '"';
+
+        for (int i = 0; i < size; i++) {
+
+            final char c = value.charAt(i);
+
+            if (c < 0x80) {
+                final byte[] escape = ASCII_ESCAPES[c];
+                if (escape == null) {
+                    ensureCapacity(1);
+                    bytes[length++] = (byte) c;
+                } else {
+                    writeRaw(escape);
+                }
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                bytes[length++] = (byte) (0xc0 | (c >> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                writeRaw(c == LINE_SEPARATOR ? LINE_SEPARATOR_ESCAPE : PARAGRAPH_SEPARATOR_ESCAPE);
+            } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensureCapacity(4);
+                bytes[length++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                ensureCapacity(1);
+                bytes[length++] = '?'; // unpaired surrogate, encoded the same way as String.getBytes would
+            } else {
+                ensureCapacity(3);
+                bytes[length++] = (byte) (0xe0 | (c >> 12));
+                bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+
+        }
+
+        ensureCapacity(1);
+        bytes[length++] = '"';
+
+    }
+
+    /**
+     * Writes a date as a quoted yyyy-MM-dd HH:mm:ss string in the default time zone.
+     * @param date the date.
+     */
+    public void writeTimestamp(final Date date) {
+
+        final long millis = date.getTime();
+        if (millis < GREGORIAN_CUTOVER) {
+            final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            format.setTimeZone(ZONE);
+            writeString(format.format(date));
+            return;
+        }
+
+        final long local = millis + ZONE.getOffset(millis);
+        final long days = Math.floorDiv(local, MILLIS_PER_DAY);
+        final int secondOfDay = (int) (Math.floorMod(local, MILLIS_PER_DAY) / 1000);
+
+        // civil date from a day count, see http://howardhinnant.github.io/date_algorithms.html
+        final long shifted = days + 719_468;
+        final long era = Math.floorDiv(shifted, 146_097);
+        final long dayOfEra = shifted - era * 146_097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long monthIndex = (5 * dayOfYear + 2) / 153;
+        final int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        final int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        ensureCapacity(2);
+        bytes[length++] = '"';
+        writeDigits(year, 4);
+        bytes[length++] = '-';
+        writeDigits(month, 2);
+        bytes[length++] = '-';
+        writeDigits(day, 2);
+        bytes[length++] = ' ';
+        writeDigits(secondOfDay / 3600, 2);
+        bytes[length++] = ':';
+        writeDigits(secondOfDay / 60 % 60, 2);
+        bytes[length++] = ':';
+        writeDigits(secondOfDay % 60, 2);
+        bytes[length++] = '"';
+
+    }
+
+    // Writes a non-negative number, zero padded to at least the width given, and leaves room for one more byte.
+    private void writeDigits(final long value, final int width) {
+
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        final int size = Math.max(digits, width);
+        ensureCapacity(size + 1);
+
+        long remaining = value;
+        for (int i = length + size - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        length += size;
+
+    }
+
+    private void writeRaw(final byte[] raw) {
+        ensureCapacity(raw.length);
+        System.arraycopy(raw, 0, bytes, length, raw.length);
+        length += raw.length;
+    }
+
+    private void ensureCapacity(final int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+        }
+    }
+
+    private static byte[] unicodeEscape(final int c) {
+        return new byte[] { '\\', 'u', HEX[(c >> 12) & 0xf], HEX[(c >> 8) & 0xf], HEX[(c >> 4) & 0xf], HEX[c & 0xf] };
+    }
+
+}
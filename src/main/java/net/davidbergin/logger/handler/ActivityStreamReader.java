@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.handler;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.ValidatorHandler;
+
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import net.davidbergin.logger.format.Activity;
+
+/**
+ * Package scoped StAX engine which reads activity XML in a single pass.
+ * Each event pulled from the {@link XMLStreamReader} is forwarded to an optional schema {@link ValidatorHandler}
+ * and bound to the {@link Activity} fields at the same time, so the content is only ever read once.
+ * A document is either a single activity element, or any root element holding many activity elements - each of which
+ * is validated as a document of its own and read one at a time through a {@link Cursor}, so memory use does not grow
+ * with the number of activities.
+ * The factory is immutable once configured and safe to share, but a ValidatorHandler must only be used by one thread at a time.
+ */
+class ActivityStreamReader {
+
+    private static final String ACTIVITY = "activity";
+    private static final String USER_NAME = "userName";
+    private static final String WEBSITE_NAME = "websiteName";
+    private static final String ACTIVITY_TYPE_DESCRIPTION = "activityTypeDescription";
+    private static final String ACTIVITY_TYPE_CODE = "activityTypeCode";
+    private static final String LOGGED_IN_TIME = "loggedInTime";
+    private static final String NUMBER_OF_VIEWS = "number_of_views";
+
+    private final XMLInputFactory inputFactory;
+
+    ActivityStreamReader() {
+        inputFactory = XMLInputFactory.newFactory();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE); // activity documents never need a DTD, and this blocks XXE
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * Reads a document holding a single activity, validating it as it is read if a validator is supplied.
+     * @param content the XML content.
+     * @param validator the schema validator to feed, or null to skip validation.
+     * @return the bound {@link Activity}.
+     * @throws XMLStreamException if the content is not well formed or does not hold exactly one activity.
+     * @throws SAXException if the content fails schema validation.
+     */
+    Activity read(final Reader content, final ValidatorHandler validator) throws XMLStreamException, SAXException {
+        try (Cursor cursor = open(content, validator)) {
+            return single(cursor);
+        }
+    }
+
+    /**
+     * Reads a document holding a single activity from bytes, in the encoding the document declares (UTF-8 by default),
+     * validating it as it is read if a validator is supplied.
+     * @param content the XML content.
+     * @param validator the schema validator to feed, or null to skip validation.
+     * @return the bound {@link Activity}.
+     * @throws XMLStreamException if the content is not well formed or does not hold exactly one activity.
+     * @throws SAXException if the content fails schema validation.
+     */
+    Activity read(final InputStream content, final ValidatorHandler validator) throws XMLStreamException, SAXException {
+        try (Cursor cursor = open(content, validator)) {
+            return single(cursor);
+        }
+    }
+
+    /**
+     * Opens a cursor over the activities in a document.
+     * @param content the XML content.
+     * @param validator the schema validator to feed, or null to skip validation.
+     * @return the cursor, which must be closed.
+     * @throws XMLStreamException if the content cannot be read.
+     */
+    Cursor open(final Reader content, final ValidatorHandler validator) throws XMLStreamException {
+        return new Cursor(inputFactory.createXMLStreamReader(content), validator);
+    }
+
+    /**
+     * Opens a cursor over the activities in a document supplied as bytes, in the encoding the document declares.
+     * @param content the XML content.
+     * @param validator the schema validator to feed, or null to skip validation.
+     * @return the cursor, which must be closed.
+     * @throws XMLStreamException if the content cannot be read.
+     */
+    Cursor open(final InputStream content, final ValidatorHandler validator) throws XMLStreamException {
+        return new Cursor(inputFactory.createXMLStreamReader(content), validator);
+    }
+
+    private static Activity single(final Cursor cursor) throws XMLStreamException, SAXException {
+
+        if (!cursor.next()) {
+            throw new XMLStreamException("No " + ACTIVITY + " element found");
+        }
+        final Activity activity = cursor.activity();
+        if (cursor.next()) {
+            throw new XMLStreamException("Expected a single " + ACTIVITY + " element but found more");
+        }
+        return activity;
+
+    }
+
+    /**
+     * Reads the activities in a document one at a time. A record which fails validation or binding is reported by
+     * {@link #activity()} and the cursor moves on to the next, but content which is not well formed ends the read.
+     */
+    static final class Cursor implements AutoCloseable {
+
+        private final XMLStreamReader reader;
+        private final ValidatorHandler validator;
+        private final AttributesImpl attributes = new AttributesImpl();
+        private final StringBuilder text = new StringBuilder();
+        private final List<String[]> rootNamespaces = new ArrayList<>();
+        private int depth;
+        private int recordDepth; // the depth of the activity element being read, or 0 between activities
+        private int found;
+        private Fields fields;
+        private Exception error;
+
+        private Cursor(final XMLStreamReader reader, final ValidatorHandler validator) {
+            this.reader = reader;
+            this.validator = validator;
+            if (validator != null) {
+                validator.setDocumentLocator(new StreamLocator(reader));
+            }
+        }
+
+        /**
+         * Moves to the next activity in the document.
+         * @return true if there is one, false at the end of the document.
+         * @throws XMLStreamException if the content is not well formed.
+         */
+        boolean next() throws XMLStreamException {
+
+            fields = null;
+            error = null;
+
+            while (reader.hasNext()) {
+
+                switch (reader.next()) {
+
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        if (recordDepth > 0) {
+                            startElement();
+                        } else if (depth <= 2 && ACTIVITY.equals(reader.getLocalName())) {
+                            startRecord();
+                        } else if (depth == 1) {
+                            for (int i = 0; i < reader.getNamespaceCount(); i++) { // in scope for every activity inside this root
+                                rootNamespaces.add(new String[] { nonNull(reader.getNamespacePrefix(i)), nonNull(reader.getNamespaceURI(i)) });
+                            }
+                        }
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (recordDepth > 0) {
+                            characters();
+                        }
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (recordDepth > 0) {
+                            endElement();
+                            if (depth == recordDepth) {
+                                endRecord();
+                                depth--;
+                                return true;
+                            }
+                        }
+                        depth--;
+                        break;
+
+                    default:
+                        break; // comments, processing instructions and the like carry nothing we need
+                }
+
+            }
+
+            return false;
+
+        }
+
+        /**
+         * Gets the activity the cursor is on.
+         * @return the bound {@link Activity}.
+         * @throws SAXException if the activity failed schema validation.
+         * @throws XMLStreamException if a field of the activity could not be bound.
+         */
+        Activity activity() throws SAXException, XMLStreamException {
+            if (error instanceof SAXException) {
+                throw (SAXException) error;
+            }
+            if (error != null) {
+                throw new XMLStreamException("Could not bind " + ACTIVITY + " - " + error.getMessage(), error);
+            }
+            return fields.toActivity();
+        }
+
+        /**
+         * @return the number of activity elements found so far, valid or not.
+         */
+        int found() {
+            return found;
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            reader.close();
+        }
+
+        private void startRecord() {
+
+            recordDepth = depth;
+            fields = new Fields();
+            found++;
+
+            if (validator != null) {
+                try {
+                    validator.startDocument();
+                    for (String[] namespace : rootNamespaces) {
+                        validator.startPrefixMapping(namespace[0], namespace[1]);
+                    }
+                    forwardStartElement();
+                } catch (SAXException e) {
+                    error = e;
+                }
+            }
+
+        }
+
+        private void endRecord() {
+
+            if (validator != null && error == null) {
+                try {
+                    for (String[] namespace : rootNamespaces) {
+                        validator.endPrefixMapping(namespace[0]);
+                    }
+                    validator.endDocument();
+                } catch (SAXException e) {
+                    error = e;
+                }
+            }
+            recordDepth = 0;
+
+        }
+
+        private void startElement() {
+
+            if (depth == recordDepth + 1) {
+                text.setLength(0);
+            }
+            if (validator != null && error == null) {
+                try {
+                    forwardStartElement();
+                } catch (SAXException e) {
+                    error = e;
+                }
+            }
+
+        }
+
+        private void characters() {
+
+            if (depth == recordDepth + 1) {
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            if (validator != null && error == null) {
+                try {
+                    validator.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                } catch (SAXException e) {
+                    error = e;
+                }
+            }
+
+        }
+
+        private void endElement() {
+
+            if (validator != null && error == null) {
+                try {
+                    forwardEndElement();
+                } catch (SAXException e) {
+                    error = e;
+                }
+            }
+            if (depth == recordDepth + 1 && error == null) {
+                try {
+                    fields.bind(reader.getLocalName(), text);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            }
+
+        }
+
+        // Forwards the current start element, with its namespace declarations and attributes, to the validator.
+        private void forwardStartElement() throws SAXException {
+
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                validator.startPrefixMapping(nonNull(reader.getNamespacePrefix(i)), nonNull(reader.getNamespaceURI(i)));
+            }
+
+            attributes.clear();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                final String prefix = nonNull(reader.getAttributePrefix(i));
+                final String localName = reader.getAttributeLocalName(i);
+                attributes.addAttribute(nonNull(reader.getAttributeNamespace(i)), localName, qualify(prefix, localName), "CDATA", reader.getAttributeValue(i));
+            }
+
+            final String localName = reader.getLocalName();
+            validator.startElement(nonNull(reader.getNamespaceURI()), localName, qualify(nonNull(reader.getPrefix()), localName), attributes);
+
+        }
+
+        // Forwards the current end element, and closes its namespace declarations, to the validator.
+        private void forwardEndElement() throws SAXException {
+
+            final String localName = reader.getLocalName();
+            validator.endElement(nonNull(reader.getNamespaceURI()), localName, qualify(nonNull(reader.getPrefix()), localName));
+
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                validator.endPrefixMapping(nonNull(reader.getNamespacePrefix(i)));
+            }
+
+        }
+
+    }
+
+    private static String qualify(final String prefix, final String localName) {
+        return prefix.isEmpty() ? localName : prefix + ':' + localName;
+    }
+
+    private static String nonNull(final String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Mutable holder for the activity fields while an activity is being read.
+     */
+    private static final class Fields {
+
+        private String userName;
+        private String websiteName;
+        private String activityTypeDescription;
+        private int activityTypeCode;
+        private Date signedInTime;
+        private int numberOfViews;
+
+        void bind(final String element, final CharSequence value) {
+
+            switch (element) {
+                case USER_NAME:
+                    userName = value.toString();
+                    break;
+                case WEBSITE_NAME:
+                    websiteName = value.toString();
+                    break;
+                case ACTIVITY_TYPE_DESCRIPTION:
+                    activityTypeDescription = value.toString();
+                    break;
+                case ACTIVITY_TYPE_CODE:
+                    activityTypeCode = Integer.parseInt(value.toString().trim());
+                    break;
+                case LOGGED_IN_TIME:
+                    signedInTime = toDate(value.toString().trim());
+                    break;
+                case NUMBER_OF_VIEWS:
+                    numberOfViews = Integer.parseInt(value.toString().trim());
+                    break;
+                default:
+                    break; // anything else is the schema's concern
+            }
+
+        }
+
+        Activity toActivity() {
+            return new Activity(userName, websiteName, activityTypeDescription, activityTypeCode, signedInTime, numberOfViews);
+        }
+
+        // xs:date values are taken as midnight UTC, and any zone suffix is ignored - the same as the previous XStream binding.
+        private static Date toDate(final String value) {
+            final LocalDate date = LocalDate.parse(value, DateTimeFormatter.ISO_DATE);
+            return new Date(TimeUnit.DAYS.toMillis(date.toEpochDay()));
+        }
+
+    }
+
+    /**
+     * Adapts the StAX location to a SAX Locator, so validation errors report line and column.
+     */
+    private static final class StreamLocator implements Locator {
+
+        private final XMLStreamReader reader;
+
+        StreamLocator(final XMLStreamReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public String getPublicId() {
+            return location().getPublicId();
+        }
+
+        @Override
+        public String getSystemId() {
+            return location().getSystemId();
+        }
+
+        @Override
+        public int getLineNumber() {
+            return location().getLineNumber();
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return location().getColumnNumber();
+        }
+
+        private Location location() {
+            return reader.getLocation();
+        }
+
+    }
+
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.handler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Supplies the contents of a batch of small files, of the same type, one after another to a single Handler - so the
+ * handler can keep whatever it needs, such as a validator, for the whole batch rather than taking it for each file.
+ * Each content is read as it is asked for, and is only valid until the next is asked for.
+ */
+@FunctionalInterface
+public interface ContentBatch {
+
+    /**
+     * Gets the content of the next file in the batch. A file which cannot be read is skipped.
+     * @return the content, from its position to its limit, or null once there are no more.
+     * @throws InterruptedException if interrupted while reading.
+     */
+    ByteBuffer next() throws InterruptedException;
+
+}
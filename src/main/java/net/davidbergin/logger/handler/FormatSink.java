@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.handler;
+
+import net.davidbergin.logger.format.BasicOutputFormat;
+
+/**
+ * Receives each record from a Handler as soon as it has been mapped to the output format, before it is serialized - so
+ * serializing can be left to another thread.
+ */
+@FunctionalInterface
+public interface FormatSink {
+
+    /**
+     * Accepts a mapped record, possibly waiting until there is room for it.
+     * @param record the output format, not yet serialized.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void accept(BasicOutputFormat record) throws InterruptedException;
+
+}
@@ -3,6 +3,12 @@
  */
 package net.davidbergin.logger.handler;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import net.davidbergin.logger.util.Trace;
 
 /**
@@ -11,6 +17,13 @@ import net.davidbergin.logger.util.Trace;
  * If validation succeeds, then the content is transformed using a mapper class to the desired output format.
  * The default handle method orchestrates the phases, and centrally logs any errors.
  * A file which cannot be handled is just logged, and the exception does not propagate.
+ * Content can be supplied either as a String, or as UTF-8 bytes in a ByteBuffer - which handlers can override to parse
+ * straight from a mapped or pooled buffer, without first decoding the whole file to a String.
+ * Content holding many records is handled through {@link #handle(ByteBuffer, RecordSink)}, which passes on each record
+ * as soon as it is transformed, and content decompressed on the fly through {@link #handle(InputStream, RecordSink)}.
+ * Many small files of the same type can be handled as one batch through {@link #handle(ContentBatch, RecordSink)}, so
+ * their cost is paid once per batch rather than once per file. A handler which maps to {@link net.davidbergin.logger.format.BasicOutputFormat}
+ * can be staged, by implementing {@link StagedHandler} to pass records on before they are serialized.
  */
 public interface Handler {
 
@@ -31,6 +44,77 @@ public interface Handler {
         return null;
     }
 
+    /**
+     * Validate and transform content supplied as bytes to an output format.
+     * This default decodes the bytes as UTF-8 and calls {@link #handle(String)}, so existing handlers keep working.
+     * @param content the input format, from its position to its limit. The buffer is only read during this call.
+     * @return the transformed output format or null if the input format cannot be transformed.
+     */
+    default String handle(ByteBuffer content) {
+        return handle(StandardCharsets.UTF_8.decode(content).toString());
+    }
+
+    /**
+     * Validate and transform content which may hold many records, passing each one to the sink as soon as it is transformed.
+     * This default treats the content as a single record, using {@link #handle(ByteBuffer)}.
+     * @param content the input format, from its position to its limit. The buffer is only read during this call.
+     * @param sink the receiver of each transformed record.
+     * @return the number of records passed to the sink.
+     * @throws InterruptedException if interrupted while the sink was waiting.
+     */
+    default int handle(ByteBuffer content, RecordSink sink) throws InterruptedException {
+        final String result = handle(content);
+        if (result == null) {
+            return 0;
+        }
+        sink.accept(result);
+        return 1;
+    }
+
+    /**
+     * Validate and transform content read from a stream, such as a decompressed file or archive entry, passing each record
+     * to the sink as soon as it is transformed.
+     * This default reads the whole stream into memory and uses {@link #handle(ByteBuffer, RecordSink)}.
+     * @param content the input format. The stream is read but not closed.
+     * @param sink the receiver of each transformed record.
+     * @return the number of records passed to the sink.
+     * @throws InterruptedException if interrupted while the sink was waiting.
+     */
+    default int handle(InputStream content, RecordSink sink) throws InterruptedException {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            final byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = content.read(chunk)) >= 0) {
+                bytes.write(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            Trace.error(this.getClass(), "Error occurred reading content", e);
+            return 0;
+        }
+        return handle(ByteBuffer.wrap(bytes.toByteArray()), sink);
+
+    }
+
+    /**
+     * Validate and transform a batch of contents in turn, passing each record to the sink as soon as it is transformed.
+     * Handlers can override this to keep a parser or validator for the whole batch.
+     * This default handles each content with {@link #handle(ByteBuffer, RecordSink)}.
+     * @param contents the batch, whose contents are each only read until the next is taken.
+     * @param sink the receiver of each transformed record.
+     * @return the number of records passed to the sink, over the whole batch.
+     * @throws InterruptedException if interrupted while the batch was read or the sink was waiting.
+     */
+    default int handle(ContentBatch contents, RecordSink sink) throws InterruptedException {
+        int records = 0;
+        ByteBuffer content;
+        while ((content = contents.next()) != null) {
+            records += handle(content, sink);
+        }
+        return records;
+    }
+
     /**
      * Validates the input content against a schema, if supported by this Handler implementation.
      * @param content the input format.
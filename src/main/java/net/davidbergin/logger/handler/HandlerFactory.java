@@ -3,78 +3,183 @@
  */
 package net.davidbergin.logger.handler;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.davidbergin.logger.metrics.ProcessingMetrics;
 import net.davidbergin.logger.util.Config;
 import net.davidbergin.logger.util.Trace;
 
 /**
- * A public Factory class for this package, providing a simple getInstance() API to get the required Handlier for a fileName.
- * This class uses the HandlerCache to avoid unneccessary objects being creates, and returns handlers from the cache.
+ * A public Factory class for this package, providing a simple getInstance() API to get the required Handler for a fileName.
+ * Every handler configured by a logger.handler.&lt;extension&gt; property is created once, when this class is loaded,
+ * into an immutable dispatch table - extensions configured with the same class share one instance. A lookup matches the
+ * extension in place, ignoring case, so it neither allocates nor locks, and an unknown extension is simply not found.
+ * Content whose name does not identify a handler can be sniffed instead - XML starts with '&lt;' and JSON with '{' or '['.
  */
 public class HandlerFactory {
 
-    private static final HandlerCache HANDLER_CACHE = new HandlerCache();
+    private static final String HANDLER_PREFIX = "logger.handler.";
+    private static final String COMPRESSED_EXTENSION = ".gz";
+    private static final int SNIFF_BYTES = 64; // enough to pass a byte order mark and leading whitespace
+    private static final boolean SNIFFING = Config.instance().getBoolean("logger.input.sniff", true);
+
+    private static final String[] EXTENSIONS;
+    private static final Handler[] HANDLERS;
+
+    static {
+        final List<String> extensions = new ArrayList<>();
+        final List<Handler> handlers = new ArrayList<>();
+        final Map<String, Handler> byClass = new HashMap<>();
+        Config.instance().getWithPrefix(HANDLER_PREFIX).forEach((extension, handlerName) -> {
+            final Handler handler = byClass.computeIfAbsent(handlerName.trim(), HandlerFactory::create);
+            if (handler != null) {
+                extensions.add(extension.toLowerCase());
+                handlers.add(handler);
+            }
+        });
+        EXTENSIONS = extensions.toArray(new String[0]);
+        HANDLERS = handlers.toArray(new Handler[0]);
+    }
 
     /**
-     * Gets the appropriate instance of a Handler which matches the filename (based on extension).
+     * Gets the appropriate instance of a Handler which matches the filename (based on extension, so foo.json.gz is
+     * handled as foo.json).
      * @param fileName the file name to get a matching handler for.
-     * @return Handler instance from the cache appropriate to the file name.
+     * @return Handler instance from the table appropriate to the file name, or null if there isn't one.
      */
-    public static Handler getInstance(String fileName) {
-
-        Trace.info(HandlerFactory.class, "Getting handler for " + fileName);
-
-        try {
-
-            final String extension = getFileExtension(fileName);
-
-            if (extension != null && extension.length() > 0) {
+    public static Handler getInstance(final String fileName) {
 
-                final String handlerName = Config.instance().getString("logger.handler." + extension);
-
-                if (handlerName == null) {
-
-                    Trace.warn(HandlerFactory.class, "No handler found for " + fileName);
-
-                } else {
+        int end = fileName.length();
+        if (fileName.regionMatches(true, end - COMPRESSED_EXTENSION.length(), COMPRESSED_EXTENSION, 0, COMPRESSED_EXTENSION.length())) {
+            end -= COMPRESSED_EXTENSION.length();
+        }
+        final int dot = fileName.lastIndexOf('.', end - 1);
+        if (dot < 0) {
+            return null;
+        }
 
-                    Handler handler = HANDLER_CACHE.get(extension);
+        final int length = end - dot - 1;
+        for (int i = 0; i < EXTENSIONS.length; i++) {
+            if (EXTENSIONS[i].length() == length && fileName.regionMatches(true, dot + 1, EXTENSIONS[i], 0, length)) {
+                return HANDLERS[i];
+            }
+        }
+        return null;
 
-                    if (handler == null) { // as it will be the first time
+    }
 
-                        handler = (Handler) Class.forName(handlerName).getConstructor().newInstance();
-                        HANDLER_CACHE.put(extension, handler);
-                        handler = HANDLER_CACHE.get(extension); // always get the cached instance, to avoid leaking
+    /**
+     * Whether content without a known extension is sniffed, as set by logger.input.sniff - if not, it is skipped unread.
+     * @return true if content is sniffed.
+     */
+    public static boolean isSniffing() {
+        return SNIFFING;
+    }
 
-                    }
-                    
-                    Trace.info(HandlerFactory.class, "Got handler for " + fileName + " - " + handler.getClass());
-                    return handler;
+    /**
+     * Gets the handler for content by its first character, after any byte order mark and whitespace - the handler for
+     * .xml files if it is '&lt;', or for .json files if it is '{' or '['.
+     * @param content the content, from its position. The buffer's position is not changed.
+     * @return the handler, or null if the content is not recognised.
+     */
+    public static Handler sniff(final ByteBuffer content) {
+        if (!SNIFFING) {
+            return null;
+        }
+        final int end = Math.min(content.limit(), content.position() + SNIFF_BYTES);
+        for (int i = content.position(); i < end; i++) {
+            final int b = content.get(i) & 0xff;
+            if (!skipped(b)) {
+                return sniffed(b);
+            }
+        }
+        return null;
+    }
 
+    /**
+     * Gets the handler for streamed content by its first character, as {@link #sniff(ByteBuffer)} does, reading only as
+     * far as that and then resetting the stream.
+     * @param content the content, which must support mark and reset.
+     * @return the handler, or null if the content is not recognised.
+     * @throws IOException if the content could not be read.
+     */
+    public static Handler sniff(final InputStream content) throws IOException {
+        if (!SNIFFING) {
+            return null;
+        }
+        content.mark(SNIFF_BYTES);
+        try {
+            for (int i = 0; i < SNIFF_BYTES; i++) {
+                final int b = content.read();
+                if (b < 0) {
+                    return null;
+                }
+                if (!skipped(b)) {
+                    return sniffed(b);
                 }
-
-
-            } else {
-                Trace.warn(Handler.class, "No extension found on " + fileName);
             }
-
-        } catch (Exception e) {
-            Trace.error(HandlerFactory.class, "Error occurred getting handler for " + fileName, e); //Don't propagate as not a big issue if unknown file type encountered
+            return null;
+        } finally {
+            content.reset();
         }
+    }
 
-        return null;
+    /**
+     * Gets the handler for a file by its first character, as {@link #sniff(ByteBuffer)} does, reading only as many bytes
+     * as that looks at - so a file which is not recognised is never read in full.
+     * @param file the file.
+     * @return the handler, or null if the content is not recognised.
+     * @throws IOException if the file could not be read.
+     */
+    public static Handler sniff(final Path file) throws IOException {
+        if (!SNIFFING) {
+            return null;
+        }
+        final ByteBuffer start = ByteBuffer.allocate(SNIFF_BYTES);
+        try (FileChannel channel = FileChannel.open(file)) {
+            while (start.hasRemaining() && channel.read(start) >= 0) {
+                // read until the buffer is full, or the file ends
+            }
+        }
+        start.flip();
+        return sniff(start);
+    }
 
+    // Whether the byte is passed over while sniffing - whitespace, or part of a UTF-8 byte order mark.
+    private static boolean skipped(final int b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0xef || b == 0xbb || b == 0xbf;
     }
 
-    // Gets the file extension from the filename, or null if there isn't one.
-    private static String getFileExtension(String fileName) {
+    // The handler for content starting with the byte, or null if not recognised.
+    private static Handler sniffed(final int b) {
+        if (b == '<') {
+            return getInstance(".xml");
+        }
+        if (b == '{' || b == '[') {
+            return getInstance(".json");
+        }
+        return null;
+    }
 
-        int extensionIndex = fileName.lastIndexOf('.');
-        if (extensionIndex > -1) {
-            return fileName.substring(extensionIndex + 1).toLowerCase();
-        } else {
+    // Creates a handler by class name, or null if it could not be created.
+    private static Handler create(final String handlerName) {
+        try {
+            final Handler handler = (Handler) Class.forName(handlerName).getConstructor().newInstance();
+            Trace.info(HandlerFactory.class, () -> "Created handler " + handlerName);
+            return handler;
+        } catch (Exception e) {
+            ProcessingMetrics.instance().error(ProcessingMetrics.ErrorReason.HANDLER_FAILED);
+            Trace.error(HandlerFactory.class, "Error occurred creating handler " + handlerName, e);
             return null;
         }
-        
     }
 
 }
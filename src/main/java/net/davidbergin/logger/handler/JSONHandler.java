@@ -3,25 +3,134 @@
  */
 package net.davidbergin.logger.handler;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import net.davidbergin.logger.format.ActivityWrapper;
+import net.davidbergin.logger.format.BasicOutputFormat;
 import net.davidbergin.logger.mapping.BasicOutputMapper;
+import net.davidbergin.logger.metrics.ProcessingMetrics;
 import net.davidbergin.logger.util.Trace;
 
 /**
  * Implementation of Handler for basic JSON files.
  * Does not support validation, so this always succeeds.
  * Maps the input to output using BasicOutputMapper.
+ * The Gson instance is immutable and thread safe, so it is built once when the HandlerFactory creates this handler.
+ * Content supplied as bytes, or as a stream, is parsed as a stream, without first decoding it to a String.
+ * A file can hold many records - as a JSON array of them, or one after another as in newline delimited JSON - which are
+ * read and passed on one at a time. Records can also be passed on mapped but not yet serialized, for a separate
+ * serialize stage.
  */
-public class JSONHandler implements Handler {
+public class JSONHandler implements StagedHandler {
+
+    private final Gson gson = new GsonBuilder().setDateFormat("MM/dd/yyyy").create();
+    private final ProcessingMetrics metrics = ProcessingMetrics.instance();
 
     @Override
     public boolean validate(String content) {
         return true; // JSON validation not supported
     }
 
+    /**
+     * Transforms the input JSON bytes to the output format, reading them as a UTF-8 stream.
+     * @param content the input JSON.
+     * @return the transformed output JSON or null if the input could not be transformed.
+     */
+    @Override
+    public String handle(final ByteBuffer content) {
+
+        try {
+            return transform(new InputStreamReader(new ByteBufferInputStream(content), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            Trace.error(this.getClass(), "Error occurred handling content", e);
+        }
+        return null;
+
+    }
+
+    /**
+     * Streams the records in the input JSON bytes, passing each to the sink as soon as it is transformed. The content can
+     * be a single record, an array of records, or many top level records one after another, such as newline delimited JSON.
+     * A record with no activity is skipped, but malformed JSON ends the file.
+     * @param content the input JSON.
+     * @param sink the receiver of each transformed record.
+     * @return the number of records passed to the sink.
+     * @throws InterruptedException if interrupted while the sink was waiting.
+     */
+    @Override
+    public int handle(final ByteBuffer content, final RecordSink sink) throws InterruptedException {
+        return handle(new ByteBufferInputStream(content), sink);
+    }
+
+    /**
+     * Streams the records in the input JSON stream, as {@link #handle(ByteBuffer, RecordSink)} does.
+     * @param content the input JSON, which is read but not closed.
+     * @param sink the receiver of each transformed record.
+     * @return the number of records passed to the sink.
+     * @throws InterruptedException if interrupted while the sink was waiting.
+     */
+    @Override
+    public int handle(final InputStream content, final RecordSink sink) throws InterruptedException {
+        return map(content, format -> sink.accept(serialize(format)));
+    }
+
+    /**
+     * Streams the records in the input JSON bytes, as {@link #handle(ByteBuffer, RecordSink)} does, but passes each on as
+     * soon as it is mapped, leaving it to be serialized.
+     * @param content the input JSON.
+     * @param sink the receiver of each mapped record.
+     * @return the number of records passed to the sink.
+     * @throws InterruptedException if interrupted while the sink was waiting.
+     */
+    @Override
+    public int map(final ByteBuffer content, final FormatSink sink) throws InterruptedException {
+        return map(new ByteBufferInputStream(content), sink);
+    }
+
+    // Streams the records in the input JSON stream, passing each to the sink as soon as it is mapped.
+    private int map(final InputStream content, final FormatSink sink) throws InterruptedException {
+
+        int records = 0;
+
+        try {
+
+            final JsonReader reader = new JsonReader(new InputStreamReader(content, StandardCharsets.UTF_8)); // not closed, as that would close the stream
+
+            reader.setLenient(true); // allows many top level values
+
+            JsonToken token;
+            while ((token = reader.peek()) != JsonToken.END_DOCUMENT) {
+                if (token == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        records += transform(reader, sink);
+                    }
+                    reader.endArray();
+                } else {
+                    records += transform(reader, sink);
+                }
+            }
+
+        } catch (IOException | RuntimeException e) {
+            metrics.error(ProcessingMetrics.ErrorReason.MALFORMED_CONTENT);
+            Trace.error(this.getClass(), "Error occurred handling content after " + records + " records", e);
+        }
+
+        return records;
+
+    }
+
     /**
      * Transforms the input JSON to the output format.
      * @param content the input JSON.
@@ -30,16 +139,53 @@ public class JSONHandler implements Handler {
     @Override
     public String transform(String content) {
 
-        Trace.info(JSONHandler.class, "Transforming content - " + content);
+        Trace.info(JSONHandler.class, () -> "Transforming content - " + content);
 
-        final Gson gson = new GsonBuilder().setDateFormat("MM/dd/yyyy").create();
-        final ActivityWrapper wrapper = gson.fromJson(content, ActivityWrapper.class);
+        return transform(new StringReader(content));
 
-        final String output = BasicOutputMapper.instance().map(wrapper.getActivity()).toJSONString();
-        Trace.info(XMLHandler.class, "Transformed to - " + output);
+    }
 
-        return output;
+    // Reads the input JSON and maps it to the output format.
+    private String transform(final Reader content) {
+        return map(gson.fromJson(content, ActivityWrapper.class));
+    }
+
+    // Reads the next record from the stream and passes it to the sink, returning the number of records passed.
+    private int transform(final JsonReader reader, final FormatSink sink) throws InterruptedException {
+
+        final long start = System.nanoTime();
+        final ActivityWrapper wrapper = gson.fromJson(reader, ActivityWrapper.class);
+        metrics.time(ProcessingMetrics.Stage.VALIDATE, System.nanoTime() - start);
+        if (wrapper == null || wrapper.getActivity() == null) {
+            metrics.error(ProcessingMetrics.ErrorReason.INVALID_RECORD);
+            Trace.warn(JSONHandler.class, "Skipping record with no activity");
+            return 0;
+        }
+        sink.accept(format(wrapper));
+        return 1;
+
+    }
+
+    // Maps the wrapped activity to the output format and serializes it.
+    private String map(final ActivityWrapper wrapper) {
+        return serialize(format(wrapper));
+    }
 
+    // Maps the wrapped activity to the output format, timing the mapping.
+    private BasicOutputFormat format(final ActivityWrapper wrapper) {
+        final long start = System.nanoTime();
+        final BasicOutputFormat format = BasicOutputMapper.instance().map(wrapper.getActivity());
+        metrics.time(ProcessingMetrics.Stage.TRANSFORM, System.nanoTime() - start);
+        return format;
+    }
+
+    // Serializes the output format, timing the serialization.
+    private String serialize(final BasicOutputFormat format) {
+        final long start = System.nanoTime();
+        final String output = format.toJSONString();
+        metrics.time(ProcessingMetrics.Stage.SERIALIZE, System.nanoTime() - start);
+        Trace.info(JSONHandler.class, () -> "Transformed to - " + output);
+        return output;
     }
 
 }
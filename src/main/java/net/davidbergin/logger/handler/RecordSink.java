@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.handler;
+
+/**
+ * Receives each output record from a Handler as soon as it has been transformed, so a file holding many records
+ * never has to be held in memory as a whole.
+ */
+@FunctionalInterface
+public interface RecordSink {
+
+    /**
+     * Accepts an output record, possibly waiting until there is room for it.
+     * @param record the transformed output format.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void accept(String record) throws InterruptedException;
+
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.handler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Handler which maps to {@link net.davidbergin.logger.format.BasicOutputFormat}, and can pass records on mapped but
+ * not yet serialized, so serializing can be a stage of its own. Handlers which do not implement this are handled whole.
+ */
+public interface StagedHandler extends Handler {
+
+    /**
+     * Validate and map content which may hold many records, passing each to the sink as soon as it is mapped, without
+     * serializing it.
+     * @param content the input format, from its position to its limit. The buffer is only read during this call.
+     * @param sink the receiver of each mapped record.
+     * @return the number of records passed to the sink.
+     * @throws InterruptedException if interrupted while the sink was waiting.
+     */
+    int map(ByteBuffer content, FormatSink sink) throws InterruptedException;
+
+}
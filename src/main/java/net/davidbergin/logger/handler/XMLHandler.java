@@ -3,34 +3,46 @@
  */
 package net.davidbergin.logger.handler;
 
-import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.xml.XMLConstants;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
-
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.converters.basic.DateConverter;
+import javax.xml.validation.ValidatorHandler;
 
 import org.xml.sax.SAXException;
 
 import net.davidbergin.logger.Processor;
 import net.davidbergin.logger.format.Activity;
+import net.davidbergin.logger.format.BasicOutputFormat;
 import net.davidbergin.logger.mapping.BasicOutputMapper;
+import net.davidbergin.logger.metrics.ProcessingMetrics;
 import net.davidbergin.logger.util.Config;
 import net.davidbergin.logger.util.Trace;
 
 /**
  * Implementation of Handler for basic XML files. Validates against an XSD
  * schema, if configured. Maps the input to output using BasicOutputMapper.
+ * Handling streams the content once through {@link ActivityStreamReader}, which validates and binds in the same pass.
+ * The schema and reader are thread safe and built once, when the HandlerFactory creates this handler, whereas
+ * validators are not thread safe and so are pooled, each used by one thread at a time and reused for file after file -
+ * a pool rather than one per thread, so that threads which only handle one file, such as virtual threads, reuse them too.
+ * A file can hold many activity elements inside any root element, which are validated and passed on one at a time.
+ * A batch of files takes one validator from the pool for the whole batch. Records can also be passed on mapped but not
+ * yet serialized, for a separate serialize stage.
  */
-public class XMLHandler implements Handler {
+public class XMLHandler implements StagedHandler {
 
     private static final String SCHEMA_PROPERTY_NAME = "logger.schema.xml";
     private final Schema schema;
+    private final Queue<ValidatorHandler> validators = new ConcurrentLinkedQueue<>();
+    private final ActivityStreamReader activityReader = new ActivityStreamReader();
+    private final ProcessingMetrics metrics = ProcessingMetrics.instance();
 
     public XMLHandler() throws SAXException {
 
@@ -45,6 +57,160 @@ public class XMLHandler implements Handler {
         }
     }
 
+    /**
+     * Validates and transforms the content in a single read, rather than the two reads of the default implementation.
+     * @param content the input XML.
+     * @return the transformed output JSON or null if the input could not be validated or transformed.
+     */
+    @Override
+    public String handle(final String content) {
+
+        Trace.info(XMLHandler.class, () -> "Transforming content - " + content);
+
+        final ValidatorHandler validator = borrowValidator();
+        try {
+            return map(activityReader.read(new StringReader(content), validator));
+        } catch (Exception e) {
+            Trace.error(this.getClass(), "Error occurred handling content " + content, e);
+        } finally {
+            returnValidator(validator);
+        }
+        return null;
+
+    }
+
+    /**
+     * Validates and transforms content supplied as bytes in a single read. The parser reads the bytes directly and
+     * honours the encoding declared by the document, so the content is never decoded to a String.
+     * @param content the input XML.
+     * @return the transformed output JSON or null if the input could not be validated or transformed.
+     */
+    @Override
+    public String handle(final ByteBuffer content) {
+
+        final ValidatorHandler validator = borrowValidator();
+        try {
+            return map(activityReader.read(new ByteBufferInputStream(content), validator));
+        } catch (Exception e) {
+            Trace.error(this.getClass(), "Error occurred handling content", e);
+        } finally {
+            returnValidator(validator);
+        }
+        return null;
+
+    }
+
+    /**
+     * Streams the activities in the input XML bytes, validating each as its own document and passing it to the sink
+     * as soon as it is transformed. The content can be a single activity, or any root element holding many.
+     * An activity which fails validation is skipped, but XML which is not well formed ends the file.
+     * @param content the input XML.
+     * @param sink the receiver of each transformed record.
+     * @return the number of records passed to the sink.
+     * @throws InterruptedException if interrupted while the sink was waiting.
+     */
+    @Override
+    public int handle(final ByteBuffer content, final RecordSink sink) throws InterruptedException {
+        return handle(new ByteBufferInputStream(content), sink);
+    }
+
+    /**
+     * Streams the activities in the input XML stream, as {@link #handle(ByteBuffer, RecordSink)} does.
+     * @param content the input XML, which is read but not closed.
+     * @param sink the receiver of each transformed record.
+     * @return the number of records passed to the sink.
+     * @throws InterruptedException if interrupted while the sink was waiting.
+     */
+    @Override
+    public int handle(final InputStream content, final RecordSink sink) throws InterruptedException {
+
+        final ValidatorHandler validator = borrowValidator();
+        try {
+            return map(content, validator, format -> sink.accept(serialize(format)));
+        } finally {
+            returnValidator(validator);
+        }
+
+    }
+
+    /**
+     * Streams the activities in each file of the batch in turn, as {@link #handle(ByteBuffer, RecordSink)} does, with the
+     * same validator for every file.
+     * @param contents the batch of input XML.
+     * @param sink the receiver of each transformed record.
+     * @return the number of records passed to the sink, over the whole batch.
+     * @throws InterruptedException if interrupted while the batch was read or the sink was waiting.
+     */
+    @Override
+    public int handle(final ContentBatch contents, final RecordSink sink) throws InterruptedException {
+
+        int records = 0;
+        final ValidatorHandler validator = borrowValidator();
+        try {
+            ByteBuffer content;
+            while ((content = contents.next()) != null) {
+                records += map(new ByteBufferInputStream(content), validator, format -> sink.accept(serialize(format)));
+            }
+        } finally {
+            returnValidator(validator);
+        }
+        return records;
+
+    }
+
+    /**
+     * Streams the activities in the input XML bytes, as {@link #handle(ByteBuffer, RecordSink)} does, but passes each on
+     * as soon as it is mapped, leaving it to be serialized.
+     * @param content the input XML.
+     * @param sink the receiver of each mapped record.
+     * @return the number of records passed to the sink.
+     * @throws InterruptedException if interrupted while the sink was waiting.
+     */
+    @Override
+    public int map(final ByteBuffer content, final FormatSink sink) throws InterruptedException {
+
+        final ValidatorHandler validator = borrowValidator();
+        try {
+            return map(new ByteBufferInputStream(content), validator, sink);
+        } finally {
+            returnValidator(validator);
+        }
+
+    }
+
+    // Streams the activities in the input XML stream with the validator supplied, returning the number of records passed.
+    // A well formed document holding no activity element at all is counted and logged, as a wrong or empty file.
+    private int map(final InputStream content, final ValidatorHandler validator, final FormatSink sink) throws InterruptedException {
+
+        int records = 0;
+
+        try (ActivityStreamReader.Cursor cursor = activityReader.open(content, validator)) {
+            long start = System.nanoTime();
+            while (cursor.next()) {
+                try {
+                    final Activity activity = cursor.activity();
+                    metrics.time(ProcessingMetrics.Stage.VALIDATE, System.nanoTime() - start);
+                    sink.accept(format(activity));
+                    records++;
+                } catch (SAXException | XMLStreamException e) {
+                    metrics.error(ProcessingMetrics.ErrorReason.INVALID_RECORD);
+                    Trace.error(this.getClass(), "Skipping invalid activity", e);
+                }
+                start = System.nanoTime();
+            }
+            if (cursor.found() == 0) {
+                metrics.error(ProcessingMetrics.ErrorReason.NO_ACTIVITY);
+                Trace.warn(this.getClass(), "No activity element found - skipping the content");
+            }
+        } catch (XMLStreamException | RuntimeException e) {
+            metrics.error(ProcessingMetrics.ErrorReason.MALFORMED_CONTENT);
+            Trace.error(this.getClass(), "Error occurred handling content after " + records + " records", e);
+        }
+
+        return records;
+
+    }
+
     /**
      * Validates the input content against a schema.
      * 
@@ -53,11 +219,15 @@ public class XMLHandler implements Handler {
      * @throws Exception if an error occurred.
      */
     @Override
-    public boolean validate(String content) throws SAXException, IOException {
+    public boolean validate(String content) throws SAXException, XMLStreamException {
 
         if (schema != null) {
-            Validator validator = schema.newValidator();// not thread safe so must always create a new one
-            validator.validate(new StreamSource(new StringReader(content)));
+            final ValidatorHandler validator = borrowValidator();
+            try {
+                activityReader.read(new StringReader(content), validator);
+            } finally {
+                returnValidator(validator);
+            }
         }
 
         return true; // if no schema is configured, assume that file passes validation
@@ -73,19 +243,51 @@ public class XMLHandler implements Handler {
     @Override
     public String transform(final String content) {
 
-        Trace.info(XMLHandler.class, "Transforming content - " + content);
+        try {
+            return map(activityReader.read(new StringReader(content), null));
+        } catch (XMLStreamException | SAXException e) {
+            throw new IllegalArgumentException("Could not read activity XML", e);
+        }
 
-        final XStream xstream = new XStream();
-        xstream.alias("activity", Activity.class);
-        xstream.aliasField("loggedInTime", Activity.class, "signedInTime");
-        xstream.registerConverter(new DateConverter("yyyy-MM-dd", null));
-        final Activity activity = (Activity) xstream.fromXML(content);
+    }
 
-        final String output = BasicOutputMapper.instance().map(activity).toJSONString();
-        Trace.info(XMLHandler.class, "Transformed to - " + output);
+    // Maps the bound activity to the output format and serializes it.
+    private String map(final Activity activity) {
+        return serialize(format(activity));
+    }
+
+    // Maps the bound activity to the output format, timing the mapping.
+    private BasicOutputFormat format(final Activity activity) {
+        final long start = System.nanoTime();
+        final BasicOutputFormat format = BasicOutputMapper.instance().map(activity);
+        metrics.time(ProcessingMetrics.Stage.TRANSFORM, System.nanoTime() - start);
+        return format;
+    }
 
+    // Serializes the output format, timing the serialization.
+    private String serialize(final BasicOutputFormat format) {
+        final long start = System.nanoTime();
+        final String output = format.toJSONString();
+        metrics.time(ProcessingMetrics.Stage.SERIALIZE, System.nanoTime() - start);
+        Trace.info(XMLHandler.class, () -> "Transformed to - " + output);
         return output;
+    }
 
+    // Takes a validator for the configured schema from the pool, or creates one if none are free, or null if there isn't a schema.
+    // Validators are reset at the start of each document, so one left part way through by an invalid file is safe to reuse.
+    private ValidatorHandler borrowValidator() {
+        if (schema == null) {
+            return null;
+        }
+        final ValidatorHandler validator = validators.poll();
+        return validator != null ? validator : schema.newValidatorHandler();
+    }
+
+    // Puts a validator back in the pool once the thread that took it is done with it.
+    private void returnValidator(final ValidatorHandler validator) {
+        if (validator != null) {
+            validators.offer(validator);
+        }
     }
 
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.input;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * Tunes the number of threads of the input pool while it runs, rather than leaving it at a fixed guess. Every interval it
+ * measures the throughput, and takes a step of a hill climb: it keeps adding - or removing - threads while throughput
+ * improves, and turns back when a step makes it worse. Adding threads which do not improve throughput counts as making
+ * it worse, so the pool climbs only as far as threads help, and removing threads is kept up while throughput holds.
+ * Threads are never added while no files are waiting for a thread, while the CPU is saturated, or while the output is
+ * holding the input threads back - more threads could not help. Each turn halves the step, and after a few turns the
+ * pool settles on the better of its last two sizes - or the smaller, if neither is better - which is logged. A settled
+ * pool starts climbing again if the throughput moves well away from what it settled at, as when the mix of files changes.
+ * An interval in which nothing was read and no files were waiting - input exhausted, or a watched directory idle - is no
+ * measure of the pool, so it is skipped, and a settled pool is not moved by throughput falling while no files are waiting.
+ */
+public class AdaptivePool implements AutoCloseable {
+
+    private static final int SETTLE_REVERSALS = 3;
+    private static final double SATURATED_CPU = 0.9;
+    private static final int UNSETTLE_TOLERANCES = 4; // how many tolerances throughput must move by to climb again
+
+    private final ThreadPoolExecutor pool;
+    private final int minThreads;
+    private final int maxThreads;
+    private final long intervalMillis;
+    private final double tolerance;
+    private final LongSupplier progress;
+    private final LongSupplier blocked;
+    private final int initialThreads;
+    private final ScheduledExecutorService timer;
+
+    private int threads;
+    private int previousThreads;
+    private int direction = 1;
+    private int step;
+    private int reversals;
+    private int adjustments;
+    private double lastRate = -1;
+    private boolean settled;
+    private double settledRate;
+    private long lastProgress;
+    private long lastBlocked;
+    private long lastNanos;
+
+    /**
+     * Creates a tuner for a pool, which is started at its current size. Nothing is changed until it is started.
+     * @param pool the pool.
+     * @param minThreads the fewest threads to run.
+     * @param maxThreads the most threads to run.
+     * @param intervalMillis how often to measure throughput and adjust, in milliseconds.
+     * @param tolerance the share by which throughput must change to count as better or worse, such as 0.05.
+     * @param progress the work done so far, such as bytes read, whose rate is the throughput.
+     * @param blocked the number of times the input threads have had to wait for the output so far.
+     */
+    public AdaptivePool(final ThreadPoolExecutor pool, final int minThreads, final int maxThreads, final long intervalMillis,
+            final double tolerance, final LongSupplier progress, final LongSupplier blocked) {
+
+        this.pool = pool;
+        this.minThreads = Math.max(1, minThreads);
+        this.maxThreads = Math.max(this.minThreads, maxThreads);
+        this.intervalMillis = Math.max(1, intervalMillis);
+        this.tolerance = Math.max(0, tolerance);
+        this.progress = progress;
+        this.blocked = blocked;
+        this.initialThreads = Math.min(this.maxThreads, Math.max(this.minThreads, pool.getCorePoolSize()));
+        this.threads = initialThreads;
+        this.previousThreads = initialThreads;
+        this.step = Math.max(1, initialThreads / 4);
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "logger-adaptive");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    }
+
+    /**
+     * Sizes the pool to its starting size, and starts measuring and adjusting it every interval.
+     */
+    public void start() {
+        resize(threads);
+        lastProgress = progress.getAsLong();
+        lastBlocked = blocked.getAsLong();
+        lastNanos = System.nanoTime();
+        timer.scheduleAtFixedRate(this::measure, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops adjusting the pool, which is left at its current size.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * @return the number of threads the pool was started with.
+     */
+    public int initialThreads() {
+        return initialThreads;
+    }
+
+    /**
+     * @return the number of threads the pool is running with now.
+     */
+    public synchronized int threads() {
+        return threads;
+    }
+
+    /**
+     * @return whether the pool has settled on its number of threads.
+     */
+    public synchronized boolean isSettled() {
+        return settled;
+    }
+
+    /**
+     * @return the number of times the pool has been resized.
+     */
+    public synchronized int adjustments() {
+        return adjustments;
+    }
+
+    /**
+     * Takes one step of the hill climb, from the throughput over the last interval.
+     * @param rate the throughput over the last interval.
+     * @param backlog whether any files were waiting for a thread.
+     * @param saturated whether the CPU was saturated, or the output was holding the input threads back.
+     * @return the number of threads to run next.
+     */
+    synchronized int adjust(final double rate, final boolean backlog, final boolean saturated) {
+
+        if (!backlog && (rate == 0 || (settled && rate < settledRate))) {
+            return threads; // the input ran short, rather than the pool
+        }
+        final double previous = lastRate;
+        lastRate = rate;
+
+        if (settled) {
+            if (Math.abs(rate - settledRate) <= settledRate * tolerance * UNSETTLE_TOLERANCES) {
+                return threads;
+            }
+            Trace.warn(AdaptivePool.class, "Throughput moved from " + Math.round(settledRate) + " to " + Math.round(rate)
+                    + " per second - tuning input threads again");
+            settled = false;
+            reversals = 0;
+            step = Math.max(1, threads / 4);
+            direction = 1;
+        } else if (previous >= 0) {
+            final boolean worse = rate < previous * (1 - tolerance);
+            final boolean flat = !worse && rate <= previous * (1 + tolerance);
+            if (worse || (flat && direction > 0)) { // the last step did not help - turn back
+                direction = -direction;
+                reversals++;
+                step = Math.max(1, step / 2);
+            }
+            if (reversals >= SETTLE_REVERSALS) {
+                settled = true;
+                settledRate = Math.max(rate, previous);
+                final int best = worse ? previousThreads : flat ? Math.min(threads, previousThreads) : threads;
+                Trace.warn(AdaptivePool.class, "Input threads settled at " + best + " - " + Math.round(settledRate) + " per second");
+                return resize(best);
+            }
+        }
+
+        if (direction > 0 && (!backlog || saturated)) {
+            direction = -1; // nothing waiting, or nothing spare - more threads cannot help
+        }
+        return resize(Math.min(maxThreads, Math.max(minThreads, threads + direction * step)));
+
+    }
+
+    // Measures the throughput and backlog over the interval just ended, and takes a step of the climb.
+    private void measure() {
+        try {
+            final long now = System.nanoTime();
+            final long done = progress.getAsLong();
+            final long blockedNow = blocked.getAsLong();
+            final double rate = (done - lastProgress) * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - lastNanos);
+            final boolean saturated = blockedNow > lastBlocked || cpuLoad() >= SATURATED_CPU;
+            lastProgress = done;
+            lastBlocked = blockedNow;
+            lastNanos = now;
+            adjust(rate, !pool.getQueue().isEmpty(), saturated);
+        } catch (RuntimeException e) {
+            Trace.error(AdaptivePool.class, "Error occurred tuning input threads", e);
+        }
+    }
+
+    // Resizes the pool, if the size has changed - growing the maximum before the core, and shrinking it after, so the
+    // core is never more than the maximum.
+    private int resize(final int size) {
+        if (size != pool.getCorePoolSize() || size != pool.getMaximumPoolSize()) {
+            if (size > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(size);
+                pool.setCorePoolSize(size);
+            } else {
+                pool.setCorePoolSize(size);
+                pool.setMaximumPoolSize(size);
+            }
+            final int from = threads;
+            Trace.info(AdaptivePool.class, () -> "Input threads " + from + " to " + size);
+        }
+        if (size != threads) {
+            previousThreads = threads;
+            threads = size;
+            adjustments++;
+        }
+        return size;
+    }
+
+    // The share of the machine's CPU used by this process, or the load average per core if that is not available.
+    private static double cpuLoad() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        final double load = os.getSystemLoadAverage();
+        return load < 0 ? 0 : load / os.getAvailableProcessors();
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.input;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A zip archive of input files, whose entries are each handled as an input file of their own - by the handler for the
+ * entry name, and decompressed again if the entry is itself gzip compressed. Entries are streamed straight from the
+ * archive, never extracted to disk, and can be opened and read by many threads at once.
+ * <p>
+ * The archive is closed once every entry has been released, by whichever thread releases the last, or when closed.
+ */
+public class InputArchive implements Closeable {
+
+    private static final String ARCHIVE_EXTENSION = ".zip";
+
+    private final Path file;
+    private final ZipFile zip;
+    private final List<String> entries;
+    private final AtomicInteger unreleased;
+
+    /**
+     * Opens an archive, and lists its entries.
+     * @param file the archive.
+     * @throws IOException if the archive could not be opened, or is not in zip format.
+     */
+    public InputArchive(final Path file) throws IOException {
+
+        this.file = file;
+        this.zip = new ZipFile(file.toFile());
+
+        final List<String> names = new ArrayList<>();
+        final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+        while (zipEntries.hasMoreElements()) {
+            final ZipEntry entry = zipEntries.nextElement();
+            if (!entry.isDirectory()) {
+                names.add(entry.getName());
+            }
+        }
+        this.entries = Collections.unmodifiableList(names);
+        this.unreleased = new AtomicInteger(names.size());
+
+    }
+
+    /**
+     * @param file an input file.
+     * @return whether the file is a zip archive, by its .zip extension.
+     */
+    public static boolean isArchive(final Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(ARCHIVE_EXTENSION);
+    }
+
+    /**
+     * @return the names of the archive's files, in the order they are stored.
+     */
+    public List<String> entries() {
+        return entries;
+    }
+
+    /**
+     * @param entry an entry name.
+     * @return the entry's file name, without the directories it is in.
+     */
+    public static String fileName(final String entry) {
+        return entry.substring(entry.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Opens an entry as a stream, decompressed as it is read.
+     * @param entry the entry name.
+     * @return the stream, which must be closed.
+     * @throws IOException if the entry could not be opened.
+     */
+    public InputStream open(final String entry) throws IOException {
+        final ZipEntry zipEntry = zip.getEntry(entry);
+        if (zipEntry == null) {
+            throw new FileNotFoundException("No entry " + entry + " in " + file);
+        }
+        return InputReader.decompressed(entry, zip.getInputStream(zipEntry));
+    }
+
+    /**
+     * Notes that an entry has been handled, or never will be, closing the archive once all have.
+     * @throws IOException if the archive could not be closed.
+     */
+    public void release() throws IOException {
+        if (unreleased.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the archive, and any entries still open.
+     * @throws IOException if the archive could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.input;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gathers small files, as they are walked, into batches of the same type - such as those with the same handler - so that
+ * many tiny files can be submitted and handled as one task, rather than each paying the cost of a task of its own.
+ * A batch is full once it reaches a number of bytes or of files, and whatever is left is taken with {@link #drain()} once
+ * the walk is done. Not thread safe.
+ * @param <K> the type of file, which only files of the same type are batched by.
+ */
+public class InputBatcher<K> {
+
+    private final long maxBytes;
+    private final int maxFiles;
+    private final Map<K, Batch> batches = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty batcher.
+     * @param maxBytes the size at which a file is handled on its own, and to which smaller files are batched.
+     * @param maxFiles the most files in a batch.
+     */
+    public InputBatcher(final long maxBytes, final int maxFiles) {
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    /**
+     * @param size the size of a file.
+     * @return whether a file of the size is small enough to batch.
+     */
+    public boolean accepts(final long size) {
+        return size < maxBytes;
+    }
+
+    /**
+     * Adds a small file to the batch for its type.
+     * @param type the type of file.
+     * @param file the file.
+     * @param size the size of the file.
+     * @return the batch, if the file filled it, or null if it is still being gathered.
+     */
+    public List<Path> add(final K type, final Path file, final long size) {
+
+        final Batch batch = batches.computeIfAbsent(type, t -> new Batch());
+        batch.files.add(file);
+        batch.bytes += size;
+        if (batch.bytes < maxBytes && batch.files.size() < maxFiles) {
+            return null;
+        }
+        batches.remove(type);
+        return batch.files;
+
+    }
+
+    /**
+     * Takes every batch still being gathered, however small.
+     * @return the batches, in the order their types were first seen.
+     */
+    public List<List<Path>> drain() {
+        if (batches.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<List<Path>> drained = new ArrayList<>();
+        for (Batch batch : batches.values()) {
+            drained.add(batch.files);
+        }
+        batches.clear();
+        return drained;
+    }
+
+    /**
+     * The files gathered for a type, and their total size.
+     */
+    private static final class Batch {
+
+        private final List<Path> files = new ArrayList<>();
+        private long bytes;
+
+    }
+
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.input;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import net.davidbergin.logger.handler.ContentBatch;
+import net.davidbergin.logger.handler.Handler;
+import net.davidbergin.logger.handler.HandlerFactory;
+import net.davidbergin.logger.handler.RecordSink;
+import net.davidbergin.logger.metrics.ProcessingMetrics;
+import net.davidbergin.logger.output.BlockOutput;
+import net.davidbergin.logger.output.Checkpoint;
+import net.davidbergin.logger.output.RecordOutput;
+import net.davidbergin.logger.output.RecordSpill;
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * Reads input files and handles them with the handler for each, passing their output records on - the work of a single
+ * file, archive entry or batch of small files, however the files are handed out to threads. Files without a handler are
+ * never read. Gzip compressed files, and zip archives, are streamed and decompressed as they are handled. A file which
+ * cannot be read or handled is counted and logged, and never ends the work it is part of.
+ * <p>
+ * When the number of files transformed at once is limited - as it is on virtual threads - a permit is held while each
+ * file is validated and mapped, and given up while it is read and while its output waits for room. With a
+ * {@link Checkpoint}, files already processed are skipped, and each file's output is passed on as a single block.
+ * Instances are thread safe.
+ */
+public class InputHandler {
+
+    private static final int OUTPUT_CHUNK = 256; // records put to the output at once by a batch
+
+    private final InputReader reader;
+    private final Semaphore transforms;
+    private final Checkpoint checkpoint;
+
+    /**
+     * Creates a handler for input files.
+     * @param reader the reader of plain files.
+     * @param transforms the permits to transform, or null if not limited.
+     * @param checkpoint the checkpoint to skip processed files by and pass output blocks for, or null if not checkpointing.
+     */
+    public InputHandler(final InputReader reader, final Semaphore transforms, final Checkpoint checkpoint) {
+        this.reader = reader;
+        this.transforms = transforms;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return whether each file's output is passed on as a checkpoint block.
+     */
+    public boolean isCheckpointing() {
+        return checkpoint != null;
+    }
+
+    /**
+     * Reads and handles a single file, passing each output record to the sink as soon as it is transformed - counting and
+     * logging a file which cannot be read or handled, so a failure neither ends the work the file is part of, nor is lost
+     * in its future.
+     * With a checkpoint, files already processed are skipped - checked by size and modification time before the file is
+     * read, and by content hash after, if hashing - and the output is collected and passed on as a single checkpoint block.
+     * Past logger.output.spill.bytes the output collected is spilled beside the output file, rather than held in memory.
+     * @param file the file.
+     * @param sink where output records are passed.
+     * @param blocks where the file's checkpoint block is put, or null if not checkpointing.
+     * @return the number of output records.
+     * @throws InterruptedException if interrupted while waiting for room in the output.
+     */
+    public int handleFile(final Path file, final RecordSink sink, final BlockOutput blocks) throws InterruptedException {
+
+        try {
+            return handleReadable(file, sink, blocks);
+        } catch (IOException e) {
+            return failed(file.toString(), e);
+        }
+
+    }
+
+    /**
+     * Handles a batch of plain files with one handler, as a single transform, reading each file only as the handler asks
+     * for it. Output records are gathered and put to the output in chunks. The permit to transform, if limited, is given
+     * up while each file is read and each chunk is put.
+     * @param handler the handler for every file in the batch.
+     * @param files the files.
+     * @param output where output records are put.
+     * @return the number of output records.
+     * @throws InterruptedException if interrupted while waiting for room in the output.
+     */
+    public int handleBatch(final Handler handler, final List<Path> files, final RecordOutput output) throws InterruptedException {
+
+        final FileBatch batch = new FileBatch(files);
+        final OutputChunks chunks = new OutputChunks(output);
+        final int records;
+        if (transforms != null) {
+            transforms.acquire();
+        }
+        try {
+            records = handler.handle(batch, chunks);
+        } finally {
+            batch.release();
+            if (transforms != null) {
+                transforms.release();
+            }
+        }
+        chunks.put();
+        ProcessingMetrics.instance().files(batch.handled(), records);
+        return records;
+
+    }
+
+    /**
+     * Handles a single archive entry, streamed from the archive, if there is a handler for its name - or, failing that,
+     * sniffed from the start of its content. An entry which cannot be read is counted and logged, and the rest of the
+     * archive goes on.
+     * @param archive the open archive.
+     * @param entry the entry's name.
+     * @param sink where output records are passed.
+     * @return the number of output records.
+     * @throws InterruptedException if interrupted while waiting for room in the output.
+     */
+    public int handleEntry(final InputArchive archive, final String entry, final RecordSink sink) throws InterruptedException {
+
+        final Handler handler = HandlerFactory.getInstance(InputArchive.fileName(entry));
+        if (handler == null && !HandlerFactory.isSniffing()) {
+            return noHandler(entry);
+        }
+        try (InputStream in = handler != null ? archive.open(entry) : new BufferedInputStream(archive.open(entry))) {
+            final Handler streamed = handler != null ? handler : HandlerFactory.sniff(in);
+            if (streamed == null) {
+                return noHandler(entry);
+            }
+            return transform(s -> streamed.handle(readUnpermitted(in), s), sink);
+        } catch (IOException e) {
+            return failed(entry, e);
+        }
+
+    }
+
+    /**
+     * Handles a plain file from its content, if already read, or else reads it - or streams it, if gzip compressed.
+     * Without a handler for a compressed file's name, the handler is sniffed from the start of the stream, so the file is
+     * still only read once. The content is released once handled.
+     * @param handler the handler for the file, or null to sniff one for a compressed file.
+     * @param file the file.
+     * @param content the file's content, or null if it has not been read.
+     * @param sink where output records are passed.
+     * @return the number of output records.
+     * @throws IOException if the file could not be read or handled.
+     * @throws InterruptedException if interrupted while waiting for room in the output.
+     */
+    public int handle(final Handler handler, final Path file, final ByteBuffer content, final RecordSink sink)
+            throws IOException, InterruptedException {
+
+        if (InputReader.isCompressed(file.getFileName().toString())) {
+            if (content != null) {
+                reader.release(content);
+            }
+            ProcessingMetrics.instance().read(Files.size(file));
+            try (InputStream in = handler != null ? reader.open(file) : new BufferedInputStream(reader.open(file))) {
+                final Handler streamed = handler != null ? handler : HandlerFactory.sniff(in);
+                if (streamed == null) {
+                    return noHandler(file.getFileName().toString());
+                }
+                return transform(s -> streamed.handle(readUnpermitted(in), s), sink);
+            }
+        }
+
+        final ByteBuffer read = content != null ? content : read(file);
+        try {
+            return transform(s -> handler.handle(read, s), sink);
+        } finally {
+            reader.release(read);
+        }
+
+    }
+
+    /**
+     * Reads a plain file into memory, timing the read and counting its bytes. A failure is counted by the caller.
+     * @param file the file.
+     * @return the file's content, to be released to the reader once handled.
+     * @throws IOException if the file could not be read.
+     */
+    public ByteBuffer read(final Path file) throws IOException {
+
+        final long start = System.nanoTime();
+        final ByteBuffer content = reader.read(file);
+        ProcessingMetrics.instance().time(ProcessingMetrics.Stage.READ, System.nanoTime() - start);
+        ProcessingMetrics.instance().read(content.remaining());
+        return content;
+
+    }
+
+    /**
+     * Releases the content of a plain file read by {@link #read(Path)}, once handled.
+     * @param content the content.
+     */
+    public void release(final ByteBuffer content) {
+        reader.release(content);
+    }
+
+    /**
+     * Gets the handler for a plain file, by its name or else by sniffing its first bytes, so a file which no handler is
+     * found for is never read in full.
+     * @param file the file.
+     * @return the handler, or null if there is none.
+     * @throws IOException if the file could not be sniffed.
+     */
+    public static Handler handlerOf(final Path file) throws IOException {
+        final Handler handler = HandlerFactory.getInstance(file.getFileName().toString());
+        return handler != null || !HandlerFactory.isSniffing() ? handler : HandlerFactory.sniff(file);
+    }
+
+    /**
+     * Counts and logs a file, or archive entry, which no handler was found for.
+     * @param name the file or entry.
+     * @return no output records.
+     */
+    public static int noHandler(final String name) {
+        ProcessingMetrics.instance().error(ProcessingMetrics.ErrorReason.NO_HANDLER);
+        Trace.warn(InputHandler.class, "No handler found for " + name);
+        return 0;
+    }
+
+    /**
+     * Counts and logs a file, or archive entry, which could not be read or handled.
+     * @param name the file or entry.
+     * @param e the failure.
+     * @return no output records.
+     */
+    public static int failed(final String name, final IOException e) {
+        ProcessingMetrics.instance().error(ProcessingMetrics.ErrorReason.READ_FAILED);
+        Trace.error(InputHandler.class, "Error occurred handling " + name, e);
+        return 0;
+    }
+
+    // Reads and handles a single file as bytes, as handleFile does, throwing a failure to it.
+    private int handleReadable(final Path file, final RecordSink sink, final BlockOutput blocks) throws IOException, InterruptedException {
+
+        final boolean archive = InputArchive.isArchive(file);
+        final boolean compressed = InputReader.isCompressed(file.getFileName().toString());
+        final Handler handler = archive ? null : compressed ? HandlerFactory.getInstance(file.getFileName().toString()) : handlerOf(file);
+        if (!archive && handler == null && (!compressed || !HandlerFactory.isSniffing())) {
+            return noHandler(file.getFileName().toString());
+        }
+        if (checkpoint == null) {
+            return archive ? handleArchive(file, sink) : handle(handler, file, null, sink);
+        }
+
+        Checkpoint.Entry entry = checkpoint.identify(file);
+        if (checkpoint.isDone(entry)) {
+            checkpoint.countSkipped();
+            return 0;
+        }
+        ByteBuffer content = null;
+        if (checkpoint.isHashing()) {
+            content = read(file);
+            entry = checkpoint.hashed(entry, content);
+            if (checkpoint.isDone(entry)) {
+                reader.release(content);
+                checkpoint.countSkipped();
+                return 0;
+            }
+        }
+
+        final RecordSpill records = checkpoint.spill();
+        boolean passed = false;
+        try {
+            final int count;
+            if (archive) {
+                if (content != null) {
+                    reader.release(content);
+                }
+                count = handleArchive(file, records::add);
+            } else {
+                count = handle(handler, file, content, records::add);
+            }
+            blocks.put(checkpoint.block(entry, records));
+            passed = true;
+            return count;
+        } finally {
+            if (!passed) {
+                records.close();
+            }
+        }
+
+    }
+
+    // Handles every entry of a zip archive in turn, on this thread.
+    private int handleArchive(final Path file, final RecordSink sink) throws IOException, InterruptedException {
+
+        try (InputArchive archive = new InputArchive(file)) {
+            ProcessingMetrics.instance().read(Files.size(file));
+            int records = 0;
+            for (String entry : archive.entries()) {
+                records += handleEntry(archive, entry, sink);
+            }
+            return records;
+        }
+
+    }
+
+    /**
+     * Transforms content with a handler, holding one of the permits to transform while it validates and maps, if limited.
+     * The permit is given up while output records are passed on - gathered into chunks, so a thread waiting for room in
+     * the output does not hold back one with CPU work to do - and while a streamed file is read and decompressed.
+     * Each file, or archive entry, transformed is counted with its records.
+     * @return the number of output records.
+     */
+    private int transform(final Transform handling, final RecordSink sink) throws IOException, InterruptedException {
+
+        final int records;
+        if (transforms == null) {
+            records = handling.handle(sink);
+        } else {
+            final OutputChunks chunks = new OutputChunks(sink::accept);
+            transforms.acquire();
+            try {
+                records = handling.handle(chunks);
+            } finally {
+                transforms.release();
+            }
+            chunks.put();
+        }
+        ProcessingMetrics.instance().file(records);
+        return records;
+
+    }
+
+    // Wraps a stream to be transformed so that the permit to transform is given up while each read of it waits, if limited.
+    private InputStream readUnpermitted(final InputStream in) {
+        return transforms != null ? new UnpermittedStream(in, transforms) : in;
+    }
+
+    /**
+     * The contents of a batch of plain files, each read as it is asked for, and released when the next is asked for. A
+     * file which cannot be read is logged and skipped. The permit to transform, if limited, is given up while reading.
+     */
+    private final class FileBatch implements ContentBatch {
+
+        private final List<Path> files;
+        private int next;
+        private int handled;
+        private ByteBuffer content;
+
+        FileBatch(final List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        public ByteBuffer next() {
+            release();
+            while (next < files.size()) {
+                final Path file = files.get(next++);
+                if (transforms != null) {
+                    transforms.release();
+                }
+                try {
+                    content = read(file);
+                    handled++;
+                    return content;
+                } catch (IOException e) {
+                    failed(file.toString(), e);
+                } finally {
+                    if (transforms != null) {
+                        transforms.acquireUninterruptibly();
+                    }
+                }
+            }
+            return null;
+        }
+
+        // Releases the content last read, if it has not been already.
+        void release() {
+            if (content != null) {
+                reader.release(content);
+                content = null;
+            }
+        }
+
+        // The number of files read so far, and so handled.
+        int handled() {
+            return handled;
+        }
+
+    }
+
+    /**
+     * Gathers output records into chunks, putting each to the output once full - giving up the permit to transform, if
+     * limited, while it waits for room. What is left is put once the transform is done.
+     */
+    private final class OutputChunks implements RecordSink {
+
+        private final RecordOutput output;
+        private final List<String> chunk = new ArrayList<>(OUTPUT_CHUNK);
+
+        OutputChunks(final RecordOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void accept(final String record) throws InterruptedException {
+            chunk.add(record);
+            if (chunk.size() < OUTPUT_CHUNK) {
+                return;
+            }
+            if (transforms != null) {
+                transforms.release();
+            }
+            try {
+                put();
+            } finally {
+                if (transforms != null) {
+                    transforms.acquireUninterruptibly(); // held again, so the caller's release always balances
+                }
+            }
+        }
+
+        // Puts the records gathered so far to the output, if there are any.
+        void put() throws InterruptedException {
+            if (!chunk.isEmpty()) {
+                output.putAll(chunk);
+                chunk.clear();
+            }
+        }
+
+    }
+
+    /**
+     * A stream being transformed, which gives up the permit to transform while each read waits on the disk, or decompresses.
+     */
+    private static final class UnpermittedStream extends FilterInputStream {
+
+        private final Semaphore transforms;
+
+        UnpermittedStream(final InputStream in, final Semaphore transforms) {
+            super(in);
+            this.transforms = transforms;
+        }
+
+        @Override
+        public int read() throws IOException {
+            transforms.release();
+            try {
+                return super.read();
+            } finally {
+                transforms.acquireUninterruptibly();
+            }
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            transforms.release();
+            try {
+                return super.read(bytes, offset, length);
+            } finally {
+                transforms.acquireUninterruptibly();
+            }
+        }
+
+    }
+
+    /**
+     * The transform of a single file, or archive entry, passing its output records to a sink.
+     */
+    @FunctionalInterface
+    private interface Transform {
+
+        int handle(RecordSink sink) throws IOException, InterruptedException;
+
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.input;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads input files as bytes, for the byte level Handler entry point. Files smaller than the mapping threshold are read
+ * into a direct buffer kept per thread and reused for every file that thread reads, and larger files are memory mapped.
+ * Either way the content is never copied into a String. A returned buffer is only valid until the same thread reads its
+ * next file. Threads which each only read one file, such as virtual threads, share a pool of buffers instead, and a
+ * returned buffer is only valid until it is released. Gzip compressed files are instead opened as a stream, and decompressed as they are read, so they are never
+ * decompressed to disk or held in memory whole.
+ */
+public class InputReader {
+
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    private static final int INFLATE_BUFFER = 64 * 1024;
+    private static final String COMPRESSED_EXTENSION = ".gz";
+
+    private final int mapThreshold;
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(INITIAL_CAPACITY));
+    private final BlockingQueue<ByteBuffer> pool;
+
+    /**
+     * Creates a reader.
+     * @param mapThreshold files of at least this many bytes are memory mapped rather than read into the pooled buffer.
+     */
+    public InputReader(final int mapThreshold) {
+        this(mapThreshold, 0);
+    }
+
+    /**
+     * Creates a reader.
+     * @param mapThreshold files of at least this many bytes are memory mapped rather than read into a pooled buffer.
+     * @param pooledBuffers the most buffers to keep in a pool shared by all threads, which must release each buffer read,
+     *            or 0 to keep one buffer per thread.
+     */
+    public InputReader(final int mapThreshold, final int pooledBuffers) {
+        this.mapThreshold = Math.max(1, mapThreshold);
+        this.pool = pooledBuffers > 0 ? new ArrayBlockingQueue<>(pooledBuffers) : null;
+    }
+
+    /**
+     * Reads the whole of a file.
+     * @param file the file.
+     * @return a buffer holding the file content, from its position to its limit.
+     * @throws IOException if the file could not be read.
+     */
+    public ByteBuffer read(final Path file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            final long size = channel.size();
+            if (size >= mapThreshold) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size); // the mapping stays valid after the channel is closed
+            }
+
+            final ByteBuffer buffer = buffer((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("File truncated while reading " + file);
+                }
+            }
+            buffer.flip();
+            return buffer;
+
+        }
+
+    }
+
+    /**
+     * Returns a buffer to the pool, if buffers are pooled, once its content is no longer needed.
+     * @param buffer a buffer returned by {@link #read(Path)}.
+     */
+    public void release(final ByteBuffer buffer) {
+        if (pool != null && buffer.isDirect() && !buffer.isReadOnly()) { // mappings are read only
+            pool.offer(buffer); // dropped if the pool is already full
+        }
+    }
+
+    /**
+     * Opens a file as a stream, decompressing it as it is read if it is gzip compressed.
+     * @param file the file.
+     * @return the stream, which must be closed.
+     * @throws IOException if the file could not be opened, or is not in gzip format.
+     */
+    public InputStream open(final Path file) throws IOException {
+        return decompressed(file.getFileName().toString(), Files.newInputStream(file));
+    }
+
+    /**
+     * @param fileName a file or archive entry name.
+     * @return whether the name is of a gzip compressed file, by its .gz extension.
+     */
+    public static boolean isCompressed(final String fileName) {
+        return fileName.toLowerCase().endsWith(COMPRESSED_EXTENSION);
+    }
+
+    /**
+     * Decompresses a stream as it is read, if its name is of a gzip compressed file.
+     * @param name the file or archive entry name.
+     * @param content the stream, which is closed if it cannot be decompressed.
+     * @return the stream to read, which must be closed.
+     * @throws IOException if the stream is not in gzip format.
+     */
+    static InputStream decompressed(final String name, final InputStream content) throws IOException {
+        if (!isCompressed(name)) {
+            return content;
+        }
+        try {
+            return new GZIPInputStream(content, INFLATE_BUFFER);
+        } catch (IOException | RuntimeException e) {
+            content.close();
+            throw e;
+        }
+    }
+
+    // Gets this thread's buffer, or one from the pool, cleared and limited to the size needed, growing it first if it is too small.
+    private ByteBuffer buffer(final int size) {
+
+        ByteBuffer buffer = pool != null ? pool.poll() : buffers.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(Math.min(Math.max(size, INITIAL_CAPACITY), mapThreshold));
+        } else if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(Math.min(Math.max(size, buffer.capacity() * 2), mapThreshold));
+            if (pool == null) {
+                buffers.set(buffer);
+            }
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.input;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * Orders the work of an input directory by its expected cost, so that the most expensive files are started first and
+ * no thread is left with a huge file at the end while the rest are idle. A file's cost is its size, weighted by how
+ * expensive its format is to transform - XML, which is validated, more than JSON - and by a typical compression ratio
+ * if it is gzip compressed or a zip archive.
+ * <p>
+ * Files are gathered with {@link #add(Path)}, as the consumer of a walk, and then split into tasks with
+ * {@link #tasks()}: each file costing at least the batch cost is a task of its own, and smaller files are batched
+ * together, with others of the same extension, until they reach it - so that many tiny files do not each pay the cost
+ * of a task, and a batch can be handled by one handler. Tasks are in order of decreasing cost. Not thread safe.
+ */
+public class InputSchedule {
+
+    private static final int COMPRESSION_RATIO = 5; // typical of text logs
+
+    private final double xmlWeight;
+    private final long batchCost;
+    private final List<Work> files = new ArrayList<>();
+
+    /**
+     * Creates an empty schedule.
+     * @param xmlWeight the cost of a byte of XML, relative to a byte of JSON or anything else.
+     * @param batchCost the cost at which a file is a task of its own, and to which smaller files are batched.
+     */
+    public InputSchedule(final double xmlWeight, final long batchCost) {
+        this.xmlWeight = xmlWeight;
+        this.batchCost = Math.max(1, batchCost);
+    }
+
+    /**
+     * Adds a file to the schedule, costed by its current size. A file whose size cannot be read - such as one deleted
+     * since it was listed - is logged and skipped.
+     * @param file the file.
+     * @return false if the file was skipped.
+     */
+    public boolean add(final Path file) {
+        final long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            Trace.warn(InputSchedule.class, "Skipping " + file + " - " + e);
+            return false;
+        }
+        files.add(new Work(file, cost(file.getFileName().toString(), size)));
+        return true;
+    }
+
+    /**
+     * @return the number of files added.
+     */
+    public int files() {
+        return files.size();
+    }
+
+    /**
+     * Splits the files into tasks, most expensive first.
+     * @return the tasks.
+     */
+    public List<Task> tasks() {
+
+        final List<Work> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparingLong((Work work) -> work.cost).reversed());
+
+        final List<Task> tasks = new ArrayList<>();
+        final Map<String, Task> batches = new LinkedHashMap<>();
+        for (Work work : sorted) {
+            if (work.cost >= batchCost) {
+                tasks.add(new Task(Collections.singletonList(work.file), work.cost));
+                continue;
+            }
+            final String extension = extension(work.file.getFileName().toString());
+            final Task batch = batches.computeIfAbsent(extension, e -> new Task(new ArrayList<>(), 0));
+            batch.files.add(work.file);
+            batch.cost += work.cost;
+            if (batch.cost >= batchCost) {
+                tasks.add(batch);
+                batches.remove(extension);
+            }
+        }
+        tasks.addAll(batches.values());
+        return tasks;
+
+    }
+
+    /**
+     * Estimates the improvement in makespan - the time until the last thread finishes - from running the tasks in this
+     * order, over running the files one at a time in the order they were added, assuming each thread takes the next
+     * piece of work as soon as it is free.
+     * @param threads the number of threads.
+     * @return the estimated makespan of the tasks, as a fraction of that of the files in the order they were added.
+     */
+    public double estimatedMakespanRatio(final int threads) {
+
+        final List<Long> added = new ArrayList<>();
+        for (Work work : files) {
+            added.add(work.cost);
+        }
+        final List<Long> scheduled = new ArrayList<>();
+        for (Task task : tasks()) {
+            scheduled.add(task.cost);
+        }
+
+        final long unscheduled = makespan(added, threads);
+        return unscheduled == 0 ? 1 : (double) makespan(scheduled, threads) / unscheduled;
+
+    }
+
+    /**
+     * The expected cost of handling a file.
+     * @param fileName the file name.
+     * @param size the file size.
+     * @return the cost, in JSON-equivalent bytes.
+     */
+    long cost(final String fileName, final long size) {
+        String name = fileName.toLowerCase();
+        long cost = size;
+        if (InputReader.isCompressed(name)) {
+            name = name.substring(0, name.length() - 3);
+            cost *= COMPRESSION_RATIO;
+        } else if (name.endsWith(".zip")) {
+            cost *= COMPRESSION_RATIO;
+        }
+        return name.endsWith(".xml") ? (long) (cost * xmlWeight) : cost;
+    }
+
+    // The extension of a file name, in lower case, or an empty string if it has none.
+    private static String extension(final String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase();
+    }
+
+    /**
+     * The time until the last of the given number of threads finishes, when each takes the next piece of work as soon
+     * as it is free.
+     * @param costs the cost of each piece of work, in the order they are taken.
+     * @param threads the number of threads.
+     * @return the makespan, in the same units as the costs.
+     */
+    static long makespan(final List<Long> costs, final int threads) {
+        final PriorityQueue<Long> finishing = new PriorityQueue<>();
+        for (int thread = 0; thread < Math.max(1, threads); thread++) {
+            finishing.add(0L);
+        }
+        long makespan = 0;
+        for (long cost : costs) {
+            final long finished = finishing.poll() + cost;
+            makespan = Math.max(makespan, finished);
+            finishing.add(finished);
+        }
+        return makespan;
+    }
+
+    /**
+     * One or more files to handle in turn, and their expected cost.
+     */
+    public static final class Task {
+
+        private final List<Path> files;
+        private long cost;
+
+        Task(final List<Path> files, final long cost) {
+            this.files = files;
+            this.cost = cost;
+        }
+
+        /**
+         * @return the files, in the order to handle them.
+         */
+        public List<Path> files() {
+            return files;
+        }
+
+        /**
+         * @return the expected cost of the files.
+         */
+        public long cost() {
+            return cost;
+        }
+
+    }
+
+    /**
+     * A file and its expected cost.
+     */
+    private static final class Work {
+
+        private final Path file;
+        private final long cost;
+
+        Work(final Path file, final long cost) {
+            this.file = file;
+            this.cost = cost;
+        }
+
+    }
+
+}
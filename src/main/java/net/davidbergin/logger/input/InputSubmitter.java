@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.input;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.davidbergin.logger.handler.Handler;
+import net.davidbergin.logger.handler.HandlerFactory;
+import net.davidbergin.logger.handler.RecordSink;
+import net.davidbergin.logger.metrics.ProcessingMetrics;
+import net.davidbergin.logger.output.BlockOutput;
+import net.davidbergin.logger.output.Checkpoint;
+import net.davidbergin.logger.output.OutputShards;
+import net.davidbergin.logger.output.RecordSpill;
+import net.davidbergin.logger.output.ReorderBuffer;
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * Hands input files to the threads of an executor service, each handled by an {@link InputHandler}, with its output
+ * pushed to the bounded {@link OutputShards}. Files are submitted as they are found, with at most a limit submitted but
+ * not yet finished - so the walk never runs far ahead of the work. Each entry of a zip archive is submitted as a file of
+ * its own, so the entries are spread across the threads - unless checkpointing, when the archive is handled as one file.
+ * <p>
+ * With a {@link ReorderBuffer}, each file is numbered before it is submitted, and its output is collected and passed to
+ * the buffer to be released in that order. Otherwise, with an {@link InputBatcher}, small plain files are gathered into
+ * batches with the same handler, and each batch is submitted as a single task whose output is put in chunks.
+ * <p>
+ * Alternatively the tasks of an {@link InputSchedule} are submitted all at once, each handling its files in turn.
+ * Files are submitted from one thread.
+ */
+public class InputSubmitter {
+
+    private final InputHandler handler;
+    private final ExecutorService executorService;
+    private final Semaphore inFlight;
+    private final OutputShards output;
+    private final ReorderBuffer reorderBuffer;
+    private final InputBatcher<Handler> batcher;
+
+    /**
+     * Creates a submitter of input files.
+     * @param handler the handler of each file.
+     * @param executorService the threads files are handled on.
+     * @param maxInFlight the most files, or batches, submitted but not yet finished.
+     * @param output where output records, and checkpoint blocks, are put.
+     * @param reorderBuffer the buffer to pass each file's output to in submission order, or null if not reordered.
+     * @param batcher the batcher of small files, or null if each file is submitted on its own.
+     */
+    public InputSubmitter(final InputHandler handler, final ExecutorService executorService, final int maxInFlight,
+            final OutputShards output, final ReorderBuffer reorderBuffer, final InputBatcher<Handler> batcher) {
+        this.handler = handler;
+        this.executorService = executorService;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.output = output;
+        this.reorderBuffer = reorderBuffer;
+        this.batcher = batcher;
+    }
+
+    /**
+     * Submits a file found by the walk - to a batch, if it is small and plain, or else on its own, or an archive's entries
+     * each on their own.
+     * @param file the file.
+     * @throws IOException if an archive could not be read.
+     * @throws InterruptedException if interrupted while waiting for fewer files in flight.
+     */
+    public void submit(final Path file) throws IOException, InterruptedException {
+
+        final Handler batchHandler = batcher != null ? batchHandler(file) : null;
+        final long size = batchHandler != null ? sizeOf(file) : 0;
+        if (size < 0) {
+            return;
+        }
+        if (batchHandler != null && batcher.accepts(size)) {
+            final List<Path> batch = batcher.add(batchHandler, file, size);
+            if (batch != null) {
+                submitBatch(batchHandler, batch);
+            }
+        } else if (!handler.isCheckpointing() && InputArchive.isArchive(file)) {
+            submitArchive(file);
+        } else {
+            submit((sink, blocks) -> handler.handleFile(file, sink, blocks));
+        }
+
+    }
+
+    /**
+     * Submits the batches still gathering, once every file has been found.
+     * @throws InterruptedException if interrupted while waiting for fewer files in flight.
+     */
+    public void finish() throws InterruptedException {
+        if (batcher != null) {
+            for (List<Path> batch : batcher.drain()) {
+                submitBatch(batchHandler(batch.get(0)), batch);
+            }
+        }
+    }
+
+    /**
+     * Submits the tasks of a schedule, in the order given - which is the order they start in, on a pool whose queue is
+     * first in first out. Each task handles its files in turn, pushing their output
+     * straight to the output - small plain files with the same handler together as one batch, unless checkpointing.
+     * @param tasks the tasks.
+     */
+    public void submitAll(final List<InputSchedule.Task> tasks) {
+        for (InputSchedule.Task task : tasks) {
+            executorService.submit(() -> handleFiles(task.files()));
+        }
+    }
+
+    /**
+     * Submits the handling of a file, or archive entry, to the executor service once fewer than the limit are in flight -
+     * numbering it first, if there is a reorder buffer.
+     */
+    private void submit(final FileTask task) throws InterruptedException {
+
+        final long sequence = reorderBuffer != null ? reorderBuffer.next() : 0;
+
+        inFlight.acquire();
+        try {
+            executorService.submit(() -> {
+                try {
+                    return reorderBuffer != null ? handleOrdered(task, sequence) : task.handle(output::put, output::put);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            if (reorderBuffer != null) {
+                reorderBuffer.complete(sequence, Collections.emptyList());
+            }
+            throw e;
+        }
+
+    }
+
+    /**
+     * Submits the handling of a batch of small plain files with the same handler, as a single task. Batches are only
+     * gathered when output is not reordered, so their output goes straight to the output.
+     */
+    private void submitBatch(final Handler batchHandler, final List<Path> batch) throws InterruptedException {
+        submit((sink, blocks) -> handler.handleBatch(batchHandler, batch, output));
+    }
+
+    /**
+     * Opens a zip archive and submits each of its entries to be handled as a file of its own. The archive is closed once
+     * every entry has been handled. An archive which cannot be opened is skipped.
+     */
+    private void submitArchive(final Path file) throws IOException, InterruptedException {
+
+        final InputArchive archive;
+        try {
+            archive = new InputArchive(file);
+            ProcessingMetrics.instance().read(Files.size(file));
+        } catch (IOException e) {
+            ProcessingMetrics.instance().error(ProcessingMetrics.ErrorReason.READ_FAILED);
+            Trace.error(InputSubmitter.class, "Skipping unreadable archive " + file, e);
+            return;
+        }
+        if (archive.entries().isEmpty()) {
+            archive.close();
+            return;
+        }
+
+        int submitted = 0;
+        try {
+            for (String entry : archive.entries()) {
+                submit((sink, blocks) -> {
+                    try {
+                        return handler.handleEntry(archive, entry, sink);
+                    } finally {
+                        archive.release();
+                    }
+                });
+                submitted++;
+            }
+        } finally {
+            for (int unsubmitted = submitted; unsubmitted < archive.entries().size(); unsubmitted++) {
+                archive.release();
+            }
+        }
+
+    }
+
+    /**
+     * Handles a single file, or archive entry, collecting its output records - or its checkpoint block - and passing them
+     * to the reorder buffer under its sequence number - always, even if it failed, so that later files are not held up.
+     * Past logger.output.spill.bytes the records collected are spilled beside the output file, rather than held in memory.
+     * @return the number of output records.
+     */
+    private int handleOrdered(final FileTask task, final long sequence) throws IOException, InterruptedException {
+
+        final RecordSpill records = reorderBuffer.spill();
+        final AtomicReference<Checkpoint.Block> block = new AtomicReference<>();
+        try {
+            return task.handle(records::add, block::set);
+        } finally {
+            if (block.get() != null) {
+                reorderBuffer.complete(sequence, block.get());
+            } else {
+                reorderBuffer.complete(sequence, records);
+            }
+        }
+
+    }
+
+    /**
+     * Handles the files of a scheduled task - small plain files with the same handler together as a batch, unless
+     * checkpointing, and the rest one at a time. A file which fails is counted and logged, and the rest of the task goes on.
+     * @return the number of output records.
+     */
+    private int handleFiles(final List<Path> files) throws InterruptedException {
+
+        final Map<Handler, List<Path>> batches = new LinkedHashMap<>();
+        int records = 0;
+        for (Path file : files) {
+            final Handler batchHandler = !handler.isCheckpointing() && files.size() > 1 ? batchHandler(file) : null;
+            if (batchHandler != null) {
+                batches.computeIfAbsent(batchHandler, h -> new ArrayList<>()).add(file);
+            } else {
+                records += handler.handleFile(file, output::put, output::put);
+            }
+        }
+        for (Map.Entry<Handler, List<Path>> batch : batches.entrySet()) {
+            records += handler.handleBatch(batch.getKey(), batch.getValue(), output);
+        }
+        return records;
+
+    }
+
+    /**
+     * Gets the size of a file found by the walk, logging and skipping one whose size cannot be read - such as one deleted
+     * since it was listed - as the schedule does.
+     * @return the size, or -1 if the file is skipped.
+     */
+    private static long sizeOf(final Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            Trace.warn(InputSubmitter.class, "Skipping " + file + " - " + e);
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the handler to batch a file with others by, if it is a plain file - neither compressed nor an archive - with a
+     * handler for its name.
+     * @return the handler, or null if the file is not batched.
+     */
+    private static Handler batchHandler(final Path file) {
+        final String name = file.getFileName().toString();
+        return InputReader.isCompressed(name) || InputArchive.isArchive(file) ? null : HandlerFactory.getInstance(name);
+    }
+
+    /**
+     * The handling of a file, archive entry or batch submitted to the input threads, passing its output records to a
+     * sink - or, if checkpointed, its output as a single block.
+     */
+    @FunctionalInterface
+    private interface FileTask {
+
+        int handle(RecordSink sink, BlockOutput blocks) throws IOException, InterruptedException;
+
+    }
+
+}
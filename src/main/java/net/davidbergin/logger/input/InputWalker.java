@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.input;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * Walks an input directory lazily, handing each matching regular file to a consumer as soon as it is found, so that
+ * work can start straight away and no list of every file is ever built. The walk is optionally recursive, to a maximum
+ * depth, and files can be filtered by include and exclude globs. A glob with no '/' is matched against the file name,
+ * and any other glob against the path relative to the input directory. Excluded directories are not walked at all.
+ * A sorted walk visits the entries of each directory in name order, so the same tree is always walked in the same order;
+ * it lists one directory at a time before visiting it, rather than the whole tree.
+ */
+public class InputWalker {
+
+    /**
+     * Receives each file found by the walk.
+     */
+    @FunctionalInterface
+    public interface FileConsumer {
+        /**
+         * Accepts a file found by the walk.
+         * @param file the file.
+         * @throws IOException to stop the walk.
+         * @throws InterruptedException to stop the walk.
+         */
+        void accept(Path file) throws IOException, InterruptedException;
+    }
+
+    private final Path root;
+    private final int maxDepth;
+    private final List<Glob> includes;
+    private final List<Glob> excludes;
+    private final boolean sorted;
+
+    /**
+     * Creates a walker for the input directory.
+     * @param root the input directory.
+     * @param recursive whether to walk subdirectories.
+     * @param maxDepth the deepest level of subdirectory to walk when recursive, where 1 is just the input directory.
+     * @param includes globs a file must match one of to be accepted, or empty to accept all files.
+     * @param excludes globs for files and directories to skip.
+     */
+    public InputWalker(final Path root, final boolean recursive, final int maxDepth, final List<String> includes, final List<String> excludes) {
+        this(root, recursive, maxDepth, includes, excludes, false);
+    }
+
+    /**
+     * Creates a walker for the input directory.
+     * @param root the input directory.
+     * @param recursive whether to walk subdirectories.
+     * @param maxDepth the deepest level of subdirectory to walk when recursive, where 1 is just the input directory.
+     * @param includes globs a file must match one of to be accepted, or empty to accept all files.
+     * @param excludes globs for files and directories to skip.
+     * @param sorted whether to visit the entries of each directory in name order.
+     */
+    public InputWalker(final Path root, final boolean recursive, final int maxDepth, final List<String> includes, final List<String> excludes,
+            final boolean sorted) {
+        this.root = root;
+        this.maxDepth = recursive ? Math.max(1, maxDepth) : 1;
+        this.includes = compile(root.getFileSystem(), includes);
+        this.excludes = compile(root.getFileSystem(), excludes);
+        this.sorted = sorted;
+    }
+
+    /**
+     * Walks the input directory, handing each matching file to the consumer as it is found.
+     * Subdirectories which cannot be read are logged and skipped.
+     * @param consumer the consumer of files.
+     * @return the number of files accepted.
+     * @throws IOException if the input directory cannot be read, or the consumer failed.
+     */
+    public long walk(final FileConsumer consumer) throws IOException {
+
+        final long[] count = new long[1];
+
+        if (sorted) {
+            walkSorted(root, 1, new HashSet<>(), consumer, count);
+            return count[0];
+        }
+
+        Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), maxDepth, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                return excludes(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                if (visit(file, attrs, consumer)) {
+                    count[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+                if (file.equals(root)) {
+                    throw e;
+                }
+                Trace.warn(InputWalker.class, "Skipping " + file + " - " + e);
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+
+        return count[0];
+
+    }
+
+    // Walks a directory in name order, listing it in full before visiting its entries, and recursing into subdirectories.
+    // The keys of the directories being walked are kept so that a link back to one of them is skipped, as walkFileTree does.
+    private void walkSorted(final Path dir, final int depth, final Set<Object> walking, final FileConsumer consumer, final long[] count) throws IOException {
+
+        final List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        } catch (IOException e) {
+            if (dir.equals(root)) {
+                throw e;
+            }
+            Trace.warn(InputWalker.class, "Skipping " + dir + " - " + e);
+            return;
+        }
+        Collections.sort(entries);
+
+        final Object dirKey = keyOf(dir, Files.readAttributes(dir, BasicFileAttributes.class));
+        walking.add(dirKey);
+
+        for (Path entry : entries) {
+
+            final BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+            } catch (IOException e) {
+                Trace.warn(InputWalker.class, "Skipping " + entry + " - " + e);
+                continue;
+            }
+
+            if (attrs.isDirectory() && depth < maxDepth) {
+                if (matches(excludes, entry)) {
+                    continue;
+                }
+                if (walking.contains(keyOf(entry, attrs))) {
+                    Trace.warn(InputWalker.class, "Skipping " + entry + " - " + new FileSystemLoopException(entry.toString()));
+                    continue;
+                }
+                walkSorted(entry, depth + 1, walking, consumer, count);
+            } else if (visit(entry, attrs, consumer)) {
+                count[0]++;
+            }
+
+        }
+
+        walking.remove(dirKey);
+
+    }
+
+    // Hands a file to the consumer if it is a regular file which passes the globs, returning whether it was accepted.
+    private boolean visit(final Path file, final BasicFileAttributes attrs, final FileConsumer consumer) throws IOException {
+        if (attrs.isRegularFile() && accepts(file)) {
+            try {
+                consumer.accept(file);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted walking " + root);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the input directory.
+     */
+    Path root() {
+        return root;
+    }
+
+    /**
+     * @return the deepest level of subdirectory walked, where 1 is just the input directory.
+     */
+    int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param file a file under the input directory.
+     * @return whether the file passes the include and exclude globs.
+     */
+    boolean accepts(final Path file) {
+        return (includes.isEmpty() || matches(includes, file)) && !matches(excludes, file);
+    }
+
+    /**
+     * @param dir a directory under the input directory.
+     * @return whether the directory is excluded, and so not walked.
+     */
+    boolean excludes(final Path dir) {
+        return !dir.equals(root) && matches(excludes, dir);
+    }
+
+    private static Object keyOf(final Path dir, final BasicFileAttributes attrs) {
+        return attrs.fileKey() != null ? attrs.fileKey() : dir.toAbsolutePath().normalize();
+    }
+
+    private boolean matches(final List<Glob> globs, final Path path) {
+        for (Glob glob : globs) {
+            if (glob.matches(root, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Glob> compile(final FileSystem fileSystem, final List<String> patterns) {
+        final List<Glob> globs = new ArrayList<>();
+        for (String pattern : patterns) {
+            if (!pattern.trim().isEmpty()) {
+                globs.add(new Glob(fileSystem, pattern.trim()));
+            }
+        }
+        return Collections.unmodifiableList(globs);
+    }
+
+    /**
+     * A compiled glob, and whether it applies to the file name or the relative path.
+     */
+    private static final class Glob {
+
+        private final PathMatcher matcher;
+        private final boolean fileNameOnly;
+
+        Glob(final FileSystem fileSystem, final String pattern) {
+            this.matcher = fileSystem.getPathMatcher("glob:" + pattern);
+            this.fileNameOnly = pattern.indexOf('/') < 0;
+        }
+
+        boolean matches(final Path root, final Path path) {
+            return matcher.matches(fileNameOnly ? path.getFileName() : root.relativize(path));
+        }
+
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.input;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * Watches an input directory, and every subdirectory the {@link InputWalker} it is given would walk, handing each
+ * matching file to a consumer once it has settled. Files already there are handed over first, and new subdirectories
+ * are watched as soon as they appear. A file is only handed over once its size and modification time have not changed
+ * for the debounce interval, so a file still being written is not read part way through. A file which is rewritten
+ * after it was handed over is handed over again.
+ * The watch runs until {@link #close()} is called, from any thread. Other methods are for the watching thread only.
+ */
+public class InputWatcher implements Closeable {
+
+    private static final int MAX_REMEMBERED = 100_000; // files handed over and remembered, to ignore late events for them
+
+    private final InputWalker walker;
+    private final long debounceNanos;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, Candidate> pending = new HashMap<>();
+    private final Map<Path, Candidate> handedOver = new LinkedHashMap<Path, Candidate>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Path, Candidate> eldest) {
+            return size() > MAX_REMEMBERED;
+        }
+    };
+    private long files;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    /**
+     * Creates a watcher for the input directory of the walker, using its depth and globs.
+     * @param walker the walker for the input directory.
+     * @param debounceMillis how long a file must be unchanged before it is handed over.
+     * @throws IOException if the file system cannot be watched.
+     */
+    public InputWatcher(final InputWalker walker, final long debounceMillis) throws IOException {
+        this.walker = walker;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, debounceMillis));
+        this.watchService = walker.root().getFileSystem().newWatchService();
+    }
+
+    /**
+     * Watches the input directory until closed, handing each file to the consumer once it has settled.
+     * @param consumer the consumer of files.
+     * @return the number of files handed over.
+     * @throws IOException if the input directory cannot be read, or the consumer failed.
+     */
+    public long watch(final InputWalker.FileConsumer consumer) throws IOException {
+
+        try {
+
+            scan(walker.root());
+
+            while (true) {
+
+                final WatchKey key = pending.isEmpty() ? watchService.take() : watchService.poll(untilSettled(), TimeUnit.NANOSECONDS);
+                if (key != null) {
+                    boolean overflowed = handleEvents(key);
+                    WatchKey more;
+                    while ((more = watchService.poll()) != null) {
+                        overflowed |= handleEvents(more);
+                    }
+                    if (overflowed) {
+                        Trace.warn(InputWatcher.class, "Missed events watching " + walker.root() + " - scanning again");
+                        scan(walker.root());
+                    }
+                }
+
+                handOverSettled(consumer);
+
+            }
+
+        } catch (ClosedWatchServiceException e) {
+            Trace.info(InputWatcher.class, () -> "Stopped watching " + walker.root());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted watching " + walker.root());
+        }
+
+        return files;
+
+    }
+
+    /**
+     * Stops the watch. The file being handed over, if any, is still handed over.
+     * @throws IOException if the watch service could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * @return the number of files handed over.
+     */
+    public long files() {
+        return files;
+    }
+
+    /**
+     * @return the mean time from a file first being seen to it being handed over, in milliseconds.
+     */
+    public long meanLatencyMillis() {
+        return files == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos / files);
+    }
+
+    /**
+     * @return the longest time from a file first being seen to it being handed over, in milliseconds.
+     */
+    public long maxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos);
+    }
+
+    // Watches a directory, and those below it to the walker's depth, and notes every file in them.
+    private void scan(final Path start) throws IOException {
+
+        final int depth = walker.maxDepth() - depthOf(start);
+        if (depth < 0) {
+            return;
+        }
+
+        Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), depth, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                if (walker.excludes(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directories.put(dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && walker.accepts(file)) {
+                    observe(file, attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+                if (file.equals(walker.root())) {
+                    throw e;
+                }
+                Trace.warn(InputWatcher.class, "Skipping " + file + " - " + e);
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+
+    }
+
+    // Notes the files created, changed or deleted in a directory, and scans new subdirectories. Returns whether events were lost.
+    private boolean handleEvents(final WatchKey key) throws IOException {
+
+        final Path dir = directories.get(key);
+        boolean overflowed = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflowed = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+
+            final Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pending.remove(path);
+                handedOver.remove(path);
+                continue;
+            }
+
+            final BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                continue; // already gone again
+            }
+
+            if (attrs.isDirectory()) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    scan(path);
+                }
+            } else if (attrs.isRegularFile() && walker.accepts(path)) {
+                observe(path, attrs);
+            }
+
+        }
+
+        if (!key.reset()) {
+            directories.remove(key); // the directory has gone
+        }
+        return overflowed;
+
+    }
+
+    // Notes the current size and modification time of a file, restarting its debounce if either has changed.
+    private void observe(final Path file, final BasicFileAttributes attrs) {
+
+        final long now = System.nanoTime();
+        final long size = attrs.size();
+        final long modified = attrs.lastModifiedTime().toMillis();
+
+        final Candidate done = handedOver.get(file);
+        if (done != null && done.size == size && done.modified == modified) {
+            return;
+        }
+
+        final Candidate candidate = pending.get(file);
+        if (candidate == null) {
+            pending.put(file, new Candidate(size, modified, now));
+        } else if (candidate.size != size || candidate.modified != modified) {
+            candidate.changed(size, modified, now);
+        }
+
+    }
+
+    // Hands over every pending file unchanged for the debounce interval, checking it once more first.
+    private void handOverSettled(final InputWalker.FileConsumer consumer) throws IOException, InterruptedException {
+
+        final long now = System.nanoTime();
+        final Iterator<Map.Entry<Path, Candidate>> entries = pending.entrySet().iterator();
+
+        while (entries.hasNext()) {
+
+            final Map.Entry<Path, Candidate> entry = entries.next();
+            final Candidate candidate = entry.getValue();
+            if (now - candidate.lastChanged < debounceNanos) {
+                continue;
+            }
+
+            final BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                entries.remove(); // deleted before it settled
+                continue;
+            }
+            if (attrs.size() != candidate.size || attrs.lastModifiedTime().toMillis() != candidate.modified) {
+                candidate.changed(attrs.size(), attrs.lastModifiedTime().toMillis(), now);
+                continue;
+            }
+
+            entries.remove();
+            handedOver.put(entry.getKey(), candidate);
+            consumer.accept(entry.getKey());
+
+            final long latency = System.nanoTime() - candidate.firstSeen;
+            totalLatencyNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+            files++;
+
+        }
+
+    }
+
+    // The time until the first pending file could have settled.
+    private long untilSettled() {
+        final long now = System.nanoTime();
+        long wait = debounceNanos;
+        for (Candidate candidate : pending.values()) {
+            wait = Math.min(wait, candidate.lastChanged + debounceNanos - now);
+        }
+        return Math.max(wait, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private int depthOf(final Path dir) {
+        return dir.equals(walker.root()) ? 0 : walker.root().relativize(dir).getNameCount();
+    }
+
+    /**
+     * A file waiting to settle - its size and modification time when last seen, and when it was first seen and last changed.
+     */
+    private static final class Candidate {
+
+        private final long firstSeen;
+        private long size;
+        private long modified;
+        private long lastChanged;
+
+        Candidate(final long size, final long modified, final long now) {
+            this.firstSeen = now;
+            changed(size, modified, now);
+        }
+
+        void changed(final long size, final long modified, final long now) {
+            this.size = size;
+            this.modified = modified;
+            this.lastChanged = now;
+        }
+
+    }
+
+}
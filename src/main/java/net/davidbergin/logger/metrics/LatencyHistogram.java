@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of latencies, in buckets of powers of two nanoseconds. Recording is a few uncontended adds, so it
+ * can be done for every record on every thread, and percentiles are read as the upper bound of their bucket - accurate to
+ * within a factor of two, which is enough to see where time goes.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a latency.
+     * @param nanos the latency, in nanoseconds.
+     */
+    public void record(final long nanos) {
+        final long latency = Math.max(0, nanos);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(latency)].increment(); // bucket n holds 2^(n-1) up to 2^n - 1
+        totalNanos.add(latency);
+        maxNanos.accumulate(latency);
+    }
+
+    /**
+     * @return the number of latencies recorded.
+     */
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return the total of the latencies recorded, in nanoseconds.
+     */
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @return the longest latency recorded, in nanoseconds.
+     */
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * The latency which the given share of latencies recorded are no longer than, to the upper bound of its bucket.
+     * @param percentile the share, from 0 to 1.
+     * @return the latency, in nanoseconds, or 0 if none have been recorded.
+     */
+    public long percentileNanos(final double percentile) {
+
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1, maxNanos());
+            }
+        }
+        return maxNanos();
+
+    }
+
+    /**
+     * @return the count, mean, 50th, 90th and 99th percentiles and maximum, in microseconds, for a JSON response.
+     */
+    public Map<String, Object> summary() {
+        final long count = count();
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", count);
+        summary.put("meanMicros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos() / count));
+        summary.put("p50Micros", TimeUnit.NANOSECONDS.toMicros(percentileNanos(0.5)));
+        summary.put("p90Micros", TimeUnit.NANOSECONDS.toMicros(percentileNanos(0.9)));
+        summary.put("p99Micros", TimeUnit.NANOSECONDS.toMicros(percentileNanos(0.99)));
+        summary.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos()));
+        return summary;
+    }
+
+    // Clears the histogram, for a new run.
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+}
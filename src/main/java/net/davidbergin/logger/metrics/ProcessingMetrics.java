@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Singleton metrics for a processing run - files, records and bytes read, a latency histogram for each stage a record
+ * passes through, the depth of the output queue, and errors by reason. Everything is counted in {@link LongAdder}s and
+ * {@link LatencyHistogram}s, so the input threads never contend on a lock, and is only summed when read - by
+ * {@link #snapshot()} for the REST endpoint, or by Micrometer through {@link ProcessingMetricsBinder}. When input is
+ * pipelined, the snapshot also holds the utilization and queues of each stage.
+ */
+public class ProcessingMetrics {
+
+    /**
+     * The stages a record passes through, each with a latency histogram.
+     */
+    public enum Stage {
+        /** Reading a plain file's content into memory, timed per file - compressed files are read as they are parsed. */
+        READ,
+        /** Parsing a record and binding it to an Activity - XML is validated against the schema in the same pass. */
+        VALIDATE,
+        /** Mapping an Activity to the output format. */
+        TRANSFORM,
+        /** Serializing the output format to a JSON line. */
+        SERIALIZE,
+        /** Encoding and writing a batch of lines to the output, timed per batch. */
+        WRITE
+    }
+
+    /**
+     * Why a file, record or write failed.
+     */
+    public enum ErrorReason {
+        /** A file with no handler for its extension. */
+        NO_HANDLER,
+        /** A handler which could not be created. */
+        HANDLER_FAILED,
+        /** A file which could not be read. */
+        READ_FAILED,
+        /** A record which failed validation, or had no activity. */
+        INVALID_RECORD,
+        /** Content which could not be parsed, ending its file. */
+        MALFORMED_CONTENT,
+        /** A file which held no activity at all. */
+        NO_ACTIVITY,
+        /** Output which could not be written. */
+        WRITE_FAILED
+    }
+
+    private static final ProcessingMetrics INSTANCE = new ProcessingMetrics();
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final Map<ErrorReason, LongAdder> errors = new EnumMap<>(ErrorReason.class);
+    private volatile LongSupplier queueDepth = () -> 0;
+    private volatile Supplier<Map<String, Object>> pipeline;
+    private volatile long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    ProcessingMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+        for (ErrorReason reason : ErrorReason.values()) {
+            errors.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * Gets the singleton instance of {@link ProcessingMetrics}
+     * @return the instance of {@link ProcessingMetrics}
+     */
+    public static ProcessingMetrics instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Clears the metrics and starts timing a run.
+     * @param queueDepth the current depth of the output queue.
+     */
+    public void start(final LongSupplier queueDepth) {
+        files.reset();
+        records.reset();
+        bytesRead.reset();
+        stages.values().forEach(LatencyHistogram::reset);
+        errors.values().forEach(LongAdder::reset);
+        this.queueDepth = queueDepth;
+        this.pipeline = null;
+        this.endNanos = 0;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Adds the stages of a pipeline to the snapshot, for a run whose input is pipelined.
+     * @param stages the summary of each stage, by name.
+     */
+    public void pipeline(final Supplier<Map<String, Object>> stages) {
+        this.pipeline = stages;
+    }
+
+    /**
+     * Stops timing the run, so rates stay as they were at the end.
+     */
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Counts a file, or archive entry, handled.
+     * @param outputRecords the number of records it output.
+     */
+    public void file(final int outputRecords) {
+        files.increment();
+        records.add(outputRecords);
+    }
+
+    /**
+     * Counts a batch of files handled together.
+     * @param batchFiles the number of files in the batch.
+     * @param outputRecords the number of records they output.
+     */
+    public void files(final int batchFiles, final int outputRecords) {
+        files.add(batchFiles);
+        records.add(outputRecords);
+    }
+
+    /**
+     * Counts bytes read from input files.
+     * @param bytes the number of bytes.
+     */
+    public void read(final long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Records the time taken by a stage.
+     * @param stage the stage.
+     * @param nanos the time taken, in nanoseconds.
+     */
+    public void time(final Stage stage, final long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    /**
+     * Counts an error.
+     * @param reason why it failed.
+     */
+    public void error(final ErrorReason reason) {
+        errors.get(reason).increment();
+    }
+
+    /**
+     * @return the number of files, and archive entries, handled.
+     */
+    public long files() {
+        return files.sum();
+    }
+
+    /**
+     * @return the number of records output.
+     */
+    public long records() {
+        return records.sum();
+    }
+
+    /**
+     * @return the number of bytes read from input files.
+     */
+    public long bytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @param stage the stage.
+     * @return the latency histogram of the stage.
+     */
+    public LatencyHistogram stage(final Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * @param reason the reason.
+     * @return the number of errors for the reason.
+     */
+    public long errors(final ErrorReason reason) {
+        return errors.get(reason).sum();
+    }
+
+    /**
+     * @return the current depth of the output queue.
+     */
+    public long queueDepth() {
+        return queueDepth.getAsLong();
+    }
+
+    /**
+     * @return the time since the run started, or the length of the run once finished, in milliseconds.
+     */
+    public long elapsedMillis() {
+        final long end = endNanos;
+        return TimeUnit.NANOSECONDS.toMillis((end != 0 ? end : System.nanoTime()) - startNanos);
+    }
+
+    /**
+     * @param count a count over the run.
+     * @return the count per second of the run.
+     */
+    public long perSecond(final long count) {
+        final long elapsed = elapsedMillis();
+        return elapsed == 0 ? 0 : count * 1000 / elapsed;
+    }
+
+    /**
+     * @return every metric, as nested maps for a JSON response.
+     */
+    public Map<String, Object> snapshot() {
+
+        final Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("elapsedMillis", elapsedMillis());
+        snapshot.put("files", files());
+        snapshot.put("records", records());
+        snapshot.put("bytesRead", bytesRead());
+        snapshot.put("filesPerSecond", perSecond(files()));
+        snapshot.put("recordsPerSecond", perSecond(records()));
+        snapshot.put("bytesReadPerSecond", perSecond(bytesRead()));
+        snapshot.put("outputQueueDepth", queueDepth());
+
+        final Map<String, Object> latencies = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage.name().toLowerCase(), stages.get(stage).summary());
+        }
+        snapshot.put("stages", latencies);
+
+        final Map<String, Object> errorCounts = new LinkedHashMap<>();
+        for (ErrorReason reason : ErrorReason.values()) {
+            errorCounts.put(reason.name().toLowerCase(), errors(reason));
+        }
+        snapshot.put("errors", errorCounts);
+
+        final Supplier<Map<String, Object>> stages = pipeline;
+        if (stages != null) {
+            snapshot.put("pipeline", stages.get());
+        }
+
+        return snapshot;
+
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes the {@link ProcessingMetrics} to Micrometer, and so to the actuator metrics endpoint and any monitoring system
+ * configured. Spring Boot binds every MeterBinder bean to its registry. The meters only read the metrics when they are
+ * published, so nothing is added to the processing threads' work.
+ */
+@Component
+public class ProcessingMetricsBinder implements MeterBinder {
+
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+
+        final ProcessingMetrics metrics = ProcessingMetrics.instance();
+
+        FunctionCounter.builder("logger.files", metrics, ProcessingMetrics::files)
+                .description("Files, and archive entries, handled").register(registry);
+        FunctionCounter.builder("logger.records", metrics, ProcessingMetrics::records)
+                .description("Records output").register(registry);
+        FunctionCounter.builder("logger.input.read", metrics, ProcessingMetrics::bytesRead)
+                .description("Bytes read from input files").baseUnit("bytes").register(registry);
+        Gauge.builder("logger.output.queue.depth", metrics, ProcessingMetrics::queueDepth)
+                .description("Records waiting in the output queue").register(registry);
+
+        for (ProcessingMetrics.Stage stage : ProcessingMetrics.Stage.values()) {
+            final LatencyHistogram histogram = metrics.stage(stage);
+            final String name = stage.name().toLowerCase();
+            FunctionTimer.builder("logger.stage", histogram, LatencyHistogram::count, LatencyHistogram::totalNanos, TimeUnit.NANOSECONDS)
+                    .description("Time spent in each processing stage").tag("stage", name).register(registry);
+            for (double percentile : PERCENTILES) {
+                Gauge.builder("logger.stage.percentile", histogram, h -> h.percentileNanos(percentile) / 1e9)
+                        .description("Stage latency percentile, to within a factor of two").baseUnit("seconds")
+                        .tags("stage", name, "phi", Double.toString(percentile)).register(registry);
+            }
+            Gauge.builder("logger.stage.max", histogram, h -> h.maxNanos() / 1e9)
+                    .description("Longest stage latency").baseUnit("seconds").tag("stage", name).register(registry);
+        }
+
+        for (ProcessingMetrics.ErrorReason reason : ProcessingMetrics.ErrorReason.values()) {
+            FunctionCounter.builder("logger.errors", metrics, m -> m.errors(reason))
+                    .description("Errors by reason").tag("reason", reason.name().toLowerCase()).register(registry);
+        }
+
+    }
+
+}
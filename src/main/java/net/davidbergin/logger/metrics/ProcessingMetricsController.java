@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.metrics;
+
+import java.util.Map;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * A REST endpoint returning the {@link ProcessingMetrics} of the current run as JSON, for enquiring on processing status
+ * across a fleet of instances - without a monitoring system, unlike the actuator metrics.
+ */
+@RestController
+public class ProcessingMetricsController {
+
+    /**
+     * @return every metric of the current run.
+     */
+    @GetMapping(path = "/processing/metrics", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> metrics() {
+        return ProcessingMetrics.instance().snapshot();
+    }
+
+}
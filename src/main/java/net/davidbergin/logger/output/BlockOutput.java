@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+/**
+ * Where checkpoint blocks are put to be written - a single {@link OutputQueue}, or the {@link OutputShards} in front of one.
+ */
+@FunctionalInterface
+public interface BlockOutput {
+
+    /**
+     * Puts the block of a file's output, to be written in one piece, waiting for room if output has fallen behind.
+     * @param block the block.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void put(Checkpoint.Block block) throws InterruptedException;
+
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * A crash safe record of the input files whose output has been written, kept in an append-only manifest next to the
+ * output file. Each manifest line holds a file's identity - its path, size, modification time and, optionally, a CRC32
+ * of its content - and the output offset reached once its records were written. Lines are only appended once the output
+ * up to that offset has been forced to disk, so the manifest never claims more than the output holds.
+ * <p>
+ * On a restart the manifest is read back, a line torn by a crash is dropped, and the output is cut back to the offset of
+ * the last line - removing any output from files that were part way through. Files recorded with the same identity are
+ * then skipped. For this to work each file's output must be written in one piece, so it is passed to the output queue as
+ * a single {@link Block} from {@link #block(Entry, RecordSpill)}, which the {@link OutputWriter} writes and then reports
+ * with {@link #written(Block, long)}. A file's output is collected in a {@link RecordSpill} from {@link #spill()}, so
+ * past a limit it is spilled beside the output rather than held in memory, and the block only holds the spill - which
+ * the writer copies into the output and deletes. So each file being handled holds at most that limit in memory.
+ * <p>
+ * The recorded files are only read once opened, so {@link #identify(Path)}, {@link #hashed(Entry, ByteBuffer)},
+ * {@link #isDone(Entry)} and {@link #countSkipped()} are thread safe. The other methods are for the writer thread only.
+ */
+public class Checkpoint implements Closeable {
+
+    private static final String NO_HASH = "-";
+
+    private final Path manifestFile;
+    private final Path outputFile;
+    private final boolean hashing;
+    private final long spillBytes;
+    private final Map<String, Entry> done = new HashMap<>();
+    private final FileChannel manifest;
+    private final StringBuilder pending = new StringBuilder();
+    private final LongAdder skipped = new LongAdder();
+    private long offset;
+
+    /**
+     * Opens the manifest, creating it if needed, and reads back the files already recorded. If the output file is
+     * missing or shorter than the manifest says, the manifest is emptied and processing starts again.
+     * @param manifestFile the manifest file.
+     * @param outputFile the output file the manifest records offsets in.
+     * @param hashing whether to record a hash of each file's content, so a file whose modification time has changed is
+     *            still skipped if its content has not.
+     * @throws IOException if the manifest cannot be read or written.
+     */
+    public Checkpoint(final Path manifestFile, final Path outputFile, final boolean hashing) throws IOException {
+        this(manifestFile, outputFile, hashing, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens the manifest, creating it if needed, and reads back the files already recorded. If the output file is
+     * missing or shorter than the manifest says, the manifest is emptied and processing starts again.
+     * @param manifestFile the manifest file.
+     * @param outputFile the output file the manifest records offsets in.
+     * @param hashing whether to record a hash of each file's content, so a file whose modification time has changed is
+     *            still skipped if its content has not.
+     * @param spillBytes the most bytes of a file's output held in memory before it is spilled beside the output.
+     * @throws IOException if the manifest cannot be read or written.
+     */
+    public Checkpoint(final Path manifestFile, final Path outputFile, final boolean hashing, final long spillBytes) throws IOException {
+
+        this.manifestFile = manifestFile;
+        this.outputFile = outputFile;
+        this.hashing = hashing;
+        this.spillBytes = spillBytes;
+        this.manifest = FileChannel.open(manifestFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            final long complete = load();
+            if (complete < manifest.size()) {
+                Trace.warn(Checkpoint.class, "Dropping incomplete last line of " + manifestFile);
+            }
+            manifest.truncate(complete);
+
+            if (offset > 0 && (!Files.exists(outputFile) || Files.size(outputFile) < offset)) {
+                Trace.warn(Checkpoint.class, "Output " + outputFile + " is shorter than " + manifestFile + " records - starting again");
+                manifest.truncate(0);
+                done.clear();
+                offset = 0;
+            }
+            manifest.position(manifest.size());
+        } catch (IOException | RuntimeException e) {
+            manifest.close();
+            throw e;
+        }
+
+    }
+
+    /**
+     * @return the output offset the last recorded file reached, which the output is resumed from.
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of files already recorded.
+     */
+    public int recorded() {
+        return done.size();
+    }
+
+    /**
+     * @return the number of files skipped as already recorded.
+     */
+    public long skipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * Counts a file skipped as already recorded.
+     */
+    public void countSkipped() {
+        skipped.increment();
+    }
+
+    /**
+     * Identifies a file by its path, size and modification time.
+     * @param file the input file.
+     * @return the file's identity, without a hash.
+     * @throws IOException if the file cannot be read.
+     */
+    public Entry identify(final Path file) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return new Entry(file.toAbsolutePath().normalize().toUri().toASCIIString(), attrs.size(), attrs.lastModifiedTime().toMillis(), NO_HASH);
+    }
+
+    /**
+     * Adds a hash of the file's content to its identity, if hashing.
+     * @param entry the file's identity.
+     * @param content the file's content, from its position to its limit. The buffer's position is not changed.
+     * @return the file's identity with a hash.
+     */
+    public Entry hashed(final Entry entry, final ByteBuffer content) {
+        if (!hashing) {
+            return entry;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        return new Entry(entry.path, entry.size, entry.modified, Long.toHexString(crc.getValue()));
+    }
+
+    /**
+     * Whether a file has already been recorded with the same identity - the same size, and either the same modification
+     * time or, when hashing, the same content. Without a hash only the modification time is compared, so when hashing
+     * and this returns false, the file should be hashed and checked again before it is handled.
+     * @param entry the file's identity.
+     * @return true if the file can be skipped.
+     */
+    public boolean isDone(final Entry entry) {
+        final Entry recorded = done.get(entry.path);
+        return recorded != null && recorded.size == entry.size
+                && (recorded.modified == entry.modified || (hashing && !NO_HASH.equals(entry.hash) && entry.hash.equals(recorded.hash)));
+    }
+
+    /**
+     * @return whether files should be hashed before they are checked again.
+     */
+    public boolean isHashing() {
+        return hashing;
+    }
+
+    /**
+     * @return an empty collection for a file's records, spilled beside the output past the limit.
+     */
+    public RecordSpill spill() {
+        return new RecordSpill(outputFile, spillBytes);
+    }
+
+    /**
+     * Makes a file's records into a single block for the output queue, with its identity - holding their spill, if they
+     * were spilled, which is then the writer's to delete.
+     * @param entry the file's identity.
+     * @param records the file's records, possibly none.
+     * @return the block.
+     * @throws IOException if the records could not be spilled.
+     */
+    public Block block(final Entry entry, final RecordSpill records) throws IOException {
+        records.finish();
+        return new Block(entry, records);
+    }
+
+    /**
+     * Makes a file's records, held in memory, into a single block for the output queue, with its identity.
+     * @param entry the file's identity.
+     * @param records the file's records, possibly none. The list is not copied.
+     * @return the block.
+     */
+    public Block block(final Entry entry, final List<String> records) {
+        return new Block(entry, RecordSpill.of(records));
+    }
+
+    /**
+     * Notes that a block's records have been written, up to the offset given. It is recorded at the next commit.
+     * @param block the block.
+     * @param outputOffset the output offset reached.
+     */
+    void written(final Block block, final long outputOffset) {
+        final Entry entry = block.entry;
+        pending.append(outputOffset).append('\t').append(entry.size).append('\t').append(entry.modified).append('\t')
+                .append(entry.hash).append('\t').append(entry.path).append('\n');
+    }
+
+    /**
+     * Appends the files noted since the last commit to the manifest, and forces it to disk. Only called once the output
+     * has been forced to disk.
+     * @throws IOException if the manifest cannot be written.
+     */
+    void commit() throws IOException {
+        if (pending.length() == 0) {
+            return;
+        }
+        final ByteBuffer lines = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.US_ASCII));
+        while (lines.hasRemaining()) {
+            manifest.write(lines);
+        }
+        manifest.force(false);
+        pending.setLength(0);
+    }
+
+    /**
+     * Closes the manifest. Anything not yet committed is not recorded.
+     * @throws IOException if the manifest cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        manifest.close();
+    }
+
+    // Reads back the recorded files, and returns the length of the manifest up to the end of its last complete line.
+    private long load() throws IOException {
+
+        long complete = 0;
+        long read = 0;
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(manifestFile))) {
+            int b;
+            while ((b = in.read()) >= 0) {
+                read++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                parse(new String(line.toByteArray(), StandardCharsets.US_ASCII));
+                line.reset();
+                complete = read;
+            }
+        }
+
+        return complete;
+
+    }
+
+    private void parse(final String line) {
+        final String[] fields = line.split("\t", 5);
+        try {
+            final Entry entry = new Entry(fields[4], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+            done.put(entry.path, entry);
+            offset = Long.parseLong(fields[0]);
+        } catch (RuntimeException e) {
+            Trace.warn(Checkpoint.class, "Ignoring unreadable line in " + manifestFile + " - " + line);
+        }
+    }
+
+    /**
+     * The identity of an input file.
+     */
+    public static final class Entry {
+
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final String hash;
+
+        Entry(final String path, final long size, final long modified, final String hash) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+    }
+
+    /**
+     * The whole output of one input file, with the file's identity, passed to the output queue in one piece. Its records
+     * are held in memory, or spilled beside the output.
+     */
+    public static final class Block {
+
+        private final Entry entry;
+        private final RecordSpill records;
+
+        Block(final Entry entry, final RecordSpill records) {
+            this.entry = entry;
+            this.records = records;
+        }
+
+        /**
+         * @return the file's records - in memory, or in their spill if {@link RecordSpill#file()} is not null.
+         */
+        RecordSpill records() {
+            return records;
+        }
+
+        /**
+         * Deletes the spill of a block which will not be written, if it has one.
+         */
+        void discard() {
+            records.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses an {@link OutputWriter}'s output a block at a time on a thread pool, and writes each block as a complete
+ * gzip member, in order. A file of concatenated gzip members is itself a valid gzip file, so standard tools read it as
+ * one stream. Only a bounded number of blocks are compressed at once - the writer waits for the oldest beyond that.
+ * The pool can be shared between writers, but each instance is only used by its writer's thread.
+ */
+public class GzipBlocks {
+
+    private final ExecutorService pool;
+    private final int level;
+    private final int maxPending;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private long blocks;
+    private long uncompressedBytes;
+    private long compressedBytes;
+
+    /**
+     * Creates a compressor for a single writer.
+     * @param pool the threads to compress on.
+     * @param level the deflate level, from 1 (fastest) to 9 (smallest).
+     * @param maxPending the most blocks compressing or waiting to be written at once.
+     */
+    public GzipBlocks(final ExecutorService pool, final int level, final int maxPending) {
+        this.pool = pool;
+        this.level = level;
+        this.maxPending = Math.max(1, maxPending);
+    }
+
+    /**
+     * Compresses a block, then writes any blocks already compressed, in order.
+     * @param block the uncompressed block, which is not changed afterwards.
+     * @param channel the output file.
+     * @throws IOException if a block could not be compressed or written.
+     */
+    void submit(final byte[] block, final FileChannel channel) throws IOException {
+
+        while (pending.size() >= maxPending) {
+            writeNext(channel);
+        }
+        pending.add(pool.submit(() -> compress(block)));
+        uncompressedBytes += block.length;
+        blocks++;
+
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeNext(channel);
+        }
+
+    }
+
+    /**
+     * Waits for every block submitted to be compressed and written. If no block was ever submitted, an empty member is
+     * written so that the output is still a valid gzip file.
+     * @param channel the output file.
+     * @param finished whether this is the end of the output.
+     * @throws IOException if a block could not be compressed or written.
+     */
+    void writeAll(final FileChannel channel, final boolean finished) throws IOException {
+        if (finished && blocks == 0) {
+            submit(new byte[0], channel);
+        }
+        while (!pending.isEmpty()) {
+            writeNext(channel);
+        }
+    }
+
+    /**
+     * @return the number of bytes submitted.
+     */
+    public long uncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * @return the number of compressed bytes written.
+     */
+    public long compressedBytes() {
+        return compressedBytes;
+    }
+
+    private void writeNext(final FileChannel channel) throws IOException {
+
+        final byte[] compressed;
+        try {
+            compressed = pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted compressing output");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed compressing output", e.getCause());
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        compressedBytes += compressed.length;
+
+    }
+
+    private byte[] compress(final byte[] block) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(block.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            gzip.write(block);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The bounded queue between the input threads and the {@link OutputWriter}. It is limited both by a number of records
+ * and by an approximate number of bytes (one per character), so a writer which falls behind makes the input threads
+ * block in {@link #put(String)} rather than letting transformed records pile up on the heap. A chunk of records put with
+ * {@link #putAll(List)} takes room for all of them at once. A {@link Checkpoint.Block} is queued as a single item, taking
+ * room for the records it holds in memory - the items taken are records, as Strings, and blocks.
+ * Queue depth, and how long producers have spent blocked, are kept as metrics.
+ */
+public class OutputQueue implements RecordOutput, BlockOutput {
+
+    private final BlockingQueue<Object> records;
+    private final Semaphore bytes;
+    private final int maxBytes;
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAdder blockedPuts = new LongAdder();
+    private final LongAccumulator peakDepth = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates a queue with the limits supplied.
+     * @param maxRecords the most records the queue will hold.
+     * @param maxBytes the approximate most bytes the queue will hold - a single larger record is still accepted on its own.
+     */
+    public OutputQueue(final int maxRecords, final int maxBytes) {
+        this.records = new LinkedBlockingQueue<>(Math.max(1, maxRecords));
+        this.maxBytes = Math.max(1, maxBytes);
+        this.bytes = new Semaphore(this.maxBytes);
+    }
+
+    /**
+     * Adds a record to the queue, waiting for room if either limit has been reached.
+     * @param record the record.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void put(final String record) throws InterruptedException {
+        offer(record, sizeOf(record));
+    }
+
+    /**
+     * Adds a checkpoint block to the queue, waiting for room if either limit has been reached.
+     * @param block the block.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void put(final Checkpoint.Block block) throws InterruptedException {
+        offer(block, sizeOf(block));
+    }
+
+    /**
+     * Adds a chunk of records to the queue, in order, taking room for all their bytes at once - or one at a time, if
+     * together they are more than the queue holds.
+     * @param chunk the records.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void putAll(final List<String> chunk) throws InterruptedException {
+
+        long size = 0;
+        for (String record : chunk) {
+            size += sizeOf(record);
+        }
+        if (size > maxBytes) {
+            RecordOutput.super.putAll(chunk);
+            return;
+        }
+
+        long blockedSince = 0;
+        if (!bytes.tryAcquire((int) size)) {
+            blockedSince = System.nanoTime();
+            bytes.acquire((int) size);
+        }
+
+        for (int i = 0; i < chunk.size(); i++) {
+            final String record = chunk.get(i);
+            try {
+                if (!records.offer(record)) {
+                    if (blockedSince == 0) {
+                        blockedSince = System.nanoTime();
+                    }
+                    records.put(record);
+                }
+            } catch (InterruptedException e) {
+                for (int unqueued = i; unqueued < chunk.size(); unqueued++) {
+                    bytes.release(sizeOf(chunk.get(unqueued)));
+                }
+                throw e;
+            }
+        }
+
+        if (blockedSince != 0) {
+            blockedNanos.add(System.nanoTime() - blockedSince);
+            blockedPuts.increment();
+        }
+        peakDepth.accumulate(records.size());
+
+    }
+
+    /**
+     * Takes the next record or block, waiting for one if the queue is empty.
+     * @return the record or block.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public Object take() throws InterruptedException {
+        final Object item = records.take();
+        bytes.release(sizeOf(item));
+        return item;
+    }
+
+    /**
+     * Takes the next record or block, waiting up to the time given for one if the queue is empty.
+     * @param timeout the longest time to wait.
+     * @param unit the unit of the timeout.
+     * @return the record or block, or null if none was queued in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public Object poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final Object item = records.poll(timeout, unit);
+        if (item != null) {
+            bytes.release(sizeOf(item));
+        }
+        return item;
+    }
+
+    /**
+     * Moves whatever records and blocks are already queued, up to a limit, onto the end of the list supplied without waiting.
+     * @param batch the list to add to.
+     * @param maxRecords the most records and blocks to move.
+     * @return the number moved.
+     */
+    public int drainTo(final List<Object> batch, final int maxRecords) {
+
+        final int start = batch.size();
+        final int drained = records.drainTo(batch, maxRecords);
+
+        int size = 0;
+        for (int i = start; i < batch.size(); i++) {
+            size += sizeOf(batch.get(i));
+        }
+        bytes.release(size);
+
+        return drained;
+
+    }
+
+    /**
+     * @return the number of records currently queued.
+     */
+    public int depth() {
+        return records.size();
+    }
+
+    /**
+     * @return the most records that have been queued at once.
+     */
+    public long peakDepth() {
+        return peakDepth.get();
+    }
+
+    /**
+     * @return the approximate number of bytes currently queued.
+     */
+    public long queuedBytes() {
+        return maxBytes - bytes.availablePermits();
+    }
+
+    /**
+     * @return the number of puts which had to wait for room.
+     */
+    public long blockedPuts() {
+        return blockedPuts.sum();
+    }
+
+    /**
+     * @return the total time producers have spent waiting for room, in milliseconds.
+     */
+    public long blockedMillis() {
+        return blockedNanos.sum() / 1_000_000;
+    }
+
+    // Adds a record or block of the size given, waiting for room for both.
+    private void offer(final Object item, final int size) throws InterruptedException {
+
+        long blockedSince = 0;
+
+        if (!bytes.tryAcquire(size)) {
+            blockedSince = System.nanoTime();
+            bytes.acquire(size);
+        }
+
+        try {
+            if (!records.offer(item)) {
+                if (blockedSince == 0) {
+                    blockedSince = System.nanoTime();
+                }
+                records.put(item);
+            }
+        } catch (InterruptedException e) {
+            bytes.release(size);
+            throw e;
+        }
+
+        if (blockedSince != 0) {
+            blockedNanos.add(System.nanoTime() - blockedSince);
+            blockedPuts.increment();
+        }
+        peakDepth.accumulate(records.size());
+
+    }
+
+    // Approximates the size of a record as one byte per character, and caps it so that any one record can always fit.
+    private int sizeOf(final String record) {
+        return Math.max(1, Math.min(record.length(), maxBytes));
+    }
+
+    // Approximates the size of a block by the records it holds in memory - none, if they were spilled - capped the same way.
+    private int sizeOf(final Checkpoint.Block block) {
+        long size = 0;
+        for (String record : block.records().records()) {
+            size += record.length();
+        }
+        return (int) Math.max(1, Math.min(size, maxBytes));
+    }
+
+    private int sizeOf(final Object item) {
+        return item instanceof Checkpoint.Block ? sizeOf((Checkpoint.Block) item) : sizeOf((String) item);
+    }
+
+}
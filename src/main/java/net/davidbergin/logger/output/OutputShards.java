@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * The output stage, spread over one or more shards, each with its own {@link OutputQueue} and {@link RecordWriter}
+ * thread writing its own file - so output can use as many cores and disks as there are shards. Records are partitioned
+ * by a hash of their user or website, so all records for a key are in one shard, or round-robin.
+ * <p>
+ * With one shard the output file is written as before. With more, shard n is written to the output file name with -n
+ * before its extension, and once all shards are finished an index file, the output file name plus .index, lists the
+ * partitioning key and each shard's file and record count. Checkpoint blocks are only put with one shard, as a checkpoint
+ * records the offsets of a single output file.
+ */
+public class OutputShards implements RecordOutput, BlockOutput {
+
+    /**
+     * How records are assigned to shards.
+     */
+    public enum ShardKey {
+        /** By a hash of the user. */
+        USER,
+        /** By a hash of the website. */
+        WEBSITE,
+        /** In turn. */
+        ROUND_ROBIN
+    }
+
+    private final Path outputFile;
+    private final ShardKey key;
+    private final List<Path> files = new ArrayList<>();
+    private final List<OutputQueue> queues = new ArrayList<>();
+    private final List<RecordWriter> writers = new ArrayList<>();
+    private final List<LongAdder> records = new ArrayList<>();
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Creates the shards. Nothing is written until they are started.
+     * @param outputFile the output file, which names the shard and index files.
+     * @param shards the number of shards.
+     * @param key how records are assigned to shards.
+     * @param queueFactory creates the queue for each shard.
+     * @param writerFactory creates the writer for each shard from its file and queue.
+     */
+    public OutputShards(final Path outputFile, final int shards, final ShardKey key, final Supplier<OutputQueue> queueFactory,
+            final BiFunction<Path, OutputQueue, RecordWriter> writerFactory) {
+
+        this.outputFile = outputFile;
+        this.key = key;
+
+        final int count = Math.max(1, shards);
+        for (int shard = 0; shard < count; shard++) {
+            final Path file = count == 1 ? outputFile : shardFile(outputFile, shard);
+            final OutputQueue queue = queueFactory.get();
+            files.add(file);
+            queues.add(queue);
+            writers.add(writerFactory.apply(file, queue));
+            records.add(new LongAdder());
+        }
+
+    }
+
+    /**
+     * Starts every shard's writer thread.
+     */
+    public void start() {
+        for (RecordWriter writer : writers) {
+            writer.start();
+        }
+    }
+
+    /**
+     * Puts a record on its shard's queue, waiting for room if that shard has fallen behind.
+     * @param record the record.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void put(final String record) throws InterruptedException {
+        final int shard = shardOf(record);
+        queues.get(shard).put(record);
+        records.get(shard).increment();
+    }
+
+    /**
+     * Puts a chunk of records on the queue in one go if there is only one shard, or else each on its own shard's queue.
+     * @param chunk the records.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void putAll(final List<String> chunk) throws InterruptedException {
+        if (queues.size() > 1) {
+            RecordOutput.super.putAll(chunk);
+            return;
+        }
+        queues.get(0).putAll(chunk);
+        records.get(0).add(chunk.size());
+    }
+
+    /**
+     * Puts a checkpoint block on the first shard's queue, waiting for room if it has fallen behind.
+     * @param block the block.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void put(final Checkpoint.Block block) throws InterruptedException {
+        queues.get(0).put(block);
+        records.get(0).add(block.records().size());
+    }
+
+    /**
+     * Finishes every shard, then writes the index file if there is more than one.
+     * @throws IOException if any shard, or the index, could not be written - the first failure is thrown.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void finish() throws IOException, InterruptedException {
+
+        IOException failure = null;
+        for (RecordWriter writer : writers) {
+            try {
+                writer.finish();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        if (files.size() > 1) {
+            writeIndex();
+        }
+
+    }
+
+    /**
+     * @return the number of shards.
+     */
+    public int shards() {
+        return files.size();
+    }
+
+    /**
+     * @return the number of records queued over all shards.
+     */
+    public long depth() {
+        long depth = 0;
+        for (OutputQueue queue : queues) {
+            depth += queue.depth();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the most records that have been queued at once for any one shard.
+     */
+    public long peakDepth() {
+        long peak = 0;
+        for (OutputQueue queue : queues) {
+            peak = Math.max(peak, queue.peakDepth());
+        }
+        return peak;
+    }
+
+    /**
+     * @return the number of puts, over all shards, which had to wait for room.
+     */
+    public long blockedPuts() {
+        long blocked = 0;
+        for (OutputQueue queue : queues) {
+            blocked += queue.blockedPuts();
+        }
+        return blocked;
+    }
+
+    /**
+     * @return the total time producers have spent waiting for room in any shard, in milliseconds.
+     */
+    public long blockedMillis() {
+        long blocked = 0;
+        for (OutputQueue queue : queues) {
+            blocked += queue.blockedMillis();
+        }
+        return blocked;
+    }
+
+    // Picks the shard for a record. Records without the key field all go to the first shard.
+    int shardOf(final String record) {
+
+        if (files.size() == 1) {
+            return 0;
+        }
+        if (key == ShardKey.ROUND_ROBIN) {
+            return (int) (next.getAndIncrement() % files.size());
+        }
+
+        final String value = RecordFields.stringValue(record, key == ShardKey.USER ? "user" : "website");
+        return value == null ? 0 : Math.floorMod(value.hashCode(), files.size());
+
+    }
+
+    // Writes the index to a temporary file, then moves it into place, so it is never seen part written.
+    private void writeIndex() throws IOException {
+
+        final List<String> lines = new ArrayList<>();
+        lines.add("key=" + key.name().toLowerCase());
+        for (int shard = 0; shard < files.size(); shard++) {
+            lines.add(shard + "\t" + files.get(shard).getFileName() + "\t" + records.get(shard).sum());
+        }
+
+        final Path index = outputFile.resolveSibling(outputFile.getFileName() + ".index");
+        final Path temp = outputFile.resolveSibling(outputFile.getFileName() + ".index.tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    // The output file name with -n before its extension, if any.
+    private static Path shardFile(final Path outputFile, final int shard) {
+        final String name = outputFile.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        return outputFile.resolveSibling(dot > 0 ? name.substring(0, dot) + "-" + shard + name.substring(dot) : name + "-" + shard);
+    }
+
+}
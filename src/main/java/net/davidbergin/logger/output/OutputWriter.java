@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.davidbergin.logger.metrics.ProcessingMetrics;
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * The output stage. A dedicated writer thread drains records from the output queue in batches, encodes them as UTF-8
+ * lines into one large buffer and writes that through a {@link FileChannel} - a group commit, rather than a synchronized
+ * write per line. How often the file is forced to disk is set by the {@link SyncPolicy}. With {@link SyncPolicy#INTERVAL}
+ * the writer waits for more records only until the next force is due, so output written reaches disk within the interval
+ * even if no more records come.
+ * Once all input has been offered to the queue, {@link #finish()} lets the writer empty the queue and exit straight away.
+ * With a {@link Checkpoint}, the output is resumed from the checkpoint's offset rather than truncated, and the files
+ * written are recorded in its manifest each time the output is forced to disk.
+ * With {@link GzipBlocks}, each full buffer is compressed as a gzip member on a thread pool instead of being written as is;
+ * a part filled buffer is only compressed when the output is synced, or closed, so blocks stay large.
+ * If writing fails - by an I/O error or any other exception - the writer logs it and keeps taking records until the end
+ * of input without writing them, so producers never block on a full queue, and {@link #finish()} throws the failure.
+ */
+public class OutputWriter implements RecordWriter {
+
+    /**
+     * When the output file is forced to disk. It is always forced when the output is closed.
+     */
+    public enum SyncPolicy {
+        /** Force after every batch written. */
+        BATCH,
+        /** Force at most once per sync interval, and within the interval of any write. */
+        INTERVAL,
+        /** Force only when the output is closed. */
+        CLOSE
+    }
+
+    private static final String END_OF_INPUT = new String("END_OF_INPUT"); // compared by identity, so never confused with a record
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final Path file;
+    private final OutputQueue queue;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalNanos;
+    private final int batchSize;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final Checkpoint checkpoint;
+    private final GzipBlocks gzip;
+    private final Thread thread;
+    private volatile IOException failure;
+    private boolean ended;
+    private boolean unsynced;
+    private long lastSync;
+    private long position;
+
+    /**
+     * Creates a writer for the output file. Nothing is written until it is started.
+     * @param file the output file, which is created or truncated when the writer starts.
+     * @param queue the queue of records to write, one per line.
+     * @param syncPolicy when to force the file to disk.
+     * @param syncIntervalMillis the minimum time between forces for {@link SyncPolicy#INTERVAL}.
+     * @param batchSize the most records to take from the queue at once.
+     * @param bufferBytes the size of the write buffer.
+     */
+    public OutputWriter(final Path file, final OutputQueue queue, final SyncPolicy syncPolicy, final long syncIntervalMillis,
+            final int batchSize, final int bufferBytes) {
+        this(file, queue, syncPolicy, syncIntervalMillis, batchSize, bufferBytes, null);
+    }
+
+    /**
+     * Creates a writer for the output file, uncompressed. Nothing is written until it is started.
+     * @param file the output file, which is created, or resumed from the checkpoint's offset, when the writer starts.
+     * @param queue the queue of records, and checkpoint blocks, to write, one record per line.
+     * @param syncPolicy when to force the file to disk, and so when files are recorded in the checkpoint.
+     * @param syncIntervalMillis the minimum time between forces for {@link SyncPolicy#INTERVAL}.
+     * @param batchSize the most records to take from the queue at once.
+     * @param bufferBytes the size of the write buffer.
+     * @param checkpoint the checkpoint to resume from and record in, or null to truncate the output file.
+     */
+    public OutputWriter(final Path file, final OutputQueue queue, final SyncPolicy syncPolicy, final long syncIntervalMillis,
+            final int batchSize, final int bufferBytes, final Checkpoint checkpoint) {
+        this(file, queue, syncPolicy, syncIntervalMillis, batchSize, bufferBytes, checkpoint, null);
+    }
+
+    /**
+     * Creates a writer for the output file. Nothing is written until it is started.
+     * @param file the output file, which is created, or resumed from the checkpoint's offset, when the writer starts.
+     * @param queue the queue of records, and checkpoint blocks, to write, one record per line.
+     * @param syncPolicy when to force the file to disk, and so when files are recorded in the checkpoint.
+     * @param syncIntervalMillis the minimum time between forces for {@link SyncPolicy#INTERVAL}.
+     * @param batchSize the most records to take from the queue at once.
+     * @param bufferBytes the size of the write buffer, which is also the size of each compressed block.
+     * @param checkpoint the checkpoint to resume from and record in, or null to truncate the output file.
+     * @param gzip the compressor for gzip output, or null to write the output uncompressed. Not used with a checkpoint.
+     */
+    public OutputWriter(final Path file, final OutputQueue queue, final SyncPolicy syncPolicy, final long syncIntervalMillis,
+            final int batchSize, final int bufferBytes, final Checkpoint checkpoint, final GzipBlocks gzip) {
+        this.file = file;
+        this.queue = queue;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.batchSize = Math.max(1, batchSize);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferBytes, 1024));
+        this.checkpoint = checkpoint;
+        this.gzip = checkpoint == null ? gzip : null;
+        this.thread = new Thread(this::writeAll, "logger-output");
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    @Override
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Signals that no more records will be offered, then waits for the writer to write what is left and close the file.
+     * @throws IOException if the output could not be written.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void finish() throws IOException, InterruptedException {
+        queue.put(END_OF_INPUT);
+        thread.join();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // The writer thread's loop - takes a batch at a time until the end of input is reached.
+    private void writeAll() {
+
+        final List<Object> batch = new ArrayList<>(batchSize);
+
+        try (FileChannel channel = open()) {
+
+            lastSync = System.nanoTime();
+
+            while (!ended) {
+
+                final Object first = next();
+                if (first == null) { // the queue went idle with output not yet forced, and the interval is up
+                    sync(channel);
+                    continue;
+                }
+                batch.add(first); // then take whatever else is already waiting
+                queue.drainTo(batch, batchSize - 1);
+                final long start = System.nanoTime();
+
+                for (Object item : batch) {
+                    if (item == END_OF_INPUT) {
+                        ended = true;
+                    } else if (item instanceof Checkpoint.Block) {
+                        writeBlock(channel, (Checkpoint.Block) item);
+                    } else {
+                        write(channel, (String) item);
+                    }
+                }
+                batch.clear();
+
+                if (gzip == null) {
+                    flush(channel);
+                }
+                if (syncPolicy == SyncPolicy.BATCH || (syncPolicy == SyncPolicy.INTERVAL && System.nanoTime() - lastSync >= syncIntervalNanos)) {
+                    sync(channel);
+                } else {
+                    unsynced = true;
+                }
+                ProcessingMetrics.instance().time(ProcessingMetrics.Stage.WRITE, System.nanoTime() - start);
+
+            }
+
+            if (gzip != null) {
+                flush(channel);
+                gzip.writeAll(channel, true);
+                Trace.info(OutputWriter.class, () -> "Compressed " + gzip.uncompressedBytes() + " bytes to " + gzip.compressedBytes());
+            }
+            sync(channel);
+
+        } catch (IOException | RuntimeException e) {
+            failure = e instanceof IOException ? (IOException) e : new IOException("Failed writing output to " + file, e);
+            ProcessingMetrics.instance().error(ProcessingMetrics.ErrorReason.WRITE_FAILED);
+            Trace.error(OutputWriter.class, "Failed writing output to " + file, e);
+            discardUntilEnd(batch); // keep draining, so producers never block on a writer that has given up
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Interrupted writing output to " + file);
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    // Takes the next record or block, waiting for one - but with interval syncing and output not yet forced, only until
+    // the force is due, returning null if none came by then.
+    private Object next() throws InterruptedException {
+        if (syncPolicy != SyncPolicy.INTERVAL || !unsynced) {
+            return queue.take();
+        }
+        return queue.poll(Math.max(0, syncIntervalNanos - (System.nanoTime() - lastSync)), TimeUnit.NANOSECONDS);
+    }
+
+    // Opens the output file - truncated, or cut back to where the checkpoint says complete output ends.
+    private FileChannel open() throws IOException {
+
+        if (checkpoint == null) {
+            return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            position = checkpoint.offset();
+            channel.truncate(position);
+            channel.position(position);
+            channel.force(false);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+    }
+
+    // Writes the records of a checkpoint block, if any, and notes the block with the output offset reached.
+    private void writeBlock(final FileChannel channel, final Checkpoint.Block block) throws IOException {
+        final RecordSpill records = block.records();
+        if (records.file() != null) {
+            copy(channel, records.file());
+        } else {
+            for (String record : records.records()) {
+                write(channel, record);
+            }
+        }
+        checkpoint.written(block, position + buffer.position());
+    }
+
+    // Copies spilled records, already encoded as lines, through the buffer - writing the buffer out whenever it fills -
+    // then deletes the spill.
+    private void copy(final FileChannel channel, final Path spill) throws IOException {
+        try (FileChannel in = FileChannel.open(spill, StandardOpenOption.READ)) {
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    flush(channel);
+                }
+                if (in.read(buffer) < 0) {
+                    break;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(spill);
+        }
+    }
+
+    // Encodes the record, and a line separator, into the buffer - writing the buffer out whenever it fills.
+    private void write(final FileChannel channel, final String record) throws IOException {
+
+        final CharBuffer chars = CharBuffer.wrap(record);
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, buffer, true);
+        while (result.isOverflow()) {
+            flush(channel);
+            result = encoder.encode(chars, buffer, true);
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            flush(channel);
+        }
+
+        if (buffer.remaining() < LINE_SEPARATOR.length) {
+            flush(channel);
+        }
+        buffer.put(LINE_SEPARATOR);
+
+    }
+
+    // Writes out the buffer - or hands it to be compressed, if it holds anything.
+    private void flush(final FileChannel channel) throws IOException {
+        buffer.flip();
+        if (gzip != null) {
+            if (buffer.hasRemaining()) {
+                final byte[] block = new byte[buffer.remaining()];
+                buffer.get(block);
+                gzip.submit(block, channel);
+            }
+            buffer.clear();
+            return;
+        }
+        position += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Forces the output to disk, and only then records the files written so far in the checkpoint.
+    private void sync(final FileChannel channel) throws IOException {
+        if (gzip != null) {
+            flush(channel);
+            gzip.writeAll(channel, false);
+        }
+        channel.force(false);
+        if (checkpoint != null) {
+            checkpoint.commit();
+        }
+        lastSync = System.nanoTime();
+        unsynced = false;
+    }
+
+    private void discardUntilEnd(final List<Object> unwritten) {
+        for (Object item : unwritten) {
+            ended |= item == END_OF_INPUT;
+            discard(item);
+        }
+        try {
+            while (!ended) {
+                final Object item = queue.take();
+                ended = item == END_OF_INPUT;
+                discard(item);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Deletes the spill of a checkpoint block which will not be written.
+    private static void discard(final Object item) {
+        if (item instanceof Checkpoint.Block) {
+            ((Checkpoint.Block) item).discard();
+        }
+    }
+
+}
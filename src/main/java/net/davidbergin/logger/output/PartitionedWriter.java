@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import net.davidbergin.logger.metrics.ProcessingMetrics;
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * The output stage, partitioned by time. A dedicated writer thread drains records from the output queue in batches, as
+ * {@link OutputWriter} does, but routes each one by its signedInTime to a file for its day or hour - output-2020-01-13.txt
+ * or output-2020-01-13-09.txt for output.txt - so consumers only read the periods they need. Records without a time go to
+ * output-unknown.txt. A partition rolls over to a new part, output-2020-01-13.1.txt and so on, once its current part
+ * reaches a size or record count.
+ * <p>
+ * Only a bounded number of partition files are kept open, each with its own buffer, and the least recently used is closed
+ * when another is needed - it is appended to if it is needed again. Once finished, an index file, the output file name
+ * plus .index, lists every part written with its record and byte counts.
+ * <p>
+ * As with {@link OutputWriter}, interval synced output is forced once the interval is up even if no more records come,
+ * and a failure of any kind is logged, the rest of the queue is taken until the end of input
+ * without being written, and {@link #finish()} throws the failure.
+ */
+public class PartitionedWriter implements RecordWriter {
+
+    /**
+     * The period each partition covers.
+     */
+    public enum Period {
+        /** A partition per day. */
+        DAY,
+        /** A partition per hour. */
+        HOUR
+    }
+
+    private static final String END_OF_INPUT = new String("END_OF_INPUT"); // compared by identity, so never confused with a record
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final String UNKNOWN = "unknown";
+
+    private final Path file;
+    private final OutputQueue queue;
+    private final Period period;
+    private final int maxOpen;
+    private final long maxBytes;
+    private final long maxRecords;
+    private final OutputWriter.SyncPolicy syncPolicy;
+    private final long syncIntervalNanos;
+    private final int batchSize;
+    private final int bufferBytes;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final Map<String, Partition> partitions = new TreeMap<>();
+    private final LinkedHashMap<String, Partition> open = new LinkedHashMap<>(16, 0.75f, true);
+    private final Thread thread;
+    private volatile IOException failure;
+    private boolean ended;
+    private boolean unsynced;
+    private long lastSync;
+    private long reopened;
+
+    /**
+     * Creates a partitioned writer. Nothing is written until it is started.
+     * @param file the output file, which names the partition files and the index.
+     * @param queue the queue of records to write, one per line.
+     * @param period the period each partition covers.
+     * @param maxOpen the most partition files open at once.
+     * @param maxBytes the size at which a partition rolls over to a new part, or 0 for no limit.
+     * @param maxRecords the record count at which a partition rolls over to a new part, or 0 for no limit.
+     * @param syncPolicy when to force the open files to disk.
+     * @param syncIntervalMillis the minimum time between forces for {@link OutputWriter.SyncPolicy#INTERVAL}.
+     * @param batchSize the most records to take from the queue at once.
+     * @param bufferBytes the size of the write buffer for each open partition.
+     */
+    public PartitionedWriter(final Path file, final OutputQueue queue, final Period period, final int maxOpen, final long maxBytes,
+            final long maxRecords, final OutputWriter.SyncPolicy syncPolicy, final long syncIntervalMillis, final int batchSize,
+            final int bufferBytes) {
+        this.file = file;
+        this.queue = queue;
+        this.period = period;
+        this.maxOpen = Math.max(1, maxOpen);
+        this.maxBytes = maxBytes;
+        this.maxRecords = maxRecords;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.batchSize = Math.max(1, batchSize);
+        this.bufferBytes = Math.max(bufferBytes, 1024);
+        this.thread = new Thread(this::writeAll, "logger-output");
+    }
+
+    @Override
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public void finish() throws IOException, InterruptedException {
+        queue.put(END_OF_INPUT);
+        thread.join();
+        if (failure != null) {
+            throw failure;
+        }
+        writeIndex();
+        Trace.warn(PartitionedWriter.class, "Wrote " + partitions.size() + " partitions - reopened " + reopened + " times");
+    }
+
+    // The writer thread's loop - takes a batch at a time until the end of input is reached.
+    private void writeAll() {
+
+        final List<Object> batch = new ArrayList<>(batchSize);
+
+        try {
+
+            lastSync = System.nanoTime();
+
+            while (!ended) {
+
+                final Object first = next();
+                if (first == null) { // the queue went idle with output not yet forced, and the interval is up
+                    sync();
+                    continue;
+                }
+                batch.add(first); // then take whatever else is already waiting
+                queue.drainTo(batch, batchSize - 1);
+                final long start = System.nanoTime();
+
+                for (Object item : batch) {
+                    if (item == END_OF_INPUT) {
+                        ended = true;
+                    } else {
+                        final String record = (String) item; // never a checkpoint block, as partitioned output is not checkpointed
+                        write(partitionOf(record), record);
+                    }
+                }
+                batch.clear();
+
+                for (Partition partition : open.values()) {
+                    partition.flush();
+                }
+                if (syncPolicy == OutputWriter.SyncPolicy.BATCH || (syncPolicy == OutputWriter.SyncPolicy.INTERVAL && System.nanoTime() - lastSync >= syncIntervalNanos)) {
+                    sync();
+                } else {
+                    unsynced = true;
+                }
+                ProcessingMetrics.instance().time(ProcessingMetrics.Stage.WRITE, System.nanoTime() - start);
+
+            }
+
+            sync();
+
+        } catch (IOException | RuntimeException e) {
+            failure = e instanceof IOException ? (IOException) e : new IOException("Failed writing output to " + file, e);
+            ProcessingMetrics.instance().error(ProcessingMetrics.ErrorReason.WRITE_FAILED);
+            Trace.error(PartitionedWriter.class, "Failed writing output to " + file, e);
+            discardUntilEnd(batch); // keep draining, so producers never block on a writer that has given up
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Interrupted writing output to " + file);
+            Thread.currentThread().interrupt();
+        } finally {
+            closeAll();
+        }
+
+    }
+
+    // Encodes the record, and a line separator, into the partition's buffer - rolling the partition over first if it is full.
+    private void write(final Partition partition, final String record) throws IOException {
+
+        if (partition.records > 0 && ((maxBytes > 0 && partition.bytes() >= maxBytes) || (maxRecords > 0 && partition.records >= maxRecords))) {
+            partition.rollOver();
+        }
+        open(partition);
+
+        final ByteBuffer buffer = partition.buffer;
+        final CharBuffer chars = CharBuffer.wrap(record);
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, buffer, true);
+        while (result.isOverflow()) {
+            partition.flush();
+            result = encoder.encode(chars, buffer, true);
+        }
+        while (encoder.flush(buffer).isOverflow()) {
+            partition.flush();
+        }
+
+        if (buffer.remaining() < LINE_SEPARATOR.length) {
+            partition.flush();
+        }
+        buffer.put(LINE_SEPARATOR);
+        partition.records++;
+
+    }
+
+    // Makes sure the partition's file is open, closing the least recently used partition if too many are - and reusing its buffer.
+    private void open(final Partition partition) throws IOException {
+
+        if (open.get(partition.key) != null) {
+            return;
+        }
+
+        ByteBuffer buffer = null;
+        if (open.size() >= maxOpen) {
+            final Iterator<Partition> eldest = open.values().iterator();
+            final Partition evicted = eldest.next();
+            eldest.remove();
+            buffer = evicted.close();
+        }
+
+        partition.open(buffer != null ? buffer : ByteBuffer.allocate(bufferBytes));
+        open.put(partition.key, partition);
+
+    }
+
+    // The partition for a record, from the date, and hour, of its signedInTime.
+    private Partition partitionOf(final String record) {
+
+        final String time = RecordFields.stringValue(record, "signedInTime");
+        final String key;
+        if (time == null || time.length() < 13) {
+            key = UNKNOWN;
+        } else if (period == Period.HOUR) {
+            key = time.substring(0, 10) + "-" + time.substring(11, 13);
+        } else {
+            key = time.substring(0, 10);
+        }
+
+        Partition partition = partitions.get(key);
+        if (partition == null) {
+            partition = new Partition(key);
+            partitions.put(key, partition);
+        }
+        return partition;
+
+    }
+
+    // Takes the next record, waiting for one - but with interval syncing and output not yet forced, only until the force
+    // is due, returning null if none came by then.
+    private Object next() throws InterruptedException {
+        if (syncPolicy != OutputWriter.SyncPolicy.INTERVAL || !unsynced) {
+            return queue.take();
+        }
+        return queue.poll(Math.max(0, syncIntervalNanos - (System.nanoTime() - lastSync)), TimeUnit.NANOSECONDS);
+    }
+
+    private void sync() throws IOException {
+        for (Partition partition : open.values()) {
+            partition.flush();
+            partition.channel.force(false);
+        }
+        lastSync = System.nanoTime();
+        unsynced = false;
+    }
+
+    private void closeAll() {
+        for (Partition partition : open.values()) {
+            try {
+                partition.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                Trace.error(PartitionedWriter.class, "Failed closing " + partition.path(), e);
+            }
+        }
+        open.clear();
+    }
+
+    private void discardUntilEnd(final List<Object> unwritten) {
+        for (Object item : unwritten) {
+            ended |= item == END_OF_INPUT;
+        }
+        try {
+            while (!ended) {
+                ended = queue.take() == END_OF_INPUT;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writes the index to a temporary file, then moves it into place, so it is never seen part written.
+    private void writeIndex() throws IOException {
+
+        final List<String> lines = new ArrayList<>();
+        lines.add("period=" + period.name().toLowerCase());
+        for (Partition partition : partitions.values()) {
+            for (int part = 0; part < partition.parts.size(); part++) {
+                final long[] counts = partition.parts.get(part);
+                lines.add(partition.key + "\t" + partition.path(part).getFileName() + "\t" + counts[0] + "\t" + counts[1]);
+            }
+        }
+
+        final Path index = file.resolveSibling(file.getFileName() + ".index");
+        final Path temp = file.resolveSibling(file.getFileName() + ".index.tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    /**
+     * A partition, its parts so far, and its file and buffer while it is open. Only used by the writer thread.
+     */
+    private final class Partition {
+
+        private final String key;
+        private final List<long[]> parts = new ArrayList<>(); // records and bytes of each part, the last being current
+        private FileChannel channel;
+        private ByteBuffer buffer;
+        private boolean created;
+        private long written;
+        private long records;
+
+        Partition(final String key) {
+            this.key = key;
+            parts.add(new long[2]);
+        }
+
+        long bytes() {
+            return written + (buffer != null ? buffer.position() : 0);
+        }
+
+        // Opens the current part - created afresh the first time, and appended to after that.
+        void open(final ByteBuffer buffer) throws IOException {
+            if (created) {
+                channel = FileChannel.open(path(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                reopened++;
+            } else {
+                channel = FileChannel.open(path(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                created = true;
+            }
+            this.buffer = buffer;
+            buffer.clear();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            written += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // Flushes and closes the current part, keeping its counts, and gives up the buffer.
+        ByteBuffer close() throws IOException {
+            flush();
+            channel.close();
+            channel = null;
+            final long[] counts = parts.get(parts.size() - 1);
+            counts[0] = records;
+            counts[1] = written;
+            final ByteBuffer released = buffer;
+            buffer = null;
+            return released;
+        }
+
+        // Closes the current part, if open, and starts the next - reusing the buffer if it was open.
+        void rollOver() throws IOException {
+            final ByteBuffer released = channel != null ? close() : null;
+            parts.add(new long[2]);
+            created = false;
+            written = 0;
+            records = 0;
+            if (released != null) {
+                open(released);
+            }
+        }
+
+        Path path() {
+            return path(parts.size() - 1);
+        }
+
+        // The output file name with the partition key, and part number after the first, before its extension.
+        Path path(final int part) {
+            final String name = file.getFileName().toString();
+            final int dot = name.lastIndexOf('.');
+            final String base = dot > 0 ? name.substring(0, dot) : name;
+            final String extension = dot > 0 ? name.substring(dot) : "";
+            return file.resolveSibling(base + "-" + key + (part > 0 ? "." + part : "") + extension);
+        }
+
+    }
+
+}
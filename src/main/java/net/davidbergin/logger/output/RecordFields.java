@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+/**
+ * Reads fields back out of output records, as written by BasicOutputFormat - a flat JSON object with no whitespace.
+ * A field name inside a string value always has its quotes escaped, so can never be mistaken for a field.
+ */
+final class RecordFields {
+
+    private RecordFields() {
+    }
+
+    /**
+     * Finds the value of a string field, still escaped as it was written.
+     * @param record the output record.
+     * @param field the field name.
+     * @return the escaped value, or null if the record has no such string field.
+     */
+    static String stringValue(final String record, final String field) {
+
+        final String prefix = "\"" + field + "\":\"";
+        final int start = record.indexOf(prefix);
+        if (start < 0) {
+            return null;
+        }
+
+        final int valueStart = start + prefix.length();
+        for (int i = valueStart; i < record.length(); i++) {
+            final char c = record.charAt(i);
+            if (c == '\\') {
+                i++; // skip the escaped character
+            } else if (c == '"') {
+                return record.substring(valueStart, i);
+            }
+        }
+        return null;
+
+    }
+
+}
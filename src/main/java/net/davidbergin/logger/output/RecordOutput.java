@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.util.List;
+
+/**
+ * Where output records are put to be written - a single {@link OutputQueue}, or {@link OutputShards} spread over many.
+ */
+@FunctionalInterface
+public interface RecordOutput {
+
+    /**
+     * Puts a record to be written, waiting for room if output has fallen behind.
+     * @param record the record.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void put(String record) throws InterruptedException;
+
+    /**
+     * Puts a chunk of records to be written, in order, waiting for room if output has fallen behind.
+     * This default puts each record in turn.
+     * @param chunk the records.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    default void putAll(List<String> chunk) throws InterruptedException {
+        for (String record : chunk) {
+            put(record);
+        }
+    }
+
+}
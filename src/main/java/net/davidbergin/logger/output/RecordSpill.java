@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * The output records of one input file, collected until they can be released together - as a checkpoint block, or in
+ * turn from a reorder buffer. Records are held in memory up to a limit of bytes, counted one per character as the
+ * {@link OutputQueue} counts them, and once past it every record is spilled to a temporary file beside the output, so
+ * a large input file never holds all of its output on the heap. A spilled file holds the records as UTF-8 lines, just as
+ * the output does.
+ * <p>
+ * Records are added by a sink which cannot throw an {@link IOException}, so a failure writing the spill is kept, the
+ * records after it are dropped, and it is thrown by {@link #finish()}. The spill is deleted on {@link #close()}, unless
+ * it has been handed on. Instances are used by one thread at a time.
+ */
+public class RecordSpill implements Closeable {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final String SUFFIX = ".spill";
+
+    private final Path outputFile;
+    private final long maxBytes;
+    private final List<String> records;
+    private long bytes;
+    private int count;
+    private Path file;
+    private Writer writer;
+    private IOException failure;
+
+    /**
+     * Creates an empty collection of records.
+     * @param outputFile the output file, beside which records are spilled.
+     * @param maxBytes the most bytes held in memory before the records are spilled.
+     */
+    public RecordSpill(final Path outputFile, final long maxBytes) {
+        this(outputFile, maxBytes, new ArrayList<>());
+    }
+
+    private RecordSpill(final Path outputFile, final long maxBytes, final List<String> records) {
+        this.outputFile = outputFile;
+        this.maxBytes = maxBytes;
+        this.records = records;
+        this.count = records.size();
+    }
+
+    /**
+     * Wraps records already in memory, which are never spilled.
+     * @param records the records. The list is not copied.
+     * @return the records.
+     */
+    public static RecordSpill of(final List<String> records) {
+        return new RecordSpill(null, Long.MAX_VALUE, records);
+    }
+
+    /**
+     * Adds a record, spilling every record held so far if it takes the records past the limit. Nothing is added once
+     * spilling has failed.
+     * @param record the record.
+     */
+    public void add(final String record) {
+
+        if (failure != null) {
+            return;
+        }
+        count++;
+        try {
+            if (writer != null) {
+                writer.write(record);
+                writer.write(LINE_SEPARATOR);
+                return;
+            }
+            records.add(record);
+            bytes += Math.max(1, record.length());
+            if (bytes > maxBytes) {
+                spill();
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+
+    }
+
+    /**
+     * Finishes adding records, writing out the spill, if there is one.
+     * @throws IOException if the records could not be spilled.
+     */
+    public void finish() throws IOException {
+        if (writer != null) {
+            final Writer spilled = writer;
+            writer = null;
+            try {
+                spilled.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the number of records added.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the file the records were spilled to, or null if they are all held in memory.
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * @return the records held in memory, which is all of them unless they were spilled.
+     */
+    public List<String> records() {
+        return records;
+    }
+
+    /**
+     * Finishes adding records, then puts each one to the output in the order added - reading them back from the spill,
+     * if they were spilled.
+     * @param output the output.
+     * @throws IOException if the records could not be spilled or read back.
+     * @throws InterruptedException if interrupted while waiting for room in the output.
+     */
+    public void forEach(final RecordOutput output) throws IOException, InterruptedException {
+        finish();
+        if (file == null) {
+            for (String record : records) {
+                output.put(record);
+            }
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            String record;
+            while ((record = reader.readLine()) != null) {
+                output.put(record);
+            }
+        }
+    }
+
+    /**
+     * Deletes the spill, if there is one. A spill which cannot be deleted is logged.
+     */
+    @Override
+    public void close() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // already thrown to whoever finished adding records, or about to be discarded with them
+        }
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                Trace.error(RecordSpill.class, "Failed deleting spilled output " + file, e);
+            }
+        }
+    }
+
+    // Opens the spill, and moves the records held so far into it.
+    private void spill() throws IOException {
+        final Path directory = outputFile.toAbsolutePath().getParent();
+        file = Files.createTempFile(directory, outputFile.getFileName() + ".", SUFFIX);
+        writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 64 * 1024);
+        Trace.info(RecordSpill.class, () -> "Spilling output past " + maxBytes + " bytes to " + file);
+        for (String record : records) {
+            writer.write(record);
+            writer.write(LINE_SEPARATOR);
+        }
+        records.clear();
+    }
+
+}
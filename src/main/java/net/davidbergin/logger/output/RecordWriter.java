@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.io.IOException;
+
+/**
+ * A writer thread which drains an {@link OutputQueue} to output files - {@link OutputWriter} to a single file, or
+ * {@link PartitionedWriter} to a file per time period.
+ */
+public interface RecordWriter {
+
+    /**
+     * Starts the writer thread.
+     */
+    void start();
+
+    /**
+     * Signals that no more records will be offered, then waits for the writer to write what is left and close its files.
+     * @throws IOException if the output could not be written.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void finish() throws IOException, InterruptedException;
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.output;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.davidbergin.logger.metrics.ProcessingMetrics;
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * Puts the output of files handled in parallel back into a fixed order before it reaches the output.
+ * Each file takes a sequence number from {@link #next()} before it is handed to a thread, and its records are passed to
+ * {@link #complete(long, List)} once handled - in any order. Records are released to the output a whole file at a time,
+ * in sequence order, by whichever thread completes the next file due; other threads just leave their records and return.
+ * At most a window of files can be numbered but not yet released, so {@link #next()} waits, rather than the input
+ * threads, when one slow file holds up the rest.
+ * <p>
+ * A file's records are collected in a {@link RecordSpill} from {@link #spill()}, so past a limit they are spilled beside
+ * the output rather than held in memory - at most the window of files, each up to that limit, is held in memory. A
+ * spill is read back when its file is released, and then deleted. A file checkpointed as a {@link Checkpoint.Block} is
+ * completed with the block instead, which is released to the output whole.
+ * <p>
+ * In {@link Order#TIME} order, the records released are also held in a bounded sort buffer and released earliest
+ * signedInTime first, so the output is sorted as long as no record is further out of place than the buffer holds.
+ * Records with the same time keep their input order.
+ * Instances are thread safe.
+ */
+public class ReorderBuffer {
+
+    /**
+     * The order in which output is written.
+     */
+    public enum Order {
+        /** The order in which files are handled - no reordering. */
+        NONE,
+        /** The order in which input files were found. */
+        INPUT,
+        /** Input order, then sorted by signedInTime within the sort buffer. */
+        TIME
+    }
+
+    private final RecordOutput output;
+    private final BlockOutput blocks;
+    private final int window;
+    private final int sortRecords;
+    private final Path outputFile;
+    private final long spillBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition room = lock.newCondition();
+    private final Map<Long, Object> completed = new HashMap<>(); // each file's RecordSpill, or its Checkpoint.Block
+    private final ReentrantLock releasing = new ReentrantLock();
+    private final PriorityQueue<Timed> sorting;
+    private long issued;
+    private long released;
+    private long arrivals;
+    private int peakHeld;
+
+    /**
+     * Creates a reorder buffer in front of the output supplied.
+     * @param <O> the output's type, which takes both records and checkpoint blocks.
+     * @param output the output records are released to.
+     * @param order the output order - {@link Order#INPUT} or {@link Order#TIME}.
+     * @param window the most files which can be numbered but not yet released.
+     * @param sortRecords the most records held to sort by time, for {@link Order#TIME}.
+     */
+    public <O extends RecordOutput & BlockOutput> ReorderBuffer(final O output, final Order order, final int window, final int sortRecords) {
+        this(output, order, window, sortRecords, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a reorder buffer in front of the output supplied, spilling the records of a file past a limit.
+     * @param <O> the output's type, which takes both records and checkpoint blocks.
+     * @param output the output records are released to.
+     * @param order the output order - {@link Order#INPUT} or {@link Order#TIME}.
+     * @param window the most files which can be numbered but not yet released.
+     * @param sortRecords the most records held to sort by time, for {@link Order#TIME}.
+     * @param outputFile the output file, beside which records are spilled.
+     * @param spillBytes the most bytes of a file's records held in memory before they are spilled.
+     */
+    public <O extends RecordOutput & BlockOutput> ReorderBuffer(final O output, final Order order, final int window, final int sortRecords,
+            final Path outputFile, final long spillBytes) {
+        this.output = output;
+        this.blocks = output;
+        this.outputFile = outputFile;
+        this.spillBytes = spillBytes;
+        this.window = Math.max(1, window);
+        this.sortRecords = Math.max(1, sortRecords);
+        this.sorting = order == Order.TIME
+                ? new PriorityQueue<>(Comparator.comparing((Timed timed) -> timed.time).thenComparingLong(timed -> timed.arrival))
+                : null;
+    }
+
+    /**
+     * Takes the next sequence number, waiting while the window is full.
+     * @return the sequence number.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public long next() throws InterruptedException {
+        lock.lock();
+        try {
+            while (issued - released >= window) {
+                room.await();
+            }
+            return issued++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return an empty collection for a file's records, spilled beside the output past the limit.
+     */
+    public RecordSpill spill() {
+        return new RecordSpill(outputFile, spillBytes);
+    }
+
+    /**
+     * Leaves the records for a sequence number, and releases every file now due to the output unless another thread is
+     * already doing so. Every sequence number taken must be completed, with an empty list if the file had no output,
+     * or later files are never released.
+     * @param sequence the sequence number from {@link #next()}.
+     * @param records the file's records, in order. The list is not copied.
+     * @throws InterruptedException if interrupted while waiting for room in the output.
+     */
+    public void complete(final long sequence, final List<String> records) throws InterruptedException {
+        complete(sequence, RecordSpill.of(records));
+    }
+
+    /**
+     * Leaves the records for a sequence number, as {@link #complete(long, List)} does - collected by a spill from
+     * {@link #spill()}, which is deleted once released.
+     * @param sequence the sequence number from {@link #next()}.
+     * @param records the file's records, in order.
+     * @throws InterruptedException if interrupted while waiting for room in the output.
+     */
+    public void complete(final long sequence, final RecordSpill records) throws InterruptedException {
+        completeWith(sequence, records);
+    }
+
+    /**
+     * Leaves a checkpointed file's block for a sequence number, as {@link #complete(long, List)} does - released to the
+     * output whole, never sorted, as time order is not checkpointed.
+     * @param sequence the sequence number from {@link #next()}.
+     * @param block the file's block.
+     * @throws InterruptedException if interrupted while waiting for room in the output.
+     */
+    public void complete(final long sequence, final Checkpoint.Block block) throws InterruptedException {
+        completeWith(sequence, block);
+    }
+
+    // Leaves a file's RecordSpill or Checkpoint.Block, and releases every file now due.
+    private void completeWith(final long sequence, final Object output) throws InterruptedException {
+
+        lock.lock();
+        try {
+            completed.put(sequence, output);
+            if (sequence != released) {
+                peakHeld = Math.max(peakHeld, completed.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // a thread which finds another releasing can leave, as that thread checks again for work after it stops
+        while (releasing.tryLock()) {
+            try {
+                Object due;
+                while ((due = takeDue()) != null) {
+                    releaseAll(due);
+                }
+            } finally {
+                releasing.unlock();
+            }
+            if (!isDue()) {
+                return;
+            }
+        }
+
+    }
+
+    /**
+     * Releases any records still held in the sort buffer. Called once every sequence number taken has been completed.
+     * @throws InterruptedException if interrupted while waiting for room in the output.
+     */
+    public void finish() throws InterruptedException {
+        releasing.lock();
+        try {
+            while (sorting != null && !sorting.isEmpty()) {
+                output.put(sorting.poll().record);
+            }
+        } finally {
+            releasing.unlock();
+        }
+    }
+
+    /**
+     * @return the most completed files that have been held waiting for an earlier file at once.
+     */
+    public int peakHeld() {
+        lock.lock();
+        try {
+            return peakHeld;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes the records or block of the next file due, if it has been completed, making room in the window.
+    private Object takeDue() {
+        lock.lock();
+        try {
+            final Object due = completed.remove(released);
+            if (due != null) {
+                released++;
+                room.signalAll();
+            }
+            return due;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isDue() {
+        lock.lock();
+        try {
+            return completed.containsKey(released);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Passes a file's block on, or its records in order, then deletes their spill. Records which cannot be read back are
+    // logged and skipped.
+    private void releaseAll(final Object due) throws InterruptedException {
+        if (due instanceof Checkpoint.Block) {
+            final Checkpoint.Block block = (Checkpoint.Block) due;
+            try {
+                blocks.put(block);
+            } catch (InterruptedException e) {
+                block.discard();
+                throw e;
+            }
+            return;
+        }
+        final RecordSpill records = (RecordSpill) due;
+        try {
+            records.forEach(this::release);
+        } catch (IOException e) {
+            ProcessingMetrics.instance().error(ProcessingMetrics.ErrorReason.WRITE_FAILED);
+            Trace.error(ReorderBuffer.class, "Failed releasing spilled output " + records.file(), e);
+        } finally {
+            records.close();
+        }
+    }
+
+    // Passes a record to the output, or through the sort buffer when sorting by time. Only called by the releasing thread.
+    private void release(final String record) throws InterruptedException {
+        if (sorting == null) {
+            output.put(record);
+            return;
+        }
+        sorting.add(new Timed(timeOf(record), arrivals++, record));
+        if (sorting.size() > sortRecords) {
+            output.put(sorting.poll().record);
+        }
+    }
+
+    // The signedInTime of an output record, as written by BasicOutputFormat - yyyy-MM-dd HH:mm:ss sorts as text.
+    // Records without one sort first.
+    static String timeOf(final String record) {
+        final String time = RecordFields.stringValue(record, "signedInTime");
+        return time != null ? time : "";
+    }
+
+    /**
+     * A record held in the sort buffer, with its time and the order it arrived in.
+     */
+    private static final class Timed {
+
+        private final String time;
+        private final long arrival;
+        private final String record;
+
+        Timed(final String time, final long arrival, final String record) {
+            this.time = time;
+            this.arrival = arrival;
+            this.record = record;
+        }
+
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.davidbergin.logger.format.BasicOutputFormat;
+import net.davidbergin.logger.handler.FormatSink;
+import net.davidbergin.logger.handler.Handler;
+import net.davidbergin.logger.handler.StagedHandler;
+import net.davidbergin.logger.input.InputArchive;
+import net.davidbergin.logger.input.InputHandler;
+import net.davidbergin.logger.input.InputReader;
+import net.davidbergin.logger.metrics.ProcessingMetrics;
+import net.davidbergin.logger.output.RecordOutput;
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * Handles input as a pipeline of three stages, each with its own threads and a bounded queue handing work on to it -
+ * so disk bound and CPU bound work can each be given as many threads as they need. The read stage reads each plain
+ * file into a pooled buffer and picks its handler. The parse stage validates, parses and maps its records, and hands
+ * them on in chunks. The serialize stage serializes each chunk and puts it to the output. A handler which is not a
+ * {@link StagedHandler}, and compressed files and archives, which are streamed as they are parsed, are handled whole by
+ * the parse stage. Each stage's utilization is kept in the metrics as the run goes, and logged at the end.
+ * Files are put from one thread.
+ */
+public class PipelineInput {
+
+    private static final int CHUNK = 256; // mapped records handed on to the serialize stage at once
+
+    private final InputHandler handler;
+    private final RecordOutput output;
+    private final PipelineStage<Path> read;
+    private final PipelineStage<ReadFile> parse;
+    private final PipelineStage<List<BasicOutputFormat>> serialize;
+    private final List<PipelineStage<?>> stages;
+
+    /**
+     * Creates the stages. Nothing is handled until they are started.
+     * @param handler the handler of files which are not read ahead, or whose handler is not staged.
+     * @param output where output records are put.
+     * @param readThreads the threads of the read stage.
+     * @param parseThreads the threads of the parse stage.
+     * @param serializeThreads the threads of the serialize stage.
+     * @param capacity the most items queued in front of each stage.
+     */
+    public PipelineInput(final InputHandler handler, final RecordOutput output, final int readThreads, final int parseThreads,
+            final int serializeThreads, final int capacity) {
+        this.handler = handler;
+        this.output = output;
+        this.serialize = new PipelineStage<>("serialize", serializeThreads, capacity, this::serializeStage);
+        this.parse = new PipelineStage<>("parse", parseThreads, capacity, this::parseStage);
+        this.read = new PipelineStage<>("read", readThreads, capacity, this::readStage);
+        this.stages = Arrays.asList(read, parse, serialize);
+    }
+
+    /**
+     * Starts every stage's threads, last stage first, and adds their summaries to the metrics.
+     */
+    public void start() {
+        ProcessingMetrics.instance().pipeline(() -> {
+            final Map<String, Object> summaries = new LinkedHashMap<>();
+            for (PipelineStage<?> stage : stages) {
+                summaries.put(stage.name(), stage.summary());
+            }
+            return summaries;
+        });
+        serialize.start();
+        parse.start();
+        read.start();
+    }
+
+    /**
+     * Puts a file to the read stage, waiting for room if the pipeline has fallen behind.
+     * @param file the file.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void put(final Path file) throws InterruptedException {
+        read.put(file);
+    }
+
+    /**
+     * Lets each stage finish its items in turn, once every file has been put.
+     * @throws InterruptedException if interrupted while waiting for a stage to finish.
+     */
+    public void finish() throws InterruptedException {
+        for (PipelineStage<?> stage : stages) {
+            stage.finish();
+        }
+    }
+
+    /**
+     * Logs each stage's utilization, once finished.
+     * @throws IOException if a stage failed, on an interrupt or an error, and discarded its items.
+     */
+    public void report() throws IOException {
+
+        for (PipelineStage<?> stage : stages) {
+            Trace.warn(PipelineInput.class, "Stage " + stage.name() + " - " + stage.threads() + " threads - "
+                    + Math.round(stage.utilization() * 100) + "% utilized - " + stage.items() + " items - peak queue "
+                    + stage.peakDepth() + " - blocked " + stage.blockedMillis() + " millis");
+        }
+        for (PipelineStage<?> stage : stages) {
+            if (stage.failure() != null) {
+                throw new IOException("The " + stage.name() + " stage failed, discarding " + stage.discarded() + " items", stage.failure());
+            }
+        }
+
+    }
+
+    /**
+     * The read stage - picks a plain file's handler, by name or else by sniffing its first bytes, then reads it and hands
+     * it to the parse stage. Compressed files and archives are handed on unread, to be streamed as they are parsed.
+     */
+    private void readStage(final Path file) throws InterruptedException {
+
+        final String name = file.getFileName().toString();
+        if (InputArchive.isArchive(file) || InputReader.isCompressed(name)) {
+            parse.put(new ReadFile(file, null, null));
+            return;
+        }
+        final Handler fileHandler;
+        final ByteBuffer content;
+        try {
+            fileHandler = InputHandler.handlerOf(file);
+            if (fileHandler == null) {
+                InputHandler.noHandler(name);
+                return;
+            }
+            content = handler.read(file);
+        } catch (IOException e) {
+            InputHandler.failed(name, e);
+            return;
+        }
+        try {
+            parse.put(new ReadFile(file, fileHandler, content));
+        } catch (InterruptedException e) {
+            handler.release(content);
+            throw e;
+        }
+
+    }
+
+    /**
+     * The parse stage - validates, parses and maps the records of a file read, handing them to the serialize stage in
+     * chunks, then releases the content. Files which are not read ahead, or whose handler is not staged, are handled whole
+     * and their output put straight to the output.
+     */
+    private void parseStage(final ReadFile file) throws IOException, InterruptedException {
+
+        if (file.content == null) {
+            handler.handleFile(file.file, output::put, null);
+            return;
+        }
+        if (!(file.handler instanceof StagedHandler)) {
+            handler.handle(file.handler, file.file, file.content, output::put);
+            return;
+        }
+        try {
+            final FormatChunks chunks = new FormatChunks();
+            final int records = ((StagedHandler) file.handler).map(file.content, chunks);
+            chunks.flush();
+            ProcessingMetrics.instance().file(records);
+        } finally {
+            handler.release(file.content);
+        }
+
+    }
+
+    /**
+     * The serialize stage - serializes a chunk of mapped records, and puts them to the output together.
+     */
+    private void serializeStage(final List<BasicOutputFormat> chunk) throws InterruptedException {
+
+        final List<String> records = new ArrayList<>(chunk.size());
+        for (BasicOutputFormat format : chunk) {
+            final long start = System.nanoTime();
+            records.add(format.toJSONString());
+            ProcessingMetrics.instance().time(ProcessingMetrics.Stage.SERIALIZE, System.nanoTime() - start);
+        }
+        output.putAll(records);
+
+    }
+
+    /**
+     * A file on its way from the read stage to the parse stage - with its content and handler, or neither if it is to be
+     * streamed.
+     */
+    private static final class ReadFile {
+
+        private final Path file;
+        private final Handler handler;
+        private final ByteBuffer content;
+
+        ReadFile(final Path file, final Handler handler, final ByteBuffer content) {
+            this.file = file;
+            this.handler = handler;
+            this.content = content;
+        }
+
+    }
+
+    /**
+     * Gathers mapped records from the parse stage into chunks, handing each to the serialize stage once full.
+     */
+    private final class FormatChunks implements FormatSink {
+
+        private List<BasicOutputFormat> chunk = new ArrayList<>(CHUNK);
+
+        @Override
+        public void accept(final BasicOutputFormat record) throws InterruptedException {
+            chunk.add(record);
+            if (chunk.size() == CHUNK) {
+                flush();
+            }
+        }
+
+        // Hands the records gathered so far to the serialize stage, if there are any.
+        void flush() throws InterruptedException {
+            if (!chunk.isEmpty()) {
+                serialize.put(chunk);
+                chunk = new ArrayList<>(CHUNK);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.pipeline;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.davidbergin.logger.util.Trace;
+
+/**
+ * One stage of a pipeline - a bounded hand-off queue, and its own threads taking items from it and working on each in
+ * turn, usually putting a result to the next stage. A full queue makes the stage before wait, so a slow stage holds back
+ * those before it rather than letting work pile up on the heap.
+ * <p>
+ * Each stage keeps how long its threads spent working, so its utilization - the share of its threads' time spent busy -
+ * shows where the bottleneck is: a stage near 100% with its queue full is the one to give more threads, and a stage
+ * with little utilization has more than it needs. Time spent waiting for room in the next stage counts as busy, so a
+ * stage held back by the next one shows that stage's blocked time too. An item which fails is logged and skipped.
+ * <p>
+ * If a thread is interrupted, or its work throws an {@link Error}, the stage fails - the failure is kept, and from then on
+ * its threads take each item put and discard it, rather than stop, so a stage before never waits on a queue which nothing
+ * drains, and {@link #finish()} still returns. Whoever runs the pipeline checks {@link #failure()} once it is finished.
+ * @param <T> the type of item the stage works on.
+ */
+public class PipelineStage<T> {
+
+    /**
+     * The work a stage does on each item.
+     * @param <T> the type of item.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        /**
+         * Works on an item.
+         * @param item the item.
+         * @throws Exception if the item failed, which is logged and skipped.
+         */
+        void accept(T item) throws Exception;
+    }
+
+    private static final Object END = new Object(); // put once per thread to stop it
+
+    private final String name;
+    private final BlockingQueue<Object> queue;
+    private final Work<T> work;
+    private final Thread[] threads;
+    private final LongAdder items = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAccumulator peakDepth = new LongAccumulator(Math::max, 0);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final LongAdder discarded = new LongAdder();
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    /**
+     * Creates a stage. Nothing is worked on until it is started.
+     * @param name the name of the stage, which names its threads.
+     * @param threads the number of threads working on items.
+     * @param capacity the most items waiting in the queue.
+     * @param work the work to do on each item.
+     */
+    public PipelineStage(final String name, final int threads, final int capacity, final Work<T> work) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.work = work;
+        this.threads = new Thread[Math.max(1, threads)];
+        for (int i = 0; i < this.threads.length; i++) {
+            this.threads[i] = new Thread(this::workAll, "logger-" + name + "-" + i);
+        }
+    }
+
+    /**
+     * Starts the stage's threads.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Hands an item to the stage, waiting for room if the queue is full.
+     * @param item the item.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void put(final T item) throws InterruptedException {
+        if (!queue.offer(item)) {
+            final long blockedSince = System.nanoTime();
+            queue.put(item);
+            blockedNanos.add(System.nanoTime() - blockedSince);
+        }
+        peakDepth.accumulate(queue.size());
+    }
+
+    /**
+     * Finishes the stage once every item already put has been worked on, and waits for its threads to stop. No more items
+     * can be put once finishing.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void finish() throws InterruptedException {
+        for (int i = 0; i < threads.length; i++) {
+            queue.put(END);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the name of the stage.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return the number of threads working on items.
+     */
+    public int threads() {
+        return threads.length;
+    }
+
+    /**
+     * @return the number of items worked on.
+     */
+    public long items() {
+        return items.sum();
+    }
+
+    /**
+     * @return the number of items discarded unworked, once the stage failed.
+     */
+    public long discarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * @return the interrupt or error the stage failed with, or null if it has not failed.
+     */
+    public Throwable failure() {
+        return failure.get();
+    }
+
+    /**
+     * @return the share of the stage's threads' time spent working, from 0 to 1, since it started.
+     */
+    public double utilization() {
+        final long start = startNanos;
+        if (start == 0) {
+            return 0;
+        }
+        final long end = endNanos;
+        final long elapsed = (end != 0 ? end : System.nanoTime()) - start;
+        return elapsed <= 0 ? 0 : Math.min(1, (double) busyNanos.sum() / elapsed / threads.length);
+    }
+
+    /**
+     * @return the number of items waiting in the queue.
+     */
+    public int depth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the most items that have waited in the queue at once.
+     */
+    public long peakDepth() {
+        return peakDepth.get();
+    }
+
+    /**
+     * @return the total time the stage before has spent waiting for room in the queue, in milliseconds.
+     */
+    public long blockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum());
+    }
+
+    /**
+     * @return the threads, items, utilization as a percentage, queue depths and blocked time, for a JSON response.
+     */
+    public Map<String, Object> summary() {
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("threads", threads());
+        summary.put("items", items());
+        summary.put("utilizationPercent", Math.round(utilization() * 100));
+        summary.put("queueDepth", depth());
+        summary.put("peakQueueDepth", peakDepth());
+        summary.put("blockedMillis", blockedMillis());
+        return summary;
+    }
+
+    // A thread's loop - works on each item in turn until told to stop, or once the stage has failed, discards it. An
+    // interrupt is kept until the thread stops, so taking the rest of the items does not throw it again.
+    @SuppressWarnings("unchecked")
+    private void workAll() {
+        boolean interrupted = false;
+        while (true) {
+            final Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                fail(e);
+                continue;
+            }
+            if (item == END) {
+                break;
+            }
+            if (failure.get() != null) {
+                discarded.increment();
+                continue;
+            }
+            final long start = System.nanoTime();
+            try {
+                work.accept((T) item);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                fail(e);
+            } catch (Exception e) {
+                Trace.error(PipelineStage.class, "Error occurred in the " + name + " stage", e);
+            } catch (Error e) {
+                fail(e);
+            } finally {
+                busyNanos.add(System.nanoTime() - start);
+                items.increment();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Fails the stage, if it has not already failed, so the rest of its items are discarded.
+    private void fail(final Throwable e) {
+        if (failure.compareAndSet(null, e)) {
+            Trace.error(PipelineStage.class, "The " + name + " stage failed - discarding the rest of its items", e);
+        }
+    }
+
+}
@@ -4,13 +4,23 @@
 package net.davidbergin.logger.util;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
-/** Singleton configuration cache, which loads the logger configuration from a properties file on the classpath. */
+/**
+ * Singleton configuration cache, which loads the logger configuration from a properties file on the classpath.
+ * A logger.* system property, such as -Dlogger.input.threads=4, overrides the value in the file.
+ * The {@link Trace} level is set from logger.trace.level once loaded.
+ */
 public class Config {
 
     private static final String PROPERTIES_FILE = "app.properties";
+    private static final String SYSTEM_PREFIX = "logger.";
     private static final Config INSTANCE = new Config();
     private final Properties properties;
 
@@ -25,7 +35,17 @@ public class Config {
             // log and exit if properties cannot be loaded
             Trace.fatal(Config.class, "could not load properties from " + PROPERTIES_FILE, e);
         }
-        Trace.info(Config.class, "loaded properties - " + properties);
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith(SYSTEM_PREFIX)) {
+                properties.setProperty(key, System.getProperty(key));
+            }
+        }
+        try {
+            Trace.setLevel(Trace.Level.valueOf(getString("logger.trace.level", "warn").trim().toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            Trace.warn(Config.class, "Ignoring unknown logger.trace.level " + getString("logger.trace.level"));
+        }
+        Trace.info(Config.class, () -> "loaded properties - " + properties);
     }
 
     /**
@@ -62,7 +82,66 @@ public class Config {
      * @return a value for the supplied key, or the default value if it doesn't exist
      */
     public int getInteger(final String key, final int defaultVal) {
-        return Optional.ofNullable(Integer.parseInt(properties.getProperty(key))).orElse(defaultVal);
+        return Optional.ofNullable(properties.getProperty(key)).map(String::trim).map(Integer::parseInt).orElse(defaultVal);
+    }
+
+    /**
+     * Gets a boolean value for the specified key, or the default value if it doesn't exist in the properties.
+     * @param key the key
+     * @param defaultVal the default value to return if no mapping is found
+     * @return a value for the supplied key, or the default value if it doesn't exist
+     */
+    public boolean getBoolean(final String key, final boolean defaultVal) {
+        return Optional.ofNullable(properties.getProperty(key)).map(String::trim).map(Boolean::parseBoolean).orElse(defaultVal);
+    }
+
+    /**
+     * Gets an enum value for the specified key, ignoring case, or the default value if it doesn't exist in the properties.
+     * @param key the key
+     * @param type the enum type
+     * @param defaultVal the default value to return if no mapping is found
+     * @param <E> the enum type
+     * @return a value for the supplied key, or the default value if it doesn't exist
+     * @throws IllegalArgumentException naming the key and its allowed values, if the value is not one of them
+     */
+    public <E extends Enum<E>> E getEnum(final String key, final Class<E> type, final E defaultVal) {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultVal;
+        }
+        for (E constant : type.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value.trim())) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("Unknown " + key + " '" + value + "' - expected one of "
+                + Arrays.toString(type.getEnumConstants()).toLowerCase());
+    }
+
+    /**
+     * Gets a list of values for the specified key, from a comma separated value, or an empty list if it doesn't exist in the properties.
+     * @param key the key
+     * @return the values for the supplied key, or an empty list if it doesn't exist
+     */
+    public List<String> getList(final String key) {
+        return Optional.ofNullable(properties.getProperty(key)).map(value -> Arrays.asList(value.split("\\s*,\\s*"))).orElse(Collections.emptyList());
     }
     
+
+    /**
+     * Gets every value whose key starts with the prefix, keyed by the rest of the key, such as the handler class for
+     * each extension under logger.handler.
+     * @param prefix the prefix
+     * @return the values found, in key order, or an empty map if there are none
+     */
+    public SortedMap<String, String> getWithPrefix(final String prefix) {
+        final SortedMap<String, String> values = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                values.put(key.substring(prefix.length()), properties.getProperty(key));
+            }
+        }
+        return values;
+    }
+
 }
@@ -4,62 +4,228 @@
 package net.davidbergin.logger.util;
 
 import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 /**
  * A simple logging facade class providing a set of basic log/trace methods to
  * STDOUT. One central place to change and introduce a full-featured log stack
  * without having to change other code.
+ * <p>
+ * Messages below the level set by logger.trace.level are dropped before anything is built - pass a {@link Supplier}
+ * for any message which is costly to build, and it is only called if the level is enabled. Enabled messages are handed
+ * to a bounded lock free ring buffer and written by a background appender thread, so a caller never waits on the
+ * console. If the buffer is full the message is dropped and counted, rather than block the caller. Fatal messages wait
+ * for everything before them to be written, as does the JVM shutting down.
  */
 public class Trace {
 
+    /**
+     * The priority of a message, in increasing order. Messages below the configured level are dropped.
+     */
+    public enum Level {
+        /** Detail of each file and record. */
+        INFO,
+        /** Progress and summaries. */
+        WARN,
+        /** Failures which are logged and skipped. */
+        ERROR,
+        /** Failures which end the application. */
+        FATAL
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SHUTDOWN_FLUSH_MILLIS = 1000;
+
+    private static final TraceBuffer<Event> BUFFER = new TraceBuffer<>(BUFFER_SIZE);
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static volatile Level level = Level.WARN;
+    private static volatile boolean idle;
+    private static final Thread APPENDER = startAppender();
+
+    /**
+     * Sets the lowest level of message to log.
+     * @param minimum the level.
+     */
+    public static void setLevel(final Level minimum) {
+        level = minimum;
+    }
+
+    /**
+     * Whether messages at a level are logged, to guard building a message where a {@link Supplier} will not do.
+     * @param priority the level.
+     * @return true if messages at the level are logged.
+     */
+    public static boolean isEnabled(final Level priority) {
+        return priority.compareTo(level) >= 0;
+    }
+
     /**
      * Logs the supplied message from the supplied source at INFO priority.
-     * 
+     *
      * @param source  the source class calling the log statement.
      * @param message the message.
      */
     public static void info(final Class source, final String message) {
-        // System.out.println(Instant.now() + " INFO [" + source.getCanonicalName() + "] - " + message);
+        if (isEnabled(Level.INFO)) {
+            append(Level.INFO, source, message, null);
+        }
+    }
+
+    /**
+     * Logs the supplied message from the supplied source at INFO priority, only building it if INFO is enabled.
+     *
+     * @param source  the source class calling the log statement.
+     * @param message the supplier of the message.
+     */
+    public static void info(final Class source, final Supplier<String> message) {
+        if (isEnabled(Level.INFO)) {
+            append(Level.INFO, source, message.get(), null);
+        }
     }
 
     /**
      * Logs the supplied message from the supplied source at WARN priority.
-     * 
+     *
      * @param source  the source class calling the log statement.
      * @param message the message.
      */
     public static void warn(final Class source, final String message) {
-        System.out.println(Instant.now() + " WARN [" + source.getCanonicalName() + "] - " + message);
+        if (isEnabled(Level.WARN)) {
+            append(Level.WARN, source, message, null);
+        }
+    }
+
+    /**
+     * Logs the supplied message from the supplied source at WARN priority, only building it if WARN is enabled.
+     *
+     * @param source  the source class calling the log statement.
+     * @param message the supplier of the message.
+     */
+    public static void warn(final Class source, final Supplier<String> message) {
+        if (isEnabled(Level.WARN)) {
+            append(Level.WARN, source, message.get(), null);
+        }
     }
 
     /**
      * Logs the supplied message from the supplied source at ERROR priority and
      * prints the stack trace.
-     * 
+     *
      * @param source  the source class calling the log statement.
      * @param message the message.
      * @param cause   the error encountered
      */
     public static void error(final Class source, final String message, final Throwable cause) {
-        System.out.println(
-                Instant.now() + " ERROR [" + source.getCanonicalName() + "] - " + message + " - " + cause.getMessage());
-        cause.printStackTrace();
+        if (isEnabled(Level.ERROR)) {
+            append(Level.ERROR, source, message, cause);
+        }
     }
 
     /**
      * Logs the supplied message from the supplied source at FATAL priority and
      * prints the stack trace. Also attempts to exit the application, so use
-     * judiciously.
-     * 
+     * judiciously. Everything logged before it is written first.
+     *
      * @param source  the source class calling the log statement.
      * @param message the message.
      * @param cause   the error encountered
      */
     public static void fatal(final Class source, final String message, final Throwable cause) {
-        System.out.println(
-                Instant.now() + " FATAL [" + source.getCanonicalName() + "] - " + message + " - " + cause.getMessage());
-        cause.printStackTrace();
+        append(Level.FATAL, source, message, cause);
+        flush(SHUTDOWN_FLUSH_MILLIS);
         System.exit(1);
     }
 
+    /**
+     * Waits for every message logged so far to be written, or for the timeout.
+     * @param timeoutMillis the longest to wait, in milliseconds.
+     * @return true if every message was written.
+     */
+    public static boolean flush(final long timeoutMillis) {
+        final long target = BUFFER.claimed();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (BUFFER.consumed() < target) {
+            if (System.nanoTime() >= deadline || !APPENDER.isAlive()) {
+                return false;
+            }
+            LockSupport.unpark(APPENDER);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    // Hands the message to the appender, waking it if idle, or counts it as dropped if the buffer is full.
+    private static void append(final Level priority, final Class source, final String message, final Throwable cause) {
+        if (!BUFFER.offer(new Event(Instant.now(), priority, source, message, cause))) {
+            DROPPED.incrementAndGet();
+            return;
+        }
+        if (idle) {
+            LockSupport.unpark(APPENDER);
+        }
+    }
+
+    // Starts the appender thread, and a shutdown hook to write what is left before the JVM exits.
+    private static Thread startAppender() {
+        final Thread appender = new Thread(Trace::appendAll, "logger-trace");
+        appender.setDaemon(true);
+        appender.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(SHUTDOWN_FLUSH_MILLIS), "logger-trace-flush"));
+        return appender;
+    }
+
+    // The appender thread's loop - writes each message in turn, and parks when there are none.
+    private static void appendAll() {
+        while (true) {
+            final Event event = BUFFER.peek();
+            if (event != null) {
+                event.write();
+                BUFFER.remove();
+                continue;
+            }
+            final long dropped = DROPPED.getAndSet(0);
+            if (dropped > 0) {
+                new Event(Instant.now(), Level.WARN, Trace.class, "Dropped " + dropped + " messages - the trace buffer was full", null).write();
+            }
+            idle = true;
+            if (BUFFER.peek() == null) { // checked again once idle is set, so a message added since is never left waiting
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+            idle = false;
+        }
+    }
+
+    /**
+     * A message waiting to be written.
+     */
+    private static final class Event {
+
+        private final Instant time;
+        private final Level level;
+        private final Class source;
+        private final String message;
+        private final Throwable cause;
+
+        Event(final Instant time, final Level level, final Class source, final String message, final Throwable cause) {
+            this.time = time;
+            this.level = level;
+            this.source = source;
+            this.message = message;
+            this.cause = cause;
+        }
+
+        void write() {
+            System.out.println(time + " " + level + " [" + source.getCanonicalName() + "] - " + message
+                    + (cause != null ? " - " + cause.getMessage() : ""));
+            if (cause != null) {
+                cause.printStackTrace();
+            }
+        }
+
+    }
+
 }
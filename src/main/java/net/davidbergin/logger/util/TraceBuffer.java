@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2021 David Bergin
+ */
+package net.davidbergin.logger.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock free ring buffer of trace events, with many producers and a single consumer. A producer claims the next
+ * slot with a compare and set, and gives up rather than wait if the buffer is full. The consumer reads the slots in
+ * claim order, so events are written in the order they were logged, and frees each one only once it has been written.
+ */
+class TraceBuffer<E> {
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(); // the next sequence to claim
+    private volatile long consumed; // the next sequence to read - only written by the consumer
+
+    /**
+     * Creates an empty buffer.
+     * @param capacity the most events held, rounded up to a power of two.
+     */
+    TraceBuffer(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an event, if there is room.
+     * @param event the event.
+     * @return false if the buffer was full, and the event was not added.
+     */
+    boolean offer(final E event) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed > mask) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        slots.set((int) sequence & mask, event); // a volatile write, so the consumer sees it before any later wake up check
+        return true;
+    }
+
+    /**
+     * @return the next event, without removing it, or null if there isn't one - or its producer has not finished adding it.
+     *         Only called by the consumer.
+     */
+    E peek() {
+        return slots.get((int) consumed & mask);
+    }
+
+    /**
+     * Frees the slot of the event last peeked, once it has been written. Only called by the consumer.
+     */
+    void remove() {
+        slots.set((int) consumed & mask, null);
+        consumed++; // only the consumer writes it, so this is not a lost update
+    }
+
+    /**
+     * @return the number of events ever claimed.
+     */
+    long claimed() {
+        return claimed.get();
+    }
+
+    /**
+     * @return the number of events ever written and removed.
+     */
+    long consumed() {
+        return consumed;
+    }
+
+}
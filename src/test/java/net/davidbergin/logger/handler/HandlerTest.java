@@ -3,9 +3,22 @@ package net.davidbergin.logger.handler;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import net.davidbergin.logger.metrics.ProcessingMetrics;
+
 @SpringBootTest
 public class HandlerTest {
 
@@ -28,6 +41,47 @@ public class HandlerTest {
         assertEquals(one, two);
     }
 
+    @Test
+    public void shouldSniffHandlerFromContentWithoutMovingIt() {
+        ByteBuffer xml = ByteBuffer.wrap("\ufeff \r\n<activities/>".getBytes(StandardCharsets.UTF_8));
+        assertEquals(XMLHandler.class, HandlerFactory.sniff(xml).getClass());
+        assertEquals(0, xml.position());
+        assertEquals(JSONHandler.class, HandlerFactory.sniff(ByteBuffer.wrap("\t[{}]".getBytes(StandardCharsets.UTF_8))).getClass());
+        assertNull(HandlerFactory.sniff(ByteBuffer.wrap("userName,websiteName".getBytes(StandardCharsets.UTF_8))));
+        assertNull(HandlerFactory.sniff(ByteBuffer.wrap("   ".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void shouldSniffHandlerFromStreamAndReset() throws Exception {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream("  {\"userName\":\"a\"}".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(JSONHandler.class, HandlerFactory.sniff(in).getClass());
+        assertEquals(' ', in.read());
+    }
+
+    @Test
+    public void shouldSniffHandlerFromTheStartOfAFile() throws Exception {
+        Path file = Files.createTempFile("sniff", "");
+        try {
+            StringBuilder content = new StringBuilder("  <activities>");
+            while (content.length() < 1024 * 1024) {
+                content.append("<activity/>");
+            }
+            Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+            assertEquals(XMLHandler.class, HandlerFactory.sniff(file).getClass());
+            Files.write(file, new byte[0]);
+            assertNull(HandlerFactory.sniff(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldGetHandlerForCompressedFileByExtensionBeforeGz() {
+        assertEquals(JSONHandler.class, HandlerFactory.getInstance("one.json.gz").getClass());
+        assertEquals(XMLHandler.class, HandlerFactory.getInstance("one.XML.GZ").getClass());
+        assertNull(HandlerFactory.getInstance("one.gz"));
+    }
+
     @Test
     public void shouldGetNullForUnsupportedFile() {
         Handler one = HandlerFactory.getInstance("one.yml");
@@ -72,5 +126,82 @@ public class HandlerTest {
         String result = xmlHandler.handle(xml);
         assertNull(result);
     }
+
+    @Test
+    public void xmlHandlingToleratesWhitespaceAndComments() {
+        String xml = "<activity>\n  <userName>Williamson</userName>\n  <websiteName>xyz.com</websiteName>\n  <!-- purchase -->\n  <activityTypeCode> 2 </activityTypeCode>\n  <loggedInTime>2020-01-13</loggedInTime>\n  <number_of_views>10</number_of_views>\n</activity>\n";
+        Handler xmlHandler = HandlerFactory.getInstance("test.xml");
+        String result = xmlHandler.handle(xml);
+        String expected = "{\"user\":\"Williamson\",\"website\":\"xyz.com\",\"activityTypeDescription\":\"Purchased\",\"signedInTime\":\"2020-01-13 00:00:00\"}";
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public void byteHandlingMatchesStringHandling() {
+        String json = "{\"activity\" : {\"userName\" : \"S\u00e4m\",\"websiteName\" : \"abc.com\",\"activityTypeCode\" : 1,\"signedInTime\" : \"01/13/2020\"}}";
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><activity><userName>W\u00efll</userName><websiteName>xyz.com</websiteName><activityTypeCode>002</activityTypeCode><loggedInTime>2020-01-13</loggedInTime><number_of_views>10</number_of_views></activity>";
+        Handler jsonHandler = HandlerFactory.getInstance("test.json");
+        Handler xmlHandler = HandlerFactory.getInstance("test.xml");
+        assertEquals(jsonHandler.handle(json), jsonHandler.handle(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(xmlHandler.handle(xml), xmlHandler.handle(ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void byteHandlingReturnsNullForInvalidContent() {
+        Handler xmlHandler = HandlerFactory.getInstance("test.xml");
+        assertNull(xmlHandler.handle(ByteBuffer.wrap("<activity/>".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void jsonHandlingStreamsArraysAndDelimitedRecords() throws InterruptedException {
+        String record = "{\"activity\" : {\"userName\" : \"Sam\",\"websiteName\" : \"abc.com\",\"activityTypeCode\" : 1,\"signedInTime\" : \"01/13/2020\"}}";
+        Handler jsonHandler = HandlerFactory.getInstance("test.json");
+        String expected = jsonHandler.handle(record);
+        List<String> records = new ArrayList<>();
+        assertEquals(2, jsonHandler.handle(ByteBuffer.wrap(("[" + record + "," + record + "]").getBytes(StandardCharsets.UTF_8)), records::add));
+        assertEquals(3, jsonHandler.handle(ByteBuffer.wrap((record + "\n" + record + "\n{}\n" + record + "\n").getBytes(StandardCharsets.UTF_8)), records::add));
+        assertEquals(5, records.size());
+        for (String output : records) {
+            assertEquals(expected, output);
+        }
+    }
+
+    @Test
+    public void xmlHandlingStreamsActivitiesAndSkipsInvalidOnes() throws InterruptedException {
+        String activity = "<activity><userName>Will</userName><websiteName>xyz.com</websiteName><activityTypeCode>002</activityTypeCode><loggedInTime>2020-01-13</loggedInTime><number_of_views>10</number_of_views></activity>";
+        Handler xmlHandler = HandlerFactory.getInstance("test.xml");
+        String expected = xmlHandler.handle(activity);
+        List<String> records = new ArrayList<>();
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><activities>" + activity + "<activity/>" + activity + "</activities>";
+        assertEquals(2, xmlHandler.handle(ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8)), records::add));
+        assertEquals(2, records.size());
+        assertEquals(expected, records.get(0));
+        assertEquals(expected, records.get(1));
+    }
+
+    @Test
+    public void xmlHandlingCountsADocumentWithoutActivities() throws InterruptedException {
+        Handler xmlHandler = HandlerFactory.getInstance("test.xml");
+        long before = ProcessingMetrics.instance().errors(ProcessingMetrics.ErrorReason.NO_ACTIVITY);
+        List<String> records = new ArrayList<>();
+        assertEquals(0, xmlHandler.handle(ByteBuffer.wrap("<activities><visit/></activities>".getBytes(StandardCharsets.UTF_8)), records::add));
+        assertEquals(0, records.size());
+        assertEquals(before + 1, ProcessingMetrics.instance().errors(ProcessingMetrics.ErrorReason.NO_ACTIVITY));
+    }
+
+    @Test
+    public void shouldHandleBatchOfContentsInTurn() throws InterruptedException {
+        String activity = "<activity><userName>Will</userName><websiteName>xyz.com</websiteName><activityTypeCode>002</activityTypeCode><loggedInTime>2020-01-13</loggedInTime><number_of_views>10</number_of_views></activity>";
+        Handler xmlHandler = HandlerFactory.getInstance("test.xml");
+        List<ByteBuffer> contents = new ArrayList<>();
+        contents.add(ByteBuffer.wrap(activity.getBytes(StandardCharsets.UTF_8)));
+        contents.add(ByteBuffer.wrap("<activity/>".getBytes(StandardCharsets.UTF_8)));
+        contents.add(ByteBuffer.wrap(("<activities>" + activity + activity + "</activities>").getBytes(StandardCharsets.UTF_8)));
+        Iterator<ByteBuffer> batch = contents.iterator();
+        List<String> records = new ArrayList<>();
+        assertEquals(3, xmlHandler.handle(() -> batch.hasNext() ? batch.next() : null, records::add));
+        assertEquals(3, records.size());
+        assertEquals(xmlHandler.handle(activity), records.get(2));
+    }
     
 }
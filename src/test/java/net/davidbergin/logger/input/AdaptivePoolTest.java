@@ -0,0 +1,79 @@
+package net.davidbergin.logger.input;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class AdaptivePoolTest {
+
+    @Test
+    public void shouldClimbToWhereMoreThreadsStopHelpingAndSettle() {
+        ThreadPoolExecutor pool = pool(12);
+        AdaptivePool adaptive = new AdaptivePool(pool, 1, 32, 1000, 0.05, () -> 0, () -> 0);
+        for (int interval = 0; interval < 50 && !adaptive.isSettled(); interval++) {
+            adaptive.adjust(Math.min(adaptive.threads(), 6) * 100.0, true, false); // no better beyond 6 threads
+        }
+        assertTrue(adaptive.isSettled());
+        assertEquals(6, adaptive.threads());
+        assertEquals(6, pool.getCorePoolSize());
+        assertEquals(6, pool.getMaximumPoolSize());
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldNotGrowWithoutBacklogOrWhenSaturatedAndStayInBounds() {
+        ThreadPoolExecutor pool = pool(4);
+        AdaptivePool adaptive = new AdaptivePool(pool, 2, 8, 1000, 0.05, () -> 0, () -> 0);
+        assertEquals(3, adaptive.adjust(100, false, false));
+        assertEquals(2, adaptive.adjust(100, true, true));
+        assertEquals(2, adaptive.adjust(100, true, true));
+        assertFalse(pool.getCorePoolSize() < 2);
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldTuneAgainWhenThroughputMovesAfterSettling() {
+        ThreadPoolExecutor pool = pool(4);
+        AdaptivePool adaptive = new AdaptivePool(pool, 1, 16, 1000, 0.05, () -> 0, () -> 0);
+        for (int interval = 0; interval < 50 && !adaptive.isSettled(); interval++) {
+            adaptive.adjust(Math.min(adaptive.threads(), 3) * 100.0, true, false);
+        }
+        assertTrue(adaptive.isSettled());
+        int settled = adaptive.threads();
+        assertEquals(settled, adaptive.adjust(300, true, false));
+        adaptive.adjust(1000, true, false);
+        assertFalse(adaptive.isSettled());
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldStaySettledWhileInputIsIdleOrRunningOut() {
+        ThreadPoolExecutor pool = pool(4);
+        AdaptivePool adaptive = new AdaptivePool(pool, 1, 16, 1000, 0.05, () -> 0, () -> 0);
+        for (int interval = 0; interval < 50 && !adaptive.isSettled(); interval++) {
+            adaptive.adjust(Math.min(adaptive.threads(), 3) * 100.0, true, false);
+        }
+        assertTrue(adaptive.isSettled());
+        int settled = adaptive.threads();
+        int adjustments = adaptive.adjustments();
+        assertEquals(settled, adaptive.adjust(0, false, false));
+        assertEquals(settled, adaptive.adjust(20, false, false));
+        assertEquals(settled, adaptive.adjust(0, false, false));
+        assertTrue(adaptive.isSettled());
+        assertEquals(adjustments, adaptive.adjustments());
+        pool.shutdown();
+    }
+
+    private static ThreadPoolExecutor pool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+    }
+
+}
@@ -0,0 +1,83 @@
+package net.davidbergin.logger.input;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class InputArchiveTest {
+
+    @Test
+    public void shouldStreamEntriesDecompressingGzippedOnes() throws Exception {
+        Path file = Files.createTempDirectory("archive").resolve("input.ZIP");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+            zip.putNextEntry(new ZipEntry("logs/"));
+            zip.putNextEntry(new ZipEntry("logs/one.json"));
+            zip.write("{\"one\":1}".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("logs/two.json.gz"));
+            zip.write(gzip("{\"two\":2}"));
+            zip.closeEntry();
+        }
+
+        assertTrue(InputArchive.isArchive(file));
+        assertFalse(InputArchive.isArchive(Paths.get("input.json.gz")));
+        try (InputArchive archive = new InputArchive(file)) {
+            assertEquals(Arrays.asList("logs/one.json", "logs/two.json.gz"), archive.entries());
+            assertEquals("two.json.gz", InputArchive.fileName("logs/two.json.gz"));
+            assertEquals("{\"one\":1}", read(archive.open("logs/one.json")));
+            assertEquals("{\"two\":2}", read(archive.open("logs/two.json.gz")));
+            archive.release();
+            archive.release();
+            assertThrows(IllegalStateException.class, () -> archive.open("logs/one.json")); // closed by the last release
+        }
+    }
+
+    @Test
+    public void shouldStreamGzippedFilesAndReadOthersWhole() throws Exception {
+        Path dir = Files.createTempDirectory("compressed");
+        Path compressed = Files.write(dir.resolve("one.xml.gz"), gzip("<activity/>"));
+        Path plain = Files.write(dir.resolve("two.xml"), "<activity/>".getBytes(StandardCharsets.UTF_8));
+        InputReader reader = new InputReader(1024);
+        assertEquals("<activity/>", read(reader.open(compressed)));
+        assertEquals("<activity/>", read(reader.open(plain)));
+        assertThrows(IOException.class, () -> reader.open(Files.write(dir.resolve("three.json.gz"), new byte[] {'{', '}'})));
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream content = in) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[256];
+            int read;
+            while ((read = content.read(chunk)) >= 0) {
+                bytes.write(chunk, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package net.davidbergin.logger.input;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class InputBatcherTest {
+
+    @Test
+    public void shouldBatchSmallFilesOfTheSameTypeUntilFull() {
+        InputBatcher<String> batcher = new InputBatcher<>(100, 3);
+        assertTrue(batcher.accepts(99));
+        assertFalse(batcher.accepts(100));
+
+        Path a = Paths.get("a.json");
+        Path b = Paths.get("b.xml");
+        Path c = Paths.get("c.json");
+        Path d = Paths.get("d.json");
+        Path e = Paths.get("e.json");
+        assertNull(batcher.add("json", a, 60));
+        assertNull(batcher.add("xml", b, 60));
+        assertEquals(Arrays.asList(a, c), batcher.add("json", c, 40)); // full by bytes
+        assertNull(batcher.add("json", d, 1));
+        assertNull(batcher.add("json", e, 1));
+
+        List<List<Path>> drained = batcher.drain();
+        assertEquals(Arrays.asList(Collections.singletonList(b), Arrays.asList(d, e)), drained);
+        assertTrue(batcher.drain().isEmpty());
+    }
+
+    @Test
+    public void shouldLimitTheFilesInABatch() {
+        InputBatcher<String> batcher = new InputBatcher<>(100, 2);
+        assertNull(batcher.add("json", Paths.get("a.json"), 1));
+        assertEquals(2, batcher.add("json", Paths.get("b.json"), 1).size());
+    }
+
+}
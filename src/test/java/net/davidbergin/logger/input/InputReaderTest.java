@@ -0,0 +1,37 @@
+package net.davidbergin.logger.input;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class InputReaderTest {
+
+    @Test
+    public void shouldReuseReleasedBuffersWhenPooled() throws Exception {
+        Path dir = Files.createTempDirectory("pooled");
+        Path one = Files.write(dir.resolve("one.json"), "{\"one\":1}".getBytes(StandardCharsets.UTF_8));
+        Path two = Files.write(dir.resolve("two.json"), "{\"two\":2}".getBytes(StandardCharsets.UTF_8));
+        InputReader reader = new InputReader(1024, 1);
+
+        ByteBuffer first = reader.read(one);
+        ByteBuffer second = reader.read(two);
+        assertFalse(first == second); // the first is still held, so is not handed out again
+        assertEquals("{\"one\":1}", StandardCharsets.UTF_8.decode(first).toString());
+
+        reader.release(first);
+        reader.release(second); // dropped, as the pool only keeps one
+        ByteBuffer third = reader.read(two);
+        assertTrue(third == first);
+        assertEquals("{\"two\":2}", StandardCharsets.UTF_8.decode(third).toString());
+    }
+
+}
@@ -0,0 +1,94 @@
+package net.davidbergin.logger.input;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class InputScheduleTest {
+
+    @Test
+    public void shouldScheduleExpensiveFilesFirstAndBatchSmallOnes() throws Exception {
+        Path dir = Files.createTempDirectory("schedule");
+        Path small1 = write(dir, "a.json", 10);
+        Path small2 = write(dir, "b.json", 20);
+        Path small3 = write(dir, "c.json", 30);
+        Path large = write(dir, "d.json", 500);
+        Path xml = write(dir, "e.xml", 200);
+        Path compressed = write(dir, "f.json.gz", 40);
+
+        InputSchedule schedule = new InputSchedule(4, 100);
+        for (Path file : Arrays.asList(small1, small2, small3, large, xml, compressed)) {
+            schedule.add(file);
+        }
+
+        List<InputSchedule.Task> tasks = schedule.tasks();
+        assertEquals(6, schedule.files());
+        assertEquals(4, tasks.size());
+        assertEquals(Collections.singletonList(xml), tasks.get(0).files()); // 800, weighted as XML
+        assertEquals(Collections.singletonList(large), tasks.get(1).files());
+        assertEquals(Collections.singletonList(compressed), tasks.get(2).files()); // 200, weighted as compressed
+        assertEquals(Arrays.asList(small3, small2, small1), tasks.get(3).files());
+        assertEquals(60, tasks.get(3).cost());
+    }
+
+    @Test
+    public void shouldSkipAFileDeletedSinceItWasListed() throws Exception {
+        Path dir = Files.createTempDirectory("schedule");
+        Path kept = write(dir, "a.json", 10);
+        Path deleted = write(dir, "b.json", 10);
+        Files.delete(deleted);
+
+        InputSchedule schedule = new InputSchedule(4, 100);
+        assertTrue(schedule.add(kept));
+        assertFalse(schedule.add(deleted));
+        assertEquals(1, schedule.files());
+        assertEquals(Collections.singletonList(kept), schedule.tasks().get(0).files());
+    }
+
+    @Test
+    public void shouldBatchSmallFilesByExtension() throws Exception {
+        Path dir = Files.createTempDirectory("schedule");
+        Path json1 = write(dir, "a.json", 30);
+        Path xml = write(dir, "b.xml", 20);
+        Path json2 = write(dir, "c.json", 10);
+
+        InputSchedule schedule = new InputSchedule(1, 100);
+        for (Path file : Arrays.asList(json1, xml, json2)) {
+            schedule.add(file);
+        }
+
+        List<InputSchedule.Task> tasks = schedule.tasks();
+        assertEquals(2, tasks.size());
+        assertEquals(Arrays.asList(json1, json2), tasks.get(0).files());
+        assertEquals(Collections.singletonList(xml), tasks.get(1).files());
+    }
+
+    @Test
+    public void shouldEstimateMakespanFromTheOrderWorkIsTaken() throws Exception {
+        assertEquals(12, InputSchedule.makespan(Arrays.asList(1L, 1L, 1L, 1L, 10L), 2));
+        assertEquals(10, InputSchedule.makespan(Arrays.asList(10L, 1L, 1L, 1L, 1L), 2));
+
+        Path dir = Files.createTempDirectory("makespan");
+        InputSchedule schedule = new InputSchedule(1, 1);
+        for (int i = 0; i < 8; i++) {
+            schedule.add(write(dir, i + ".json", 10));
+        }
+        schedule.add(write(dir, "last.json", 80));
+        assertTrue(schedule.estimatedMakespanRatio(2) < 0.8); // 80 against 40 + 80
+    }
+
+    private static Path write(Path dir, String name, int size) throws Exception {
+        return Files.write(dir.resolve(name), new byte[size]);
+    }
+
+}
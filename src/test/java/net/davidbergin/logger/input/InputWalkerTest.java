@@ -0,0 +1,76 @@
+package net.davidbergin.logger.input;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class InputWalkerTest {
+
+    @Test
+    public void shouldOnlyWalkTheTopLevelByDefault() throws IOException {
+        Path root = createTree();
+        assertEquals(set("a.xml", "b.json", "c.txt"), walk(new InputWalker(root, false, 10, Collections.emptyList(), Collections.emptyList()), root));
+    }
+
+    @Test
+    public void shouldWalkSubdirectoriesToTheMaximumDepth() throws IOException {
+        Path root = createTree();
+        assertEquals(set("a.xml", "b.json", "c.txt", "sub/d.xml", "sub/deeper/e.json", "skip/f.xml"),
+                walk(new InputWalker(root, true, 10, Collections.emptyList(), Collections.emptyList()), root));
+        assertEquals(set("a.xml", "b.json", "c.txt", "sub/d.xml", "skip/f.xml"),
+                walk(new InputWalker(root, true, 2, Collections.emptyList(), Collections.emptyList()), root));
+    }
+
+    @Test
+    public void shouldApplyIncludeAndExcludeGlobs() throws IOException {
+        Path root = createTree();
+        assertEquals(set("a.xml", "b.json", "sub/d.xml", "sub/deeper/e.json"),
+                walk(new InputWalker(root, true, 10, Arrays.asList("*.xml", "*.json"), Arrays.asList("skip")), root));
+        assertEquals(set("sub/deeper/e.json"),
+                walk(new InputWalker(root, true, 10, Arrays.asList("sub/**"), Arrays.asList("*.xml")), root));
+    }
+
+    @Test
+    public void shouldWalkEachDirectoryInNameOrderWhenSorted() throws IOException {
+        Path root = createTree();
+        List<String> found = new ArrayList<>();
+        new InputWalker(root, true, 10, Collections.emptyList(), Collections.emptyList(), true)
+                .walk(file -> found.add(root.relativize(file).toString().replace('\\', '/')));
+        assertEquals(Arrays.asList("a.xml", "b.json", "c.txt", "skip/f.xml", "sub/d.xml", "sub/deeper/e.json"), found);
+    }
+
+    private static Set<String> walk(InputWalker walker, Path root) throws IOException {
+        Set<String> found = new TreeSet<>();
+        long count = walker.walk(file -> found.add(root.relativize(file).toString().replace('\\', '/')));
+        assertEquals((long) found.size(), count);
+        return found;
+    }
+
+    private static Set<String> set(String... paths) {
+        return new TreeSet<>(Arrays.asList(paths));
+    }
+
+    private static Path createTree() throws IOException {
+        Path root = Files.createTempDirectory("input");
+        List<String> files = Arrays.asList("a.xml", "b.json", "c.txt", "sub/d.xml", "sub/deeper/e.json", "skip/f.xml");
+        for (String file : files) {
+            Path path = root.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.write(path, new byte[0]);
+        }
+        return root;
+    }
+
+}
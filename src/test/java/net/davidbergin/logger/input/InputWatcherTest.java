@@ -0,0 +1,63 @@
+package net.davidbergin.logger.input;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class InputWatcherTest {
+
+    @Test
+    public void shouldHandOverExistingAndNewFilesOnceSettled() throws Exception {
+        Path root = Files.createTempDirectory("watch");
+        write(root.resolve("a.xml"), "a");
+        write(root.resolve("skip/b.xml"), "b");
+
+        Set<String> found = Collections.synchronizedSet(new TreeSet<>());
+        InputWatcher watcher = new InputWatcher(new InputWalker(root, true, 10, Collections.emptyList(), Arrays.asList("skip")), 50);
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.watch(file -> found.add(root.relativize(file).toString().replace('\\', '/')));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+
+        waitFor(found, 1);
+        write(root.resolve("c.json"), "c");
+        write(root.resolve("new/deeper/d.xml"), "d");
+        write(root.resolve("skip/e.xml"), "e");
+        waitFor(found, 3);
+        Thread.sleep(200);
+
+        watcher.close();
+        thread.join();
+        assertEquals(new TreeSet<>(Arrays.asList("a.xml", "c.json", "new/deeper/d.xml")), found);
+        assertEquals(3L, watcher.files());
+        assertTrue(watcher.maxLatencyMillis() >= 50);
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes());
+    }
+
+    private static void waitFor(Set<String> found, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (found.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+}
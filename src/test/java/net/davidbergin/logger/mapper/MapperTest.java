@@ -39,5 +39,12 @@ public class MapperTest {
         BasicOutputFormat other = one.map(activity);
         assertNotEquals(output, other);
     }
+
+    @Test
+    public void outputFormatShouldEscapeAndSkipNullsAsGsonWould() {
+        BasicOutputFormat output = new BasicOutputFormat("d\"m\\b\n", "<git&hub>.com", null, new Date(121, 01, 18, 7, 5, 9));
+        String expected = "{\"user\":\"d\\\"m\\\\b\\n\",\"website\":\"\\u003cgit\\u0026hub\\u003e.com\",\"signedInTime\":\"2021-02-18 07:05:09\"}";
+        assertEquals(expected, output.toJSONString());
+    }
     
 }
@@ -0,0 +1,59 @@
+package net.davidbergin.logger.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class ProcessingMetricsTest {
+
+    @Test
+    public void shouldReadPercentilesToTheUpperBoundOfTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(1_000); // bucket 512 to 1023
+        }
+        histogram.record(100_000);
+        histogram.record(5_000_000);
+        assertEquals(100, histogram.count());
+        assertEquals(1_023, histogram.percentileNanos(0.5));
+        assertEquals(131_071, histogram.percentileNanos(0.99));
+        assertEquals(5_000_000, histogram.percentileNanos(1));
+        assertEquals(5_000_000, histogram.maxNanos());
+        assertEquals(98 * 1_000 + 100_000 + 5_000_000, histogram.totalNanos());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldSnapshotCountsLatenciesAndErrors() {
+        ProcessingMetrics metrics = new ProcessingMetrics();
+        metrics.start(() -> 7);
+        metrics.file(3);
+        metrics.file(0);
+        metrics.read(1024);
+        metrics.time(ProcessingMetrics.Stage.VALIDATE, 2_000_000);
+        metrics.error(ProcessingMetrics.ErrorReason.INVALID_RECORD);
+        metrics.finish();
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(2L, snapshot.get("files"));
+        assertEquals(3L, snapshot.get("records"));
+        assertEquals(1024L, snapshot.get("bytesRead"));
+        assertEquals(7L, snapshot.get("outputQueueDepth"));
+        Map<String, Object> validate = (Map<String, Object>) ((Map<String, Object>) snapshot.get("stages")).get("validate");
+        assertEquals(1L, validate.get("count"));
+        assertEquals(2_000L, validate.get("maxMicros"));
+        Map<String, Object> errors = (Map<String, Object>) snapshot.get("errors");
+        assertEquals(1L, errors.get("invalid_record"));
+        assertEquals(0L, errors.get("malformed_content"));
+
+        metrics.start(() -> 0);
+        assertEquals(0, metrics.files());
+        assertTrue(metrics.elapsedMillis() >= 0);
+    }
+
+}
@@ -0,0 +1,141 @@
+package net.davidbergin.logger.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class CheckpointTest {
+
+    @Test
+    public void shouldRecordWrittenFilesAndSkipThemOnARerun() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path output = dir.resolve("output.txt");
+        Path manifest = dir.resolve("output.txt.manifest");
+        Path one = write(dir.resolve("one.json"), "1");
+        Path two = write(dir.resolve("two.json"), "2");
+
+        Checkpoint checkpoint = new Checkpoint(manifest, output, false);
+        OutputQueue queue = new OutputQueue(16, 64 * 1024);
+        OutputWriter writer = new OutputWriter(output, queue, OutputWriter.SyncPolicy.BATCH, 0, 16, 1024, checkpoint);
+        writer.start();
+        queue.put(checkpoint.block(checkpoint.identify(one), Arrays.asList("{\"user\":\"a\"}", "{\"user\":\"b\"}")));
+        queue.put(checkpoint.block(checkpoint.identify(two), Collections.emptyList()));
+        writer.finish();
+        checkpoint.close();
+        assertEquals(Arrays.asList("{\"user\":\"a\"}", "{\"user\":\"b\"}"), Files.readAllLines(output, StandardCharsets.UTF_8));
+
+        Checkpoint rerun = new Checkpoint(manifest, output, false);
+        assertEquals(Files.size(output), rerun.offset());
+        assertEquals(2, rerun.recorded());
+        assertTrue(rerun.isDone(rerun.identify(one)));
+        assertTrue(rerun.isDone(rerun.identify(two)));
+        Files.setLastModifiedTime(two, FileTime.fromMillis(Files.getLastModifiedTime(two).toMillis() + 60000));
+        assertFalse(rerun.isDone(rerun.identify(two)));
+        assertEquals(0L, rerun.skipped()); // only counted where a file is skipped
+        rerun.close();
+    }
+
+    @Test
+    public void shouldCutBackOutputWrittenAfterTheLastRecordedFile() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path output = dir.resolve("output.txt");
+        Path manifest = dir.resolve("output.txt.manifest");
+        Path one = write(dir.resolve("one.json"), "1");
+
+        Checkpoint checkpoint = new Checkpoint(manifest, output, false);
+        OutputQueue queue = new OutputQueue(16, 64 * 1024);
+        OutputWriter writer = new OutputWriter(output, queue, OutputWriter.SyncPolicy.CLOSE, 0, 16, 1024, checkpoint);
+        writer.start();
+        queue.put(checkpoint.block(checkpoint.identify(one), Arrays.asList("{\"user\":\"a\"}")));
+        writer.finish();
+        checkpoint.close();
+
+        // a crash part way through the next file, and part way through recording it
+        Files.write(output, "{\"user\":\"partial\"}\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        Files.write(manifest, "99\t1\t".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+
+        Checkpoint resumed = new Checkpoint(manifest, output, false);
+        queue = new OutputQueue(16, 64 * 1024);
+        writer = new OutputWriter(output, queue, OutputWriter.SyncPolicy.CLOSE, 0, 16, 1024, resumed);
+        writer.start();
+        queue.put(resumed.block(resumed.identify(write(dir.resolve("two.json"), "2")), Arrays.asList("{\"user\":\"b\"}")));
+        writer.finish();
+        resumed.close();
+
+        assertEquals(Arrays.asList("{\"user\":\"a\"}", "{\"user\":\"b\"}"), Files.readAllLines(output, StandardCharsets.UTF_8));
+        assertEquals(2, Files.readAllLines(manifest, StandardCharsets.US_ASCII).size());
+    }
+
+    @Test
+    public void shouldCopyASpilledBlockIntoTheOutputAndDeleteTheSpill() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path output = dir.resolve("output.txt");
+        Path manifest = dir.resolve("output.txt.manifest");
+
+        Checkpoint checkpoint = new Checkpoint(manifest, output, false, 20);
+        OutputQueue queue = new OutputQueue(16, 64 * 1024);
+        OutputWriter writer = new OutputWriter(output, queue, OutputWriter.SyncPolicy.BATCH, 0, 16, 1024, checkpoint);
+        writer.start();
+        RecordSpill large = checkpoint.spill();
+        for (String record : Arrays.asList("{\"user\":\"a\"}", "{\"user\":\"b\"}", "{\"user\":\"c\"}")) {
+            large.add(record);
+        }
+        RecordSpill small = checkpoint.spill();
+        small.add("{\"user\":\"d\"}");
+        assertNotNull(large.file());
+        queue.put(checkpoint.block(checkpoint.identify(write(dir.resolve("one.json"), "1")), large));
+        queue.put(checkpoint.block(checkpoint.identify(write(dir.resolve("two.json"), "2")), small));
+        writer.finish();
+        checkpoint.close();
+
+        assertEquals(Arrays.asList("{\"user\":\"a\"}", "{\"user\":\"b\"}", "{\"user\":\"c\"}", "{\"user\":\"d\"}"),
+                Files.readAllLines(output, StandardCharsets.UTF_8));
+        assertFalse(Files.exists(large.file()));
+        Checkpoint rerun = new Checkpoint(manifest, output, false);
+        assertEquals(Files.size(output), rerun.offset());
+        assertEquals(2, rerun.recorded());
+        rerun.close();
+    }
+
+    @Test
+    public void shouldSkipAFileWithTheSameContentWhenHashing() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path output = write(dir.resolve("output.txt"), "");
+        Path manifest = dir.resolve("output.txt.manifest");
+        Path one = write(dir.resolve("one.json"), "content");
+        ByteBuffer content = ByteBuffer.wrap("content".getBytes(StandardCharsets.UTF_8));
+
+        Checkpoint checkpoint = new Checkpoint(manifest, output, true);
+        Checkpoint.Block block = checkpoint.block(checkpoint.hashed(checkpoint.identify(one), content), Collections.emptyList());
+        checkpoint.written(block, 0);
+        checkpoint.commit();
+        checkpoint.close();
+
+        Files.setLastModifiedTime(one, FileTime.fromMillis(Files.getLastModifiedTime(one).toMillis() + 60000));
+        Checkpoint rerun = new Checkpoint(manifest, output, true);
+        Checkpoint.Entry touched = rerun.identify(one);
+        assertFalse(rerun.isDone(touched));
+        assertTrue(rerun.isDone(rerun.hashed(touched, content)));
+        assertEquals(0, content.position());
+        rerun.close();
+    }
+
+    private static Path write(Path file, String content) throws Exception {
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,65 @@
+package net.davidbergin.logger.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class GzipBlocksTest {
+
+    @Test
+    public void shouldWriteBlocksInOrderAsOneGzipStream() throws Exception {
+        Path output = Files.createTempFile("output", ".txt.gz");
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        GzipBlocks gzip = new GzipBlocks(pool, 1, 2);
+        OutputQueue queue = new OutputQueue(100, 1024 * 1024);
+        OutputWriter writer = new OutputWriter(output, queue, OutputWriter.SyncPolicy.INTERVAL, 0, 10, 1024, null, gzip);
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            records.add("{\"user\":\"user" + i + "\",\"website\":\"www.example.com\"}");
+        }
+        writer.start();
+        for (String record : records) {
+            queue.put(record);
+        }
+        writer.finish();
+        pool.shutdown();
+
+        assertEquals(records, read(output));
+        assertTrue(gzip.compressedBytes() < gzip.uncompressedBytes() / 4);
+        assertEquals(gzip.compressedBytes(), Files.size(output));
+    }
+
+    @Test
+    public void shouldWriteAValidGzipFileWhenThereIsNoOutput() throws Exception {
+        Path output = Files.createTempFile("output", ".txt.gz");
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        OutputQueue queue = new OutputQueue(10, 1024);
+        OutputWriter writer = new OutputWriter(output, queue, OutputWriter.SyncPolicy.CLOSE, 0, 10, 1024, null, new GzipBlocks(pool, 6, 1));
+        writer.start();
+        writer.finish();
+        pool.shutdown();
+        assertTrue(read(output).isEmpty());
+    }
+
+    private static List<String> read(Path output) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(output)), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+}
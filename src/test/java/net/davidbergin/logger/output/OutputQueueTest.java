@@ -0,0 +1,85 @@
+package net.davidbergin.logger.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class OutputQueueTest {
+
+    @Test
+    public void shouldDrainInOrderAndReleaseBytes() throws Exception {
+        OutputQueue queue = new OutputQueue(10, 100);
+        queue.put("one");
+        queue.put("two");
+        queue.put("three");
+        assertEquals(3, queue.depth());
+        assertEquals(11L, queue.queuedBytes());
+        List<Object> batch = new ArrayList<>();
+        assertEquals("one", queue.take());
+        assertEquals(2, queue.drainTo(batch, 10));
+        assertEquals(Arrays.asList("two", "three"), batch);
+        assertEquals(0L, queue.queuedBytes());
+        assertEquals(3L, queue.peakDepth());
+    }
+
+    @Test
+    public void shouldPutChunksInOrderTakingRoomForAllAtOnce() throws Exception {
+        OutputQueue queue = new OutputQueue(10, 10);
+        queue.putAll(Arrays.asList("one", "two"));
+        assertEquals(6L, queue.queuedBytes());
+        Thread producer = new Thread(() -> {
+            try {
+                queue.putAll(Arrays.asList("three", "four"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        assertEquals(2, queue.depth()); // nine more bytes do not fit beside six, so neither is put
+        List<Object> batch = new ArrayList<>();
+        queue.drainTo(batch, 10);
+        producer.join();
+        queue.drainTo(batch, 10);
+        assertEquals(Arrays.asList("one", "two", "three", "four"), batch);
+        assertEquals(0L, queue.queuedBytes());
+        assertEquals(1L, queue.blockedPuts());
+    }
+
+    @Test
+    public void shouldBlockProducersWhenTheByteCeilingIsReached() throws Exception {
+        OutputQueue queue = new OutputQueue(10, 8);
+        queue.put("12345678");
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put("blocked");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        assertEquals(1, queue.depth());
+        assertEquals("12345678", queue.take());
+        producer.join();
+        assertEquals("blocked", queue.take());
+        assertEquals(1L, queue.blockedPuts());
+        assertTrue(queue.blockedMillis() >= 0);
+    }
+
+    @Test
+    public void shouldAcceptARecordLargerThanTheByteCeiling() throws Exception {
+        OutputQueue queue = new OutputQueue(10, 4);
+        queue.put("larger than the ceiling");
+        assertEquals("larger than the ceiling", queue.take());
+        assertEquals(0L, queue.queuedBytes());
+    }
+
+}
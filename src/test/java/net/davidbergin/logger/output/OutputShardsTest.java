@@ -0,0 +1,75 @@
+package net.davidbergin.logger.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class OutputShardsTest {
+
+    @Test
+    public void shouldKeepEachUserInOneShardAndWriteAnIndex() throws Exception {
+        Path output = Files.createTempDirectory("shards").resolve("output.txt");
+        OutputShards shards = create(output, 3, OutputShards.ShardKey.USER);
+        shards.start();
+        List<String> written = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String record = "{\"user\":\"user" + (i % 7) + "\",\"website\":\"site.com\"}";
+            written.add(record);
+            shards.put(record);
+        }
+        shards.finish();
+
+        List<String> read = new ArrayList<>();
+        List<String> index = Files.readAllLines(output.resolveSibling("output.txt.index"), StandardCharsets.UTF_8);
+        assertEquals("key=user", index.get(0));
+        for (int shard = 0; shard < 3; shard++) {
+            List<String> lines = Files.readAllLines(output.resolveSibling("output-" + shard + ".txt"), StandardCharsets.UTF_8);
+            assertEquals(shard + "\toutput-" + shard + ".txt\t" + lines.size(), index.get(shard + 1));
+            for (String line : lines) {
+                assertEquals(shard, shards.shardOf(line));
+            }
+            read.addAll(lines);
+        }
+        read.sort(null);
+        written.sort(null);
+        assertEquals(written, read);
+        assertFalse(Files.exists(output));
+    }
+
+    @Test
+    public void shouldShareRoundRobinAndWriteOneShardAsTheOutputFile() throws Exception {
+        Path output = Files.createTempDirectory("shards").resolve("output");
+        OutputShards shards = create(output, 2, OutputShards.ShardKey.ROUND_ROBIN);
+        shards.start();
+        for (String record : Arrays.asList("{\"user\":\"a\"}", "{\"user\":\"b\"}", "{\"user\":\"c\"}")) {
+            shards.put(record);
+        }
+        shards.finish();
+        assertEquals(Arrays.asList("{\"user\":\"a\"}", "{\"user\":\"c\"}"), Files.readAllLines(output.resolveSibling("output-0"), StandardCharsets.UTF_8));
+        assertEquals(Arrays.asList("{\"user\":\"b\"}"), Files.readAllLines(output.resolveSibling("output-1"), StandardCharsets.UTF_8));
+
+        Path singleOutput = Files.createTempDirectory("shards").resolve("output");
+        OutputShards single = create(singleOutput, 1, OutputShards.ShardKey.USER);
+        single.start();
+        single.put("{\"user\":\"a\"}");
+        single.finish();
+        assertEquals(Arrays.asList("{\"user\":\"a\"}"), Files.readAllLines(singleOutput, StandardCharsets.UTF_8));
+        assertEquals(1L, Files.list(singleOutput.getParent()).count());
+    }
+
+    private static OutputShards create(Path output, int count, OutputShards.ShardKey key) {
+        return new OutputShards(output, count, key, () -> new OutputQueue(16, 64 * 1024),
+                (file, queue) -> new OutputWriter(file, queue, OutputWriter.SyncPolicy.CLOSE, 0, 16, 1024));
+    }
+
+}
@@ -0,0 +1,92 @@
+package net.davidbergin.logger.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class OutputWriterTest {
+
+    @Test
+    public void shouldWriteEveryRecordAsALine() throws Exception {
+        Path file = Files.createTempFile("output", ".txt");
+        OutputQueue queue = new OutputQueue(16, 64 * 1024);
+        OutputWriter writer = new OutputWriter(file, queue, OutputWriter.SyncPolicy.BATCH, 0, 2, 1024);
+        writer.start();
+        queue.put("{\"user\":\"one\"}");
+        queue.put("{\"user\":\"tw\u00f6\"}");
+        queue.put("{\"user\":\"three\"}");
+        writer.finish();
+        assertEquals(Arrays.asList("{\"user\":\"one\"}", "{\"user\":\"tw\u00f6\"}", "{\"user\":\"three\"}"), Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldWriteRecordsLargerThanTheBuffer() throws Exception {
+        Path file = Files.createTempFile("output", ".txt");
+        OutputQueue queue = new OutputQueue(16, 64 * 1024);
+        OutputWriter writer = new OutputWriter(file, queue, OutputWriter.SyncPolicy.CLOSE, 0, 1024, 1024);
+        char[] large = new char[5000];
+        Arrays.fill(large, 'x');
+        writer.start();
+        queue.put(new String(large));
+        queue.put("small");
+        writer.finish();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList(new String(large), "small"), lines);
+    }
+
+    @Test
+    public void shouldTruncateAnExistingFileWhenNothingIsWritten() throws Exception {
+        Path file = Files.createTempFile("output", ".txt");
+        Files.write(file, "stale".getBytes(StandardCharsets.UTF_8));
+        OutputWriter writer = new OutputWriter(file, new OutputQueue(16, 1024), OutputWriter.SyncPolicy.INTERVAL, 10, 16, 1024);
+        writer.start();
+        writer.finish();
+        assertEquals(0L, Files.size(file));
+    }
+
+    @Test
+    public void shouldSyncWithinTheIntervalOnceTheQueueGoesIdle() throws Exception {
+        Path file = Files.createTempFile("output", ".txt.gz");
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        OutputQueue queue = new OutputQueue(16, 64 * 1024);
+        OutputWriter writer = new OutputWriter(file, queue, OutputWriter.SyncPolicy.INTERVAL, 50, 16, 1024, null, new GzipBlocks(pool, 6, 2));
+        writer.start();
+        queue.put("{\"user\":\"one\"}"); // a part filled block is only compressed and written when synced
+        for (int wait = 0; wait < 100 && Files.size(file) == 0; wait++) {
+            Thread.sleep(50);
+        }
+        assertTrue(Files.size(file) > 0);
+        writer.finish();
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldKeepTakingRecordsAndFailOnFinishAfterAnUncheckedFailure() throws Exception {
+        Path file = Files.createTempFile("output", ".txt.gz");
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        pool.shutdown(); // so compressing the first block is rejected
+        OutputQueue queue = new OutputQueue(4, 1024);
+        OutputWriter writer = new OutputWriter(file, queue, OutputWriter.SyncPolicy.CLOSE, 0, 4, 1024, null, new GzipBlocks(pool, 6, 2));
+        char[] record = new char[600];
+        Arrays.fill(record, 'x');
+        writer.start();
+        for (int i = 0; i < 100; i++) {
+            queue.put(new String(record)); // would block once the queue filled, if the writer had stopped taking
+        }
+        assertThrows(IOException.class, writer::finish);
+    }
+
+}
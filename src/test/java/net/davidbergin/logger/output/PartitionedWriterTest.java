@@ -0,0 +1,78 @@
+package net.davidbergin.logger.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class PartitionedWriterTest {
+
+    @Test
+    public void shouldWriteADayPerFileAndRollOverWithFewFilesOpen() throws Exception {
+        Path output = Files.createTempDirectory("partitions").resolve("output.txt");
+        OutputQueue queue = new OutputQueue(16, 64 * 1024);
+        PartitionedWriter writer = new PartitionedWriter(output, queue, PartitionedWriter.Period.DAY, 1, 0, 2,
+                OutputWriter.SyncPolicy.CLOSE, 0, 2, 1024);
+        writer.start();
+        for (String record : Arrays.asList(record("a", "2020-01-13 09:00:00"), record("b", "2020-01-14 10:00:00"), record("c", "2020-01-13 11:00:00"),
+                record("d", "2020-01-14 12:00:00"), record("e", "2020-01-13 13:00:00"))) {
+            queue.put(record);
+        }
+        writer.finish();
+
+        assertEquals(Arrays.asList(record("a", "2020-01-13 09:00:00"), record("c", "2020-01-13 11:00:00")), read(output, "output-2020-01-13.txt"));
+        assertEquals(Arrays.asList(record("e", "2020-01-13 13:00:00")), read(output, "output-2020-01-13.1.txt"));
+        assertEquals(Arrays.asList(record("b", "2020-01-14 10:00:00"), record("d", "2020-01-14 12:00:00")), read(output, "output-2020-01-14.txt"));
+        String separator = System.lineSeparator();
+        int size = (record("a", "2020-01-13 09:00:00") + separator).length();
+        assertEquals(Arrays.asList("period=day", "2020-01-13\toutput-2020-01-13.txt\t2\t" + size * 2, "2020-01-13\toutput-2020-01-13.1.txt\t1\t" + size,
+                "2020-01-14\toutput-2020-01-14.txt\t2\t" + size * 2), read(output, "output.txt.index"));
+    }
+
+    @Test
+    public void shouldWriteAnHourPerFileAndRecordsWithoutATimeApart() throws Exception {
+        Path output = Files.createTempDirectory("partitions").resolve("output");
+        OutputQueue queue = new OutputQueue(16, 64 * 1024);
+        PartitionedWriter writer = new PartitionedWriter(output, queue, PartitionedWriter.Period.HOUR, 8, 0, 0,
+                OutputWriter.SyncPolicy.BATCH, 0, 16, 1024);
+        writer.start();
+        queue.put(record("a", "2020-01-13 09:00:00"));
+        queue.put("{\"user\":\"b\"}");
+        queue.put(record("c", "2020-01-13 09:59:59"));
+        writer.finish();
+        assertEquals(Arrays.asList(record("a", "2020-01-13 09:00:00"), record("c", "2020-01-13 09:59:59")), read(output, "output-2020-01-13-09"));
+        assertEquals(Arrays.asList("{\"user\":\"b\"}"), read(output, "output-unknown"));
+    }
+
+    @Test
+    public void shouldKeepTakingRecordsAndFailOnFinishAfterAnUncheckedFailure() throws Exception {
+        Path output = Files.createTempDirectory("partitions").resolve("output.txt");
+        OutputQueue queue = new OutputQueue(4, 64 * 1024);
+        PartitionedWriter writer = new PartitionedWriter(output, queue, PartitionedWriter.Period.DAY, 8, 0, 0,
+                OutputWriter.SyncPolicy.CLOSE, 0, 4, 1024);
+        writer.start();
+        queue.put(record("a", "2020-01\u0000-13 09:00:00")); // a partition file name no path can hold
+        for (int i = 0; i < 100; i++) {
+            queue.put(record("b", "2020-01-14 10:00:00")); // would block once the queue filled, if the writer had stopped taking
+        }
+        assertThrows(IOException.class, writer::finish);
+    }
+
+    private static String record(String user, String time) {
+        return "{\"user\":\"" + user + "\",\"signedInTime\":\"" + time + "\"}";
+    }
+
+    private static List<String> read(Path output, String name) throws Exception {
+        return Files.readAllLines(output.resolveSibling(name), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,47 @@
+package net.davidbergin.logger.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class RecordSpillTest {
+
+    @Test
+    public void shouldHoldRecordsInMemoryUpToTheLimit() throws Exception {
+        RecordSpill spill = new RecordSpill(Files.createTempDirectory("spill").resolve("output.txt"), 10);
+        spill.add("{\"a\":1}");
+        List<String> released = new ArrayList<>();
+        spill.forEach(released::add);
+        assertNull(spill.file());
+        assertEquals(Arrays.asList("{\"a\":1}"), released);
+    }
+
+    @Test
+    public void shouldSpillPastTheLimitAndReadBackInOrder() throws Exception {
+        Path output = Files.createTempDirectory("spill").resolve("output.txt");
+        RecordSpill spill = new RecordSpill(output, 10);
+        spill.add("{\"a\":1}");
+        spill.add("{\"b\":\"twö\"}");
+        spill.add("{\"c\":3}");
+        List<String> released = new ArrayList<>();
+        spill.forEach(released::add);
+        assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":\"twö\"}", "{\"c\":3}"), released);
+        assertEquals(3, spill.size());
+        assertTrue(spill.file().getFileName().toString().startsWith("output.txt."));
+        assertEquals(output.getParent(), spill.file().getParent());
+        spill.close();
+        assertFalse(Files.exists(spill.file()));
+    }
+
+}
@@ -0,0 +1,124 @@
+package net.davidbergin.logger.output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class ReorderBufferTest {
+
+    @Test
+    public void shouldReleaseFilesInSequenceOrder() throws Exception {
+        OutputQueue queue = new OutputQueue(10, 1000);
+        ReorderBuffer buffer = new ReorderBuffer(queue, ReorderBuffer.Order.INPUT, 4, 10);
+        long first = buffer.next();
+        long second = buffer.next();
+        long third = buffer.next();
+        buffer.complete(third, Arrays.asList("c"));
+        buffer.complete(second, Collections.emptyList());
+        assertEquals(0, queue.depth());
+        buffer.complete(first, Arrays.asList("a1", "a2"));
+        buffer.finish();
+        assertEquals(Arrays.asList("a1", "a2", "c"), drain(queue));
+        assertEquals(2, buffer.peakHeld());
+    }
+
+    @Test
+    public void shouldReleaseSpilledFilesInSequenceOrderAndDeleteTheSpill() throws Exception {
+        OutputQueue queue = new OutputQueue(10, 1000);
+        ReorderBuffer buffer = new ReorderBuffer(queue, ReorderBuffer.Order.INPUT, 4, 10,
+                Files.createTempDirectory("reorder").resolve("output.txt"), 4);
+        long first = buffer.next();
+        RecordSpill second = buffer.spill();
+        second.add("b1");
+        second.add("b2");
+        second.add("b3");
+        buffer.complete(buffer.next(), second);
+        assertTrue(Files.exists(second.file()));
+        RecordSpill firstRecords = buffer.spill();
+        firstRecords.add("a");
+        buffer.complete(first, firstRecords);
+        buffer.finish();
+        assertEquals(Arrays.asList("a", "b1", "b2", "b3"), drain(queue));
+        assertFalse(Files.exists(second.file()));
+    }
+
+    @Test
+    public void shouldReleaseACheckpointBlockWholeInSequenceOrder() throws Exception {
+        Path dir = Files.createTempDirectory("reorder");
+        Path output = dir.resolve("output.txt");
+        Checkpoint checkpoint = new Checkpoint(dir.resolve("output.txt.manifest"), output, false, 4);
+        OutputQueue queue = new OutputQueue(10, 1000);
+        ReorderBuffer buffer = new ReorderBuffer(queue, ReorderBuffer.Order.INPUT, 4, 10, output, 4);
+        long first = buffer.next();
+        RecordSpill records = checkpoint.spill();
+        records.add("b1");
+        records.add("b2");
+        records.add("b3");
+        Checkpoint.Block block = checkpoint.block(checkpoint.identify(Files.write(dir.resolve("two.json"), new byte[1])), records);
+        buffer.complete(buffer.next(), block);
+        buffer.complete(first, Arrays.asList("a"));
+        buffer.finish();
+        assertEquals(Arrays.asList("a", block), drain(queue));
+        assertTrue(Files.exists(records.file()));
+        checkpoint.close();
+    }
+
+    @Test
+    public void shouldWaitForAnEarlierFileWhenTheWindowIsFull() throws Exception {
+        OutputQueue queue = new OutputQueue(10, 1000);
+        ReorderBuffer buffer = new ReorderBuffer(queue, ReorderBuffer.Order.INPUT, 2, 10);
+        long first = buffer.next();
+        buffer.complete(buffer.next(), Arrays.asList("b"));
+        long[] third = new long[1];
+        Thread walker = new Thread(() -> {
+            try {
+                third[0] = buffer.next();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        walker.start();
+        walker.join(50);
+        assertTrue(walker.isAlive());
+        buffer.complete(first, Arrays.asList("a"));
+        walker.join();
+        assertEquals(2L, third[0]);
+        assertEquals(Arrays.asList("a", "b"), drain(queue));
+    }
+
+    @Test
+    public void shouldSortByTimeWithinTheSortBuffer() throws Exception {
+        OutputQueue queue = new OutputQueue(10, 1000);
+        ReorderBuffer buffer = new ReorderBuffer(queue, ReorderBuffer.Order.TIME, 4, 3);
+        String late = record("late", "2020-02-01 00:00:00");
+        String early = record("early", "2020-01-01 00:00:00");
+        String tied = record("tied", "2020-01-01 00:00:00");
+        String none = "{\"user\":\"none\"}";
+        buffer.complete(buffer.next(), Arrays.asList(late, early));
+        buffer.complete(buffer.next(), Arrays.asList(tied, none));
+        buffer.finish();
+        assertEquals(Arrays.asList(none, early, tied, late), drain(queue));
+    }
+
+    private static String record(String user, String time) {
+        return "{\"user\":\"" + user + "\",\"signedInTime\":\"" + time + "\"}";
+    }
+
+    private static List<Object> drain(OutputQueue queue) {
+        List<Object> records = new ArrayList<>();
+        queue.drainTo(records, Integer.MAX_VALUE);
+        return records;
+    }
+
+}
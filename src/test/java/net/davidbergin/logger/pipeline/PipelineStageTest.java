@@ -0,0 +1,83 @@
+package net.davidbergin.logger.pipeline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+public class PipelineStageTest {
+
+    @Test
+    public void shouldWorkOnEveryItemHandedOnBeforeFinishing() throws Exception {
+        List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> last = new PipelineStage<>("last", 2, 1, results::add);
+        PipelineStage<Integer> first = new PipelineStage<>("first", 1, 1, item -> {
+            if (item == 3) {
+                throw new IllegalArgumentException("skipped");
+            }
+            last.put(item * 10);
+        });
+        last.start();
+        first.start();
+        for (int i = 0; i < 5; i++) {
+            first.put(i);
+        }
+        first.finish();
+        last.finish();
+
+        Collections.sort(results);
+        assertEquals(Arrays.asList(0, 10, 20, 40), results);
+        assertEquals(5L, first.items());
+        assertEquals(4L, last.items());
+        assertTrue(first.utilization() >= 0 && first.utilization() <= 1);
+        assertEquals(0, last.depth());
+        assertEquals(2, last.summary().get("threads"));
+        assertNull(first.failure());
+    }
+
+    @Test
+    public void shouldDrainEveryItemAfterAWorkerThrowsAnError() throws Exception {
+        List<Integer> results = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> stage = new PipelineStage<>("failing", 1, 1, item -> {
+            if (item == 2) {
+                throw new AssertionError("failed");
+            }
+            results.add(item);
+        });
+        stage.start();
+        for (int i = 0; i < 10; i++) {
+            stage.put(i);
+        }
+        stage.finish();
+
+        assertEquals(Arrays.asList(0, 1), results);
+        assertEquals(AssertionError.class, stage.failure().getClass());
+        assertEquals(10L, stage.items() + stage.discarded());
+    }
+
+    @Test
+    public void shouldDrainEveryItemAfterAWorkerIsInterrupted() throws Exception {
+        PipelineStage<Integer> stage = new PipelineStage<>("interrupted", 2, 1, item -> {
+            if (item == 2) {
+                throw new InterruptedException();
+            }
+        });
+        stage.start();
+        for (int i = 0; i < 10; i++) {
+            stage.put(i);
+        }
+        stage.finish();
+
+        assertEquals(InterruptedException.class, stage.failure().getClass());
+        assertEquals(10L, stage.items() + stage.discarded());
+    }
+
+}
@@ -1,7 +1,14 @@
 package net.davidbergin.logger.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -44,5 +51,67 @@ public class UtilTest {
     public void shouldFindExpectedMappingAndNotIntegerDefault() {
         int answer = Config.instance().getInteger("logger.input.threads",123);
         assertEquals(12, answer);
-    }    
+    }
+
+    @Test
+    public void shouldGetEnumIgnoringCaseAndNameTheKeyOfAnUnknownValue() {
+        assertEquals(Trace.Level.WARN, Config.instance().getEnum("sweet.old.world", Trace.Level.class, Trace.Level.WARN));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> Config.instance().getEnum("logger.handler.json", Trace.Level.class, Trace.Level.WARN));
+        assertTrue(e.getMessage().contains("logger.handler.json"));
+    }
+
+    @Test
+    public void shouldReturnIntegerDefaultWithUnexpectedMapping() {
+        int answer = Config.instance().getInteger("sweet.old.world",123);
+        assertEquals(123, answer);
+    }
+
+    @Test
+    public void shouldOnlyBuildMessagesForEnabledLevels() {
+        Trace.setLevel(Trace.Level.WARN);
+        boolean[] built = new boolean[1];
+        Trace.info(UtilTest.class, () -> {
+            built[0] = true;
+            return "not logged";
+        });
+        assertFalse(built[0]);
+        assertFalse(Trace.isEnabled(Trace.Level.INFO));
+        assertTrue(Trace.isEnabled(Trace.Level.ERROR));
+    }
+
+    @Test
+    public void shouldWriteMessagesInOrderOnceFlushed() {
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        Trace.flush(1000);
+        System.setOut(new PrintStream(captured, true));
+        try {
+            Trace.setLevel(Trace.Level.INFO);
+            Trace.info(UtilTest.class, () -> "first");
+            Trace.warn(UtilTest.class, "second");
+            assertTrue(Trace.flush(1000));
+        } finally {
+            Trace.setLevel(Trace.Level.WARN);
+            System.setOut(out);
+        }
+        String written = new String(captured.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(written.indexOf("INFO [net.davidbergin.logger.util.UtilTest] - first") >= 0);
+        assertTrue(written.indexOf("WARN [net.davidbergin.logger.util.UtilTest] - second") > written.indexOf("- first"));
+    }
+
+    @Test
+    public void shouldRejectEventsWhenTheBufferIsFull() {
+        TraceBuffer<String> buffer = new TraceBuffer<>(3); // rounded up to 4
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer("event" + i));
+        }
+        assertFalse(buffer.offer("event4"));
+        assertEquals("event0", buffer.peek());
+        buffer.remove();
+        assertTrue(buffer.offer("event4"));
+        assertEquals("event1", buffer.peek());
+        assertEquals(5, buffer.claimed());
+        assertEquals(1, buffer.consumed());
+    }
 }